@@ -18,6 +18,7 @@
 package org.phenotips.mendelianSearch;
 
 import org.phenotips.mendelianSearch.internal.MendelianSearchRequest;
+import org.phenotips.mendelianSearch.internal.MendelianSearchResult;
 import org.phenotips.mendelianSearch.internal.MendelianVariantCategory;
 
 import org.xwiki.component.annotation.Role;
@@ -38,16 +39,34 @@ public interface MendelianSearch
      * The basic search method.
      *
      * @param request the query
-     * @return returns a list of patient views
+     * @return returns a list of patient views; the list and its views may be shared between calls and users, and must
+     *         not be modified. The views may be partial, and complete copies must be created with
+     *         {@link org.phenotips.mendelianSearch.PatientViewFactory#completePatientViews} before being displayed
      */
     List<PatientView> search(MendelianSearchRequest request);
 
+    /**
+     * Search like {@link #search(MendelianSearchRequest)}, and also count the patients matching the search, including
+     * the ones left out because of the {@code maxResults} request parameter, which only keeps the best phenotype
+     * scores. The views and the count always come from the same search.
+     *
+     * @param request the query
+     * @return the views and the number of patients matching the search; the result may be shared between calls and
+     *         users, and must not be modified
+     */
+    MendelianSearchResult getResult(MendelianSearchRequest request);
+
     /**
      * A context specific method which will return different maps depending on the values stored in the request.
      * Currently supported are:
      * <ul>
      * <li>If request fuzzy phenotype searching is requested then respone will be a map with two keys "withGene" and
-     * "withoutGene" which map to arrays of double scores</li>
+     * "withoutGene" which map to arrays of double scores, respectively of the patients with and without a matching
+     * variant in the requested gene, regardless of the {@code matchGene} parameter</li>
+     * <li>If, in addition, the {@code overviewMode} is {@code summary}, then "withGene" and "withoutGene" map instead
+     * to constant size summaries of the scores: their {@code count} and, if there are any, their {@code mean},
+     * {@code min}, {@code max}, {@code lowerQuartile}, {@code median}, {@code upperQuartile}, and a {@code histogram}
+     * counting the scores in 20 equal bins between 0 and 1</li>
      * </ul>
      *
      * @param request the query
@@ -56,7 +75,7 @@ public interface MendelianSearch
     Map<String, Object> getOverview(MendelianSearchRequest request);
 
     /**
-     * @return a list of all valid patient ids to use in the search
+     * @return an immutable set of all valid patient ids to use in the search; the set may be shared between calls
      */
     Set<String> findValidIds();
 
@@ -0,0 +1,99 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch;
+
+import org.xwiki.component.annotation.Role;
+
+import java.util.Map;
+
+/**
+ * Collects the time spent in each stage of the search pipeline, the size of intermediate result sets, and cache hit
+ * ratios. Measurements are aggregated per stage, and also kept for the most recent searches, by
+ * {@link org.phenotips.mendelianSearch.internal.MendelianSearchRequest#getId() request id}. Measurements made while
+ * a search is {@link #startRequest(String) running} on the current thread are attributed to it.
+ *
+ * @version $Id$
+ */
+@Role
+public interface MendelianSearchMetrics
+{
+    /**
+     * Attribute the measurements made by the current thread to a search, until {@link #endRequest()} is called.
+     *
+     * @param requestId the id of the search request
+     */
+    void startRequest(String requestId);
+
+    /**
+     * Stop attributing the measurements made by the current thread to the search it was working on.
+     */
+    void endRequest();
+
+    /**
+     * Record the time spent in one stage of a search.
+     *
+     * @param stage the name of the stage
+     * @param nanos the duration, in nanoseconds, as measured with {@link System#nanoTime()}
+     */
+    void recordTime(String stage, long nanos);
+
+    /**
+     * Record the time spent in one stage of a search, on a thread not {@link #startRequest(String) working} on it.
+     *
+     * @param requestId the id of the search request, may be {@code null}
+     * @param stage the name of the stage
+     * @param nanos the duration, in nanoseconds, as measured with {@link System#nanoTime()}
+     */
+    void recordTime(String requestId, String stage, long nanos);
+
+    /**
+     * Record the size of a result set.
+     *
+     * @param name the name of the result set
+     * @param size the number of items in the result set
+     */
+    void recordSize(String name, long size);
+
+    /**
+     * Record a cache lookup.
+     *
+     * @param cache the name of the cache
+     * @param hit {@code true} if the value was found in the cache, {@code false} if it had to be computed
+     */
+    void recordCacheAccess(String cache, boolean hit);
+
+    /**
+     * @return the aggregated measurements: under {@code stages}, the {@code count}, {@code totalMillis},
+     *         {@code meanMillis} and {@code maxMillis} of each stage; under {@code sizes}, the {@code count},
+     *         {@code mean} and {@code max} of each result set; under {@code caches}, the {@code hits}, {@code misses}
+     *         and {@code hitRatio} of each cache
+     */
+    Map<String, Object> getMetrics();
+
+    /**
+     * @param requestId the id of a recent search request
+     * @return the milliseconds spent in each stage and the size of each result set of the search, by name, or
+     *         {@code null} if the search is unknown or not recent enough
+     */
+    Map<String, Number> getRequestMetrics(String requestId);
+
+    /**
+     * Forget all the measurements.
+     */
+    void reset();
+}
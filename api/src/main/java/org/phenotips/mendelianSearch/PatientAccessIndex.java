@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch;
+
+import org.phenotips.data.Patient;
+
+import org.xwiki.component.annotation.Role;
+
+import java.util.Set;
+
+/**
+ * Remembers which patients are visible to searches, which patients each user may view, and who owns each patient, so
+ * that repeated searches don't evaluate the rights on every patient again. Patients are numbered densely, and the
+ * visibility of all patients and the access of each recent user are kept as bitmaps over these numbers, so that whole
+ * sets of patients are filtered with a few bitmap operations. The entries of a patient are forgotten when its document
+ * changes, its number is reused once it is deleted, and the access of all users is forgotten when groups or rights
+ * change.
+ *
+ * @version $Id$
+ */
+@Role
+public interface PatientAccessIndex
+{
+    /**
+     * @param patient the patient, not {@code null}
+     * @return {@code true} if the patient isn't hidden, i.e. it may be matched by searches at all
+     */
+    boolean isVisible(Patient patient);
+
+    /**
+     * @param patient the patient, not {@code null}
+     * @return {@code true} if the patient is {@link #isVisible(Patient) visible} and the current user has view access
+     *         on it
+     */
+    boolean hasAccess(Patient patient);
+
+    /**
+     * @param patient the patient, not {@code null}
+     * @return the username of the owner of the patient, {@code null} if it has no owner
+     */
+    String getOwner(Patient patient);
+
+    /**
+     * @param id the internal id of a patient
+     * @return the username of the owner of the patient, {@code null} if it has no owner or doesn't exist
+     */
+    String getOwner(String id);
+
+    /**
+     * Select the {@link #isVisible(Patient) visible} patients of a set. Only the patients never seen before are loaded.
+     *
+     * @param ids the internal ids of the patients
+     * @return the ids of the visible patients, in the same order
+     */
+    Set<String> filterVisible(Set<String> ids);
+
+    /**
+     * Select the patients of a set that the current user {@link #hasAccess(Patient) has access} on. Only the patients
+     * never seen before by this user are loaded.
+     *
+     * @param ids the internal ids of the patients
+     * @return the ids of the accessible patients, in the same order
+     */
+    Set<String> filterAccessible(Set<String> ids);
+}
@@ -38,6 +38,32 @@ public interface PatientView
      */
     String getType();
 
+    /**
+     * @return the patient id, or an undisclosed marker for restricted views
+     */
+    String getPatientId();
+
+    /**
+     * @return the patient owner, or an undisclosed marker for restricted views
+     */
+    String getOwner();
+
+    /**
+     * @return the phenotype score, between 0 and 1
+     */
+    double getPhenotypeScore();
+
+    /**
+     * @return the variants of the patient, empty for restricted views
+     */
+    List<GAVariant> getVariants();
+
+    /**
+     * @return false if only the fields needed for filtering, sorting and paging are set, true if the view also holds
+     *         all the displayed details of the patient
+     */
+    boolean isComplete();
+
     /**
      * Summarize patient information in a JSON object.
      *
@@ -81,6 +107,12 @@ public interface PatientView
      */
     void setType(String type);
 
+    /**
+     * Mark the view as complete or partial.
+     * @param complete true if all the displayed details of the patient are set
+     */
+    void setComplete(boolean complete);
+
     /**
      * Set the patient id.
      * @param id a valid phenotips internal id
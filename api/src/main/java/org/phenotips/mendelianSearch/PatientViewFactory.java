@@ -55,4 +55,28 @@ public interface PatientViewFactory
     List<PatientView> createPatientViews(Set<String> ids, Map<String, List<GAVariant>> variantMap,
         Map<String, Double> scores, MendelianSearchRequest request);
 
+    /**
+     * Create multiple partial patient views, holding only what is needed to filter, sort and page them: the type, id,
+     * owner, phenotype score and variants. The patients aren't loaded, the access of the current user is checked on
+     * the whole set at once. The more expensive details are only looked up for the views actually displayed, with
+     * {@link #completePatientViews(List, MendelianSearchRequest)}.
+     * @param ids A set of valid patient ids, which were scored, i.e. of existing visible patients.
+     * @param variantMap A map from patient id to list of variants
+     * @param scores A map of patient id to phenotype score
+     * @param request The request that provides context to the patient view.
+     * @return A list of partial patient views.
+     */
+    List<PatientView> createPartialPatientViews(Set<String> ids, Map<String, List<GAVariant>> variantMap,
+        Map<String, Double> scores, MendelianSearchRequest request);
+
+    /**
+     * Create complete copies of partial open views, with the patient URL, gene status, diagnosis and phenotype filled
+     * in. The given views are never modified, so partial views may be cached and shared between requests and users.
+     * @param views The views to complete.
+     * @param request The request that provides context to the patient view.
+     * @return The complete views, in the same order. Views which are already complete are returned as they are, as
+     *         are the views of patients which no longer exist.
+     */
+    List<PatientView> completePatientViews(List<PatientView> views, MendelianSearchRequest request);
+
 }
@@ -17,7 +17,9 @@
  */
 package org.phenotips.mendelianSearch.internal;
 
+import org.phenotips.data.Patient;
 import org.phenotips.mendelianSearch.MendelianSearch;
+import org.phenotips.mendelianSearch.MendelianSearchMetrics;
 import org.phenotips.mendelianSearch.PatientView;
 import org.phenotips.mendelianSearch.PatientViewFactory;
 import org.phenotips.mendelianSearch.phenotype.PatientPhenotypeScorer;
@@ -25,29 +27,133 @@ import org.phenotips.variantStoreIntegration.VariantStoreService;
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
 
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
 
 import org.ga4gh.GAVariant;
 
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
 /**
- * Default implementation of {@link MendelianSearch}.
+ * Default implementation of {@link MendelianSearch}. Per-patient variant store lookups are spread across a pool of
+ * threads, whose size is configured with the {@code mendelianSearch.variantStore.threads} property in
+ * {@code xwiki.properties}; a value of {@code 1} makes them sequential. If {@code mendelianSearch.search.pipelined} is
+ * {@code true}, searches for patients without a matching variant look for the carriers of a matching variant on one of
+ * these threads while the phenotypes of all the patients are scored, which takes about as long as the slower of the two
+ * instead of their sum, at the cost of also scoring the carriers. The scoring stays on the thread of the request, which
+ * holds the XWiki context used to check the rights of the current user. Searches for carriers always look them up
+ * first, since only these few patients need to be scored.
+ * <p>
+ * Search results are cached per user and per {@link MendelianSearchRequest#getSearchKey() search key}, so that
+ * paging through and re-sorting the results of a search doesn't run it again. The cache is bounded by the
+ * {@code mendelianSearch.resultCache.size} property, entries expire after {@code mendelianSearch.resultCache.ttl}
+ * seconds, which defaults to and cannot exceed {@code mendelianSearch.validIds.ttl}, and the whole cache is cleared
+ * whenever a patient is modified or deleted, or the valid patient ids are fetched again.
+ * </p>
+ * <p>
+ * The set of {@link #findValidIds() valid patient ids} is shared between searches. It is fetched again from the
+ * variant store when a patient is modified or deleted, and at least every {@code mendelianSearch.validIds.ttl}
+ * seconds, since patients can be added to the variant store independently.
+ * </p>
  *
  * @version $Id$
  */
 @Component
-public class DefaultMendelianSearch implements MendelianSearch
+@Singleton
+public class DefaultMendelianSearch implements MendelianSearch, Initializable, Disposable
 {
+    /** The number of most harmful variants shown for patients without a matching variant. */
+    private static final int TOP_VARIANTS = 5;
+
+    /** The configuration property holding the number of variant store lookup threads. */
+    private static final String THREADS_PROPERTY = "mendelianSearch.variantStore.threads";
+
+    /** The default number of variant store lookup threads. */
+    private static final int DEFAULT_THREADS = 8;
+
+    /** The minimum number of patients looked up by one task. */
+    private static final int MIN_BATCH_SIZE = 50;
+
+    /** The name of the listener clearing the result cache when patients change. */
+    private static final String LISTENER_NAME = "mendelian-search-result-cache-invalidator";
+
+    /** The configuration property holding the maximum number of cached search results. */
+    private static final String RESULT_CACHE_SIZE_PROPERTY = "mendelianSearch.resultCache.size";
+
+    /** The configuration property holding the number of seconds a search result is cached. */
+    private static final String RESULT_CACHE_TTL_PROPERTY = "mendelianSearch.resultCache.ttl";
+
+    /** The configuration property telling if the variant store is queried while the phenotypes are scored. */
+    private static final String PIPELINED_PROPERTY = "mendelianSearch.search.pipelined";
+
+    /** The configuration property holding the number of seconds the set of valid patient ids is kept. */
+    private static final String VALID_IDS_TTL_PROPERTY = "mendelianSearch.validIds.ttl";
+
+    /** The request parameter telling if only the patients with a matching variant are returned. */
+    private static final String MATCH_GENE = "matchGene";
+
+    /** The request parameter holding the minimum phenotype score of the returned patients. */
+    private static final String MIN_PHENOTYPE_SCORE = "minPhenotypeScore";
+
+    /** The request parameter holding the maximum number of returned patients. */
+    private static final String MAX_RESULTS = "maxResults";
+
+    /** The request parameter holding the searched gene symbol. */
+    private static final String GENE = "geneSymbol";
+
+    /** The request key selecting the {@link #SUMMARY_MODE summary} overview instead of the raw scores. */
+    private static final String OVERVIEW_MODE = "overviewMode";
+
+    /** The overview mode summarizing the scores in constant space instead of listing them. */
+    private static final String SUMMARY_MODE = "summary";
+
+    /** The number of bins of the histograms of the summary overview. */
+    private static final int SUMMARY_HISTOGRAM_BINS = 20;
+
+    private static final String WITH_GENE = "withGene";
+
+    private static final String WITHOUT_GENE = "withoutGene";
 
     @Inject
     private VariantStoreService variantStore;
@@ -61,24 +167,231 @@ public class DefaultMendelianSearch implements MendelianSearch
     @Inject
     private PatientViewFactory pvf;
 
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    @Inject
+    private Provider<XWikiContext> xcontext;
+
+    @Inject
+    private MendelianSearchMetrics metrics;
+
     private Map<String, MendelianVariantCategory> variantCategories;
 
+    /** The effects of the variant categories, numbered to be selected with a mask. */
+    private VariantEffects variantEffects;
+
+    /** User and search key to the views found by the search. */
+    private Cache<MendelianSearchResult> results;
+
+    /** The number of variant store lookup threads. */
+    private int threads;
+
+    /** The latest snapshot of the patients in the variant store, {@code null} until first needed. */
+    private volatile ValidIds validIds;
+
+    /** Incremented whenever a patient changes, making older snapshots of the valid ids stale. */
+    private final AtomicLong validIdsGeneration = new AtomicLong();
+
+    /** The number of milliseconds a snapshot of the valid ids is used for. */
+    private long validIdsTTL;
+
+    /** Runs the variant store lookups, {@code null} if they are sequential. */
+    private ExecutorService variantStoreExecutor;
+
+    /** Whether the variant store is queried for carriers while the phenotypes are scored. */
+    private boolean pipelined;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int validIdsSeconds = this.configuration.getProperty(VALID_IDS_TTL_PROPERTY, 300);
+        this.validIdsTTL = validIdsSeconds * 1000L;
+        try {
+            CacheConfiguration config = new CacheConfiguration();
+            config.setConfigurationId("mendelianSearch.results");
+            LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+            lru.setMaxEntries(this.configuration.getProperty(RESULT_CACHE_SIZE_PROPERTY, 100));
+            // A result must not outlive the valid ids it was found among
+            lru.setLifespan(
+                Math.min(this.configuration.getProperty(RESULT_CACHE_TTL_PROPERTY, validIdsSeconds), validIdsSeconds));
+            config.put(EntryEvictionConfiguration.CONFIGURATIONID, lru);
+            this.results = this.cacheManager.createNewLocalCache(config);
+        } catch (CacheException ex) {
+            throw new InitializationException("Failed to create the search result cache", ex);
+        }
+        this.observationManager.addListener(new AbstractEventListener(LISTENER_NAME, new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent())
+        {
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                XWikiDocument doc = (XWikiDocument) source;
+                if (doc.getXObject(Patient.CLASS_REFERENCE) != null || (doc.getOriginalDocument() != null
+                    && doc.getOriginalDocument().getXObject(Patient.CLASS_REFERENCE) != null)) {
+                    // Patients are added to and removed from the variant store along with their documents
+                    DefaultMendelianSearch.this.validIdsGeneration.incrementAndGet();
+                    DefaultMendelianSearch.this.results.removeAll();
+                }
+            }
+        });
+
+        this.variantEffects = new VariantEffects(this.getVariantCategories());
+        this.threads = this.configuration.getProperty(THREADS_PROPERTY, DEFAULT_THREADS);
+        this.pipelined = this.configuration.getProperty(PIPELINED_PROPERTY, false);
+        if (this.threads > 1) {
+            this.variantStoreExecutor = Executors.newFixedThreadPool(this.threads, new ThreadFactory()
+            {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "mendelian-search-variants-" + this.count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.variantStoreExecutor != null) {
+            this.variantStoreExecutor.shutdownNow();
+        }
+        this.observationManager.removeListener(LISTENER_NAME);
+        if (this.results != null) {
+            this.results.dispose();
+        }
+    }
+
     @Override
     public List<PatientView> search(MendelianSearchRequest request)
     {
-        Set<String> allIds = this.findValidIds();
-        Map<String, List<GAVariant>> matchingGenotype = this.findIdsMatchingGenotype(request, allIds);
+        return this.getResult(request).getViews();
+    }
+
+    @Override
+    public MendelianSearchResult getResult(MendelianSearchRequest request)
+    {
+        // Views depend on the access rights of the current user, so results are not shared between users
+        DocumentReference user = this.xcontext.get().getUserReference();
+        String key = String.valueOf(user) + '|' + request.getSearchKey();
+        MendelianSearchResult result = this.results.get(key);
+        this.metrics.recordCacheAccess("searchResults", result != null);
+        if (result == null) {
+            long start = System.nanoTime();
+            result = this.runSearch(request);
+            this.metrics.recordTime(request.getId(), "search", System.nanoTime() - start);
+            this.results.set(key, result);
+        }
+        return result;
+    }
 
-        Set<String> matchingPhenotype = this.findIdsMatchingPhenotype(request, allIds);
+    private MendelianSearchResult runSearch(final MendelianSearchRequest request)
+    {
+        boolean matchGene = (int) request.get(MATCH_GENE) == 1;
+        Set<String> validIds = this.findValidIds();
+        Map<String, List<GAVariant>> carriers;
+        Map<String, Double> scores;
+        if (!matchGene && this.pipelined && this.variantStoreExecutor != null) {
+            // Look for carriers in the variant store while scoring all the patients, and drop the carriers after. The
+            // scoring stays on this thread, since loading patients and checking their rights needs the XWiki context
+            // of the request
+            Future<Map<String, List<GAVariant>>> carrierLookup =
+                this.variantStoreExecutor.submit(new Callable<Map<String, List<GAVariant>>>()
+                {
+                    @Override
+                    public Map<String, List<GAVariant>> call()
+                    {
+                        return findCarriers(request);
+                    }
+                });
+            try {
+                scores = new HashMap<String, Double>(this.findIdsMatchingPhenotype(request, validIds));
+                carriers = carrierLookup.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while querying the variant store", ex);
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("Failed to query the variant store", ex.getCause());
+            } finally {
+                // Only has an effect if the scoring failed or the wait was interrupted
+                carrierLookup.cancel(true);
+            }
+            scores.keySet().removeAll(carriers.keySet());
+        } else {
+            // A single variant store query tells which patients carry a matching variant, only score those which can
+            // match
+            carriers = this.findCarriers(request);
+            Set<String> candidates;
+            if (matchGene) {
+                candidates = new HashSet<String>(carriers.keySet());
+                candidates.retainAll(validIds);
+            } else {
+                candidates = new HashSet<String>(validIds);
+                candidates.removeAll(carriers.keySet());
+            }
+            scores = this.findIdsMatchingPhenotype(request, candidates);
+        }
 
-        Set<String> matchedIds = new HashSet<String>(matchingGenotype.keySet());
-        matchedIds.retainAll(matchingPhenotype);
+        Set<String> matchedIds = selectBestScores(scores, (Integer) request.get(MAX_RESULTS));
+        this.metrics.recordSize("validIds", validIds.size());
+        this.metrics.recordSize("carriers", carriers.size());
+        this.metrics.recordSize("matches", scores.size());
+        this.metrics.recordSize("selectedMatches", matchedIds.size());
 
-        Map<String, Double> scores = this.scorePatientPhenotypes(request, matchedIds);
+        // Patients without a matching variant need one variant store query each, so only query the selected ones
+        Map<String, List<GAVariant>> matchingGenotype =
+            matchGene ? carriers : this.findTopHarmfulVariants(request, matchedIds);
 
-        List<PatientView> views = this.pvf.createPatientViews(matchedIds, matchingGenotype, scores, request);
+        // Only build what's needed for sorting and paging, the displayed views are completed by the caller
+        List<PatientView> views = this.pvf.createPartialPatientViews(matchedIds, matchingGenotype, scores, request);
 
-        return views;
+        return new MendelianSearchResult(Collections.unmodifiableList(views), scores.size());
+    }
+
+    /**
+     * Select the ids with the highest scores. Ties are broken by id, so that the same ids are selected every time.
+     *
+     * @param scores the scores, by id
+     * @param maxResults the maximum number of ids to select, {@code null} to select all of them
+     * @return the selected ids
+     */
+    private static Set<String> selectBestScores(final Map<String, Double> scores, Integer maxResults)
+    {
+        if (maxResults == null || scores.size() <= maxResults) {
+            return scores.keySet();
+        }
+        // A min-heap of the best ids seen so far, its head is the one to replace next
+        Comparator<String> byScore = new Comparator<String>()
+        {
+            @Override
+            public int compare(String a, String b)
+            {
+                int result = Double.compare(scores.get(a), scores.get(b));
+                return (result != 0) ? result : b.compareTo(a);
+            }
+        };
+        PriorityQueue<String> best = new PriorityQueue<String>(Math.max(1, maxResults), byScore);
+        for (String id : scores.keySet()) {
+            if (best.size() < maxResults) {
+                best.add(id);
+            } else if (maxResults > 0 && byScore.compare(id, best.peek()) > 0) {
+                best.poll();
+                best.add(id);
+            }
+        }
+        return new HashSet<String>(best);
     }
 
     @Override
@@ -91,26 +404,50 @@ public class DefaultMendelianSearch implements MendelianSearch
         return result;
     }
 
+    /**
+     * Split the phenotype scores of all the valid patients by whether they carry a matching variant. The whole cohort
+     * is scored in a single pass, and a single variant store query finds the carriers. Note that "withGene" always
+     * holds the scores of the carriers and "withoutGene" those of the other patients, whatever the {@code matchGene}
+     * parameter; searches with {@code matchGene} set to {@code 0} used to list the patients without a matching variant
+     * under "withGene" instead.
+     *
+     * @param request the query, with the variant and phenotype filters
+     * @return the scores of the carriers under "withGene" and of the other patients under "withoutGene", as lists or,
+     *         in {@link #SUMMARY_MODE summary} mode, as summaries
+     */
     private Map<String, Object> getFuzzyOverview(MendelianSearchRequest request)
     {
         Set<String> allIds = this.findValidIds();
-        Map<String, List<GAVariant>> matchingGenotype = this.findIdsMatchingGenotype(request, allIds);
-
-        Set<String> matchingIds = matchingGenotype.keySet();
-        allIds.removeAll(matchingIds);
-        Set<String> nonMatchingIds = allIds;
+        // Only the carriers are needed to split the cohort, not their variants or those of the other patients
+        Set<String> matchingIds = this.findCarriers(request).keySet();
 
-        Map<String, Double> matchingScores = this.scorePatientPhenotypes(request, matchingIds);
-        Map<String, Double> nonMatchingScores = this.scorePatientPhenotypes(request, nonMatchingIds);
+        // Score the whole cohort at once, with the query resolved once, then split the scores by gene carriers
+        Map<String, Double> scores =
+            this.patientPhenotypeScorer.getScoresById(this.getRequestPhenotype(request), allIds);
 
         Map<String, Object> result = new HashMap<String, Object>();
-        result.put("withGene", matchingScores.values());
-        result.put("withoutGene", nonMatchingScores.values());
+        if (SUMMARY_MODE.equals(request.get(OVERVIEW_MODE))) {
+            ScoreSummary matching = new ScoreSummary(SUMMARY_HISTOGRAM_BINS);
+            ScoreSummary nonMatching = new ScoreSummary(SUMMARY_HISTOGRAM_BINS);
+            for (Map.Entry<String, Double> score : scores.entrySet()) {
+                (matchingIds.contains(score.getKey()) ? matching : nonMatching).add(score.getValue());
+            }
+            result.put(WITH_GENE, matching.toMap());
+            result.put(WITHOUT_GENE, nonMatching.toMap());
+        } else {
+            List<Double> matching = new ArrayList<Double>(matchingIds.size());
+            List<Double> nonMatching = new ArrayList<Double>(Math.max(0, scores.size() - matchingIds.size()));
+            for (Map.Entry<String, Double> score : scores.entrySet()) {
+                (matchingIds.contains(score.getKey()) ? matching : nonMatching).add(score.getValue());
+            }
+            result.put(WITH_GENE, matching);
+            result.put(WITHOUT_GENE, nonMatching);
+        }
 
         return result;
     }
 
-    private Map<String, Double> scorePatientPhenotypes(MendelianSearchRequest request, Set<String> ids)
+    private List<VocabularyTerm> getRequestPhenotype(MendelianSearchRequest request)
     {
         @SuppressWarnings("unchecked")
         List<String> hpoIds = (List<String>) request.get("phenotype");
@@ -120,61 +457,139 @@ public class DefaultMendelianSearch implements MendelianSearch
         for (String termId : hpoIds) {
             phenotype.add(this.om.resolveTerm(termId));
         }
-        return this.patientPhenotypeScorer.getScoresById(phenotype, ids);
+        return phenotype;
     }
 
     /**
-     * Filters a set of Ids to those which match the input request.
+     * Filters a set of Ids to those which match the input request, and scores them.
      *
-     * @param request Phenotype filter parameters should be present in the request
+     * @param request Phenotype filter parameters should be present in the request; patients scoring less than the
+     *            optional {@code minPhenotypeScore} parameter don't match
      * @param ids The set of all valid Ids which may be returned.
-     * @return Right now only the matching type 'fuzzy' so just return the ids
+     * @return A map of the matching patient ids to their phenotype scores
      */
-    private Set<String> findIdsMatchingPhenotype(MendelianSearchRequest request, Set<String> ids)
+    private Map<String, Double> findIdsMatchingPhenotype(MendelianSearchRequest request, Set<String> ids)
     {
-        return ids;
+        long start = System.nanoTime();
+        Object minScore = request.get(MIN_PHENOTYPE_SCORE);
+        Map<String, Double> result = this.patientPhenotypeScorer.getScoresById(this.getRequestPhenotype(request), ids,
+            (minScore == null) ? 0 : (double) minScore);
+        this.metrics.recordTime(request.getId(), "phenotypeMatching", System.nanoTime() - start);
+        return result;
+    }
+
+    private Map<String, List<GAVariant>> findTopHarmfulVariants(MendelianSearchRequest request, Set<String> ids)
+    {
+        long start = System.nanoTime();
+        Map<String, List<GAVariant>> result =
+            this.getTopHarmfulVariants(new ArrayList<String>(ids), (String) request.get(GENE));
+        this.metrics.recordTime(request.getId(), "variantStore.getTopHarmfullVariantsForGene",
+            System.nanoTime() - start);
+        return result;
     }
 
     /**
-     * Finds a map of Ids to variants which pass the filters specified in the request.
+     * Find the patients carrying a variant of the requested categories and allele frequencies in the requested gene.
      *
      * @param request Variant filter parameters should be specified in the request
-     * @param ids The set of all valid Ids which may be returned.
-     * @return A map of patient ids to variants
+     * @return A map of patient ids to their matching variants
      */
     @SuppressWarnings("unchecked")
-    private Map<String, List<GAVariant>> findIdsMatchingGenotype(MendelianSearchRequest request, Set<String> ids)
+    private Map<String, List<GAVariant>> findCarriers(MendelianSearchRequest request)
     {
-        Map<String, List<GAVariant>> matchingVariants;
+        long start = System.nanoTime();
+        long effectMask = this.variantEffects.getMask((List<String>) request.get("variantCategoryNames"));
 
-        Map<String, MendelianVariantCategory> varCategories = getVariantCategories();
-        List<String> varCategoryNames = (List<String>) request.get("variantCategoryNames");
-        List<String> varEffects = new ArrayList<String>();
-        for (String category : varCategoryNames) {
-            varEffects.addAll(varCategories.get(category).getVariantEffects());
+        // Query the variant store and receive a JSONArray of patient variant information --> store in List.
+        Map<String, List<GAVariant>> result = this.variantStore.getIndividualsWithGene((String) request.get(GENE),
+            this.variantEffects.getEffects(effectMask), (Map<String, Double>) request.get("alleleFrequencies"));
+        this.metrics.recordTime(request.getId(), "variantStore.getIndividualsWithGene", System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Fetch the most harmful variants in a gene for many patients. The variant store only answers one patient at a
+     * time, so the patients are split into batches which are looked up concurrently.
+     *
+     * @param ids the patients to look up
+     * @param gene the gene symbol
+     * @return a map from each patient id to its most harmful variants in the gene
+     */
+    private Map<String, List<GAVariant>> getTopHarmfulVariants(List<String> ids, final String gene)
+    {
+        int batches = Math.min(this.threads * 4, ids.size() / MIN_BATCH_SIZE);
+        if (this.variantStoreExecutor == null || batches < 2) {
+            return this.getTopHarmfulVariantsSequentially(ids, gene);
         }
 
-        String gene = (String) request.get("geneSymbol");
-        // First query the variant store and receive a JSONArray of patient variant information --> store in List.
-        matchingVariants = this.variantStore.getIndividualsWithGene(gene, varEffects,
-            (Map<String, Double>) request.get("alleleFrequencies"));
+        int batchSize = (ids.size() + batches - 1) / batches;
+        List<Future<Map<String, List<GAVariant>>>> results =
+            new ArrayList<Future<Map<String, List<GAVariant>>>>(batches);
+        for (int start = 0; start < ids.size(); start += batchSize) {
+            final List<String> batch = ids.subList(start, Math.min(start + batchSize, ids.size()));
+            results.add(this.variantStoreExecutor.submit(new Callable<Map<String, List<GAVariant>>>()
+            {
+                @Override
+                public Map<String, List<GAVariant>> call()
+                {
+                    return getTopHarmfulVariantsSequentially(batch, gene);
+                }
+            }));
+        }
 
-        if ((int) request.get("matchGene") == 1) {
-            return matchingVariants;
+        Map<String, List<GAVariant>> variants = new HashMap<String, List<GAVariant>>(ids.size() * 2);
+        try {
+            for (Future<Map<String, List<GAVariant>>> result : results) {
+                variants.putAll(result.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            cancel(results);
+            throw new IllegalStateException("Interrupted while querying the variant store", ex);
+        } catch (ExecutionException ex) {
+            cancel(results);
+            throw new IllegalStateException("Failed to query the variant store", ex.getCause());
         }
-        Set<String> nonMatchingIds = new HashSet<String>(ids);
-        nonMatchingIds.removeAll(matchingVariants.keySet());
-        Map<String, List<GAVariant>> nonMatchingVariants = new HashMap<String, List<GAVariant>>();
-        for (String id : nonMatchingIds) {
-            nonMatchingVariants.put(id, this.variantStore.getTopHarmfullVariantsForGene(id, gene, 5));
+        return variants;
+    }
+
+    private Map<String, List<GAVariant>> getTopHarmfulVariantsSequentially(List<String> ids, String gene)
+    {
+        Map<String, List<GAVariant>> variants = new HashMap<String, List<GAVariant>>(ids.size() * 2);
+        for (String id : ids) {
+            variants.put(id, this.variantStore.getTopHarmfullVariantsForGene(id, gene, TOP_VARIANTS));
+        }
+        return variants;
+    }
+
+    private static void cancel(List<? extends Future<?>> tasks)
+    {
+        for (Future<?> task : tasks) {
+            task.cancel(true);
         }
-        return nonMatchingVariants;
     }
 
     @Override
     public Set<String> findValidIds()
     {
-        return new HashSet<String>(this.variantStore.getAllIndividuals());
+        ValidIds current = this.validIds;
+        boolean fresh = current != null && current.isFresh(this.validIdsGeneration.get());
+        this.metrics.recordCacheAccess("validIds", fresh);
+        if (!fresh) {
+            synchronized (this) {
+                current = this.validIds;
+                long generation = this.validIdsGeneration.get();
+                if (current == null || !current.isFresh(generation)) {
+                    Set<String> ids = new HashSet<String>(this.variantStore.getAllIndividuals());
+                    current = new ValidIds(Collections.unmodifiableSet(ids), generation,
+                        System.currentTimeMillis() + this.validIdsTTL);
+                    this.validIds = current;
+                    // Results found among the previous ids may miss the patients added since
+                    this.results.removeAll();
+                }
+            }
+        }
+        return current.ids;
     }
 
     @Override
@@ -202,7 +617,7 @@ public class DefaultMendelianSearch implements MendelianSearch
                 "tf_binding_site_variant", "regulatory_region_variant", "conserved_intron_variant",
                 "intragenic_variant", "conserved_intergenic_variant", "structural_variant",
                 "coding_sequence_variant", "intron_variant", "exon_variant", "miRNA", "gene_variant",
-                "coding_transcript_variant", "non_coding_transcript_variant", "  transcript_variant",
+                "coding_transcript_variant", "non_coding_transcript_variant", "transcript_variant",
                 "intergenic_region", "chromosome", "sequence_variant");
 
             MendelianVariantCategory fsInDelCategory = new MendelianVariantCategory(fsInDelEffects, true);
@@ -221,4 +636,28 @@ public class DefaultMendelianSearch implements MendelianSearch
         }
         return this.variantCategories;
     }
+
+    /** An immutable snapshot of the patient ids in the variant store. */
+    private static final class ValidIds
+    {
+        private final Set<String> ids;
+
+        /** The patient change count when the snapshot was taken. */
+        private final long generation;
+
+        /** When the snapshot expires, in milliseconds since the epoch. */
+        private final long expiry;
+
+        ValidIds(Set<String> ids, long generation, long expiry)
+        {
+            this.ids = ids;
+            this.generation = generation;
+            this.expiry = expiry;
+        }
+
+        boolean isFresh(long currentGeneration)
+        {
+            return this.generation == currentGeneration && System.currentTimeMillis() < this.expiry;
+        }
+    }
 }
@@ -0,0 +1,362 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.internal;
+
+import org.phenotips.mendelianSearch.MendelianSearchMetrics;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+
+/**
+ * Default implementation of {@link MendelianSearchMetrics}, also registered in the platform MBean server as
+ * {@code org.phenotips.mendelianSearch:type=Metrics}. Aggregates are updated without locking; the measurements of
+ * the last {@value #RECENT_REQUESTS} searches are kept for {@link #getRequestMetrics(String)}.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultMendelianSearchMetrics
+    implements MendelianSearchMetrics, MendelianSearchMetricsMXBean, Initializable, Disposable
+{
+    /** The number of searches for which individual measurements are kept. */
+    private static final int RECENT_REQUESTS = 100;
+
+    private static final String COUNT = "count";
+
+    private static final String MEAN = "mean";
+
+    private static final String MAX = "max";
+
+    @Inject
+    private Logger logger;
+
+    /** The aggregated duration of each stage, in nanoseconds. */
+    private final ConcurrentMap<String, Statistic> stages = new ConcurrentHashMap<String, Statistic>();
+
+    /** The aggregated size of each result set. */
+    private final ConcurrentMap<String, Statistic> sizes = new ConcurrentHashMap<String, Statistic>();
+
+    /** The hits and misses of each cache. */
+    private final ConcurrentMap<String, CacheStatistic> caches = new ConcurrentHashMap<String, CacheStatistic>();
+
+    /** The measurements of the most recent searches, by request id. */
+    private final Map<String, Map<String, Number>> requests =
+        new LinkedHashMap<String, Map<String, Number>>(RECENT_REQUESTS * 2, 0.75f, false)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, Number>> eldest)
+            {
+                return size() > RECENT_REQUESTS;
+            }
+        };
+
+    /** The search the current thread is working on. */
+    private final ThreadLocal<String> currentRequest = new ThreadLocal<String>();
+
+    /** The name under which this component is registered as an MBean, {@code null} if it isn't. */
+    private ObjectName objectName;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            ObjectName name = new ObjectName("org.phenotips.mendelianSearch:type=Metrics");
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                this.objectName = name;
+            }
+        } catch (JMException ex) {
+            this.logger.warn("Failed to register the Mendelian search metrics with JMX: {}", ex.getMessage());
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            } catch (JMException ex) {
+                this.logger.debug("Failed to unregister the Mendelian search metrics: {}", ex.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void startRequest(String requestId)
+    {
+        this.currentRequest.set(requestId);
+    }
+
+    @Override
+    public void endRequest()
+    {
+        this.currentRequest.remove();
+    }
+
+    @Override
+    public void recordTime(String stage, long nanos)
+    {
+        this.recordTime(this.currentRequest.get(), stage, nanos);
+    }
+
+    @Override
+    public void recordTime(String requestId, String stage, long nanos)
+    {
+        getStatistic(this.stages, stage).add(nanos);
+        if (requestId != null) {
+            double millis = (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+            synchronized (this.requests) {
+                Map<String, Number> request = this.getRequest(requestId);
+                Number previous = request.get(stage);
+                request.put(stage, (previous == null) ? millis : previous.doubleValue() + millis);
+            }
+        }
+    }
+
+    @Override
+    public void recordSize(String name, long size)
+    {
+        getStatistic(this.sizes, name).add(size);
+        String requestId = this.currentRequest.get();
+        if (requestId != null) {
+            synchronized (this.requests) {
+                this.getRequest(requestId).put(name, size);
+            }
+        }
+    }
+
+    @Override
+    public void recordCacheAccess(String cache, boolean hit)
+    {
+        CacheStatistic statistic = this.caches.get(cache);
+        if (statistic == null) {
+            this.caches.putIfAbsent(cache, new CacheStatistic());
+            statistic = this.caches.get(cache);
+        }
+        (hit ? statistic.hits : statistic.misses).incrementAndGet();
+    }
+
+    @Override
+    public Map<String, Object> getMetrics()
+    {
+        Map<String, Object> stageMetrics = new TreeMap<String, Object>();
+        for (Map.Entry<String, Statistic> stage : this.stages.entrySet()) {
+            Statistic statistic = stage.getValue();
+            Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+            metrics.put(COUNT, statistic.count.get());
+            metrics.put("totalMillis", toMillis(statistic.total.get()));
+            metrics.put("meanMillis", toMillis(statistic.getMean()));
+            metrics.put("maxMillis", toMillis(statistic.max.get()));
+            stageMetrics.put(stage.getKey(), metrics);
+        }
+        Map<String, Object> sizeMetrics = new TreeMap<String, Object>();
+        for (Map.Entry<String, Statistic> size : this.sizes.entrySet()) {
+            Statistic statistic = size.getValue();
+            Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+            metrics.put(COUNT, statistic.count.get());
+            metrics.put(MEAN, statistic.getMean());
+            metrics.put(MAX, statistic.max.get());
+            sizeMetrics.put(size.getKey(), metrics);
+        }
+        Map<String, Object> cacheMetrics = new TreeMap<String, Object>();
+        for (Map.Entry<String, CacheStatistic> cache : this.caches.entrySet()) {
+            Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+            metrics.put("hits", cache.getValue().hits.get());
+            metrics.put("misses", cache.getValue().misses.get());
+            metrics.put("hitRatio", cache.getValue().getHitRatio());
+            cacheMetrics.put(cache.getKey(), metrics);
+        }
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("stages", stageMetrics);
+        result.put("sizes", sizeMetrics);
+        result.put("caches", cacheMetrics);
+        return result;
+    }
+
+    @Override
+    public Map<String, Number> getRequestMetrics(String requestId)
+    {
+        synchronized (this.requests) {
+            Map<String, Number> request = this.requests.get(requestId);
+            return (request == null) ? null : Collections.unmodifiableMap(new TreeMap<String, Number>(request));
+        }
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts()
+    {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, Statistic> stage : this.stages.entrySet()) {
+            result.put(stage.getKey(), stage.getValue().count.get());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getStageMeanMillis()
+    {
+        Map<String, Double> result = new TreeMap<String, Double>();
+        for (Map.Entry<String, Statistic> stage : this.stages.entrySet()) {
+            result.put(stage.getKey(), toMillis(stage.getValue().getMean()));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getStageMaxMillis()
+    {
+        Map<String, Double> result = new TreeMap<String, Double>();
+        for (Map.Entry<String, Statistic> stage : this.stages.entrySet()) {
+            result.put(stage.getKey(), toMillis(stage.getValue().max.get()));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getMeanSizes()
+    {
+        Map<String, Double> result = new TreeMap<String, Double>();
+        for (Map.Entry<String, Statistic> size : this.sizes.entrySet()) {
+            result.put(size.getKey(), size.getValue().getMean());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getMaxSizes()
+    {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, Statistic> size : this.sizes.entrySet()) {
+            result.put(size.getKey(), size.getValue().max.get());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getCacheHitRatios()
+    {
+        Map<String, Double> result = new TreeMap<String, Double>();
+        for (Map.Entry<String, CacheStatistic> cache : this.caches.entrySet()) {
+            result.put(cache.getKey(), cache.getValue().getHitRatio());
+        }
+        return result;
+    }
+
+    @Override
+    public void reset()
+    {
+        this.stages.clear();
+        this.sizes.clear();
+        this.caches.clear();
+        synchronized (this.requests) {
+            this.requests.clear();
+        }
+    }
+
+    private Map<String, Number> getRequest(String requestId)
+    {
+        Map<String, Number> request = this.requests.get(requestId);
+        if (request == null) {
+            request = new HashMap<String, Number>();
+            this.requests.put(requestId, request);
+        }
+        return request;
+    }
+
+    private static Statistic getStatistic(ConcurrentMap<String, Statistic> statistics, String name)
+    {
+        Statistic statistic = statistics.get(name);
+        if (statistic == null) {
+            statistics.putIfAbsent(name, new Statistic());
+            statistic = statistics.get(name);
+        }
+        return statistic;
+    }
+
+    private static double toMillis(double nanos)
+    {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /** The number, sum and maximum of a series of measurements. */
+    private static final class Statistic
+    {
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong total = new AtomicLong();
+
+        private final AtomicLong max = new AtomicLong();
+
+        void add(long value)
+        {
+            this.count.incrementAndGet();
+            this.total.addAndGet(value);
+            long previous = this.max.get();
+            while (value > previous && !this.max.compareAndSet(previous, value)) {
+                previous = this.max.get();
+            }
+        }
+
+        double getMean()
+        {
+            long n = this.count.get();
+            return (n == 0) ? 0 : (double) this.total.get() / n;
+        }
+    }
+
+    /** The hits and misses of a cache. */
+    private static final class CacheStatistic
+    {
+        private final AtomicLong hits = new AtomicLong();
+
+        private final AtomicLong misses = new AtomicLong();
+
+        double getHitRatio()
+        {
+            long h = this.hits.get();
+            long total = h + this.misses.get();
+            return (total == 0) ? 0 : (double) h / total;
+        }
+    }
+}
@@ -28,6 +28,8 @@ import java.util.UUID;
 
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
+
 import com.xpn.xwiki.web.XWikiRequest;
 
 /**
@@ -49,6 +51,10 @@ public class DefaultMendelianSearchRequestFactory implements MendelianSearchRequ
 
     private String alleleFrequenciesKey = "alleleFrequencies";
 
+    private String minPhenotypeScoreKey = "minPhenotypeScore";
+
+    private String maxResultsKey = "maxResults";
+
     private String sortKey = "sort";
 
     private String ascKey = "asc";
@@ -57,6 +63,8 @@ public class DefaultMendelianSearchRequestFactory implements MendelianSearchRequ
 
     private String resultsPerPageKey = "resultsPerPage";
 
+    private String overviewModeKey = "overviewMode";
+
     //The view keys
 
     private String matchGeneKey = "matchGene";
@@ -80,6 +88,18 @@ public class DefaultMendelianSearchRequestFactory implements MendelianSearchRequ
 
         request.set(this.alleleFrequenciesKey, alleleFrequencies);
         request.set(this.phenotypeMatchingKey, rawRequest.getParameter("phenotype-matching"));
+        String minPhenotypeScore = rawRequest.getParameter("min-phenotype-score");
+        if (StringUtils.isNotBlank(minPhenotypeScore)) {
+            request.set(this.minPhenotypeScoreKey, Double.parseDouble(minPhenotypeScore));
+        }
+        String maxResults = rawRequest.getParameter("max-results");
+        if (StringUtils.isNotBlank(maxResults)) {
+            request.set(this.maxResultsKey, Integer.parseInt(maxResults));
+        }
+        String overviewMode = rawRequest.getParameter("overview-mode");
+        if (StringUtils.isNotBlank(overviewMode)) {
+            request.set(this.overviewModeKey, overviewMode);
+        }
         request.set(this.matchGeneKey, Integer.parseInt(rawRequest.getParameter(this.matchGeneKey)));
         request.set(this.matchPhenotypeKey, Integer.parseInt(rawRequest.getParameter(this.matchPhenotypeKey)));
 
@@ -0,0 +1,474 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.Owner;
+import org.phenotips.data.permissions.PatientAccess;
+import org.phenotips.data.permissions.PermissionsManager;
+import org.phenotips.data.permissions.internal.visibility.HiddenVisibility;
+import org.phenotips.mendelianSearch.MendelianSearchMetrics;
+import org.phenotips.mendelianSearch.PatientAccessIndex;
+
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Default implementation of {@link PatientAccessIndex}. The rights on a patient are only evaluated the first time a
+ * user needs them, with a single {@link PermissionsManager#getPatientAccess(Patient)} lookup, which also fills in the
+ * user independent visibility and owner of the patient. The access of the {@value #MAX_USERS} most recent users is
+ * kept. Rights evaluated while the patient or the rights changed aren't remembered, since they may already be stale.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultPatientAccessIndex implements PatientAccessIndex, Initializable, Disposable
+{
+    /** The name of the listener forgetting the access to modified patients. */
+    private static final String LISTENER_NAME = "mendelian-search-patient-access-invalidator";
+
+    /** The maximum number of users whose access is kept. */
+    private static final int MAX_USERS = 1000;
+
+    /** The key of the access of unauthenticated users. */
+    private static final String GUEST = "XWikiGuest";
+
+    /** Stands for patients without an owner, since the owner map can't hold {@code null}. */
+    private static final String NO_OWNER = "";
+
+    /** The name of the visibility bitmap in the metrics. */
+    private static final String VISIBILITY_CACHE = "patientVisibility";
+
+    /** The name of the user access bitmaps in the metrics. */
+    private static final String ACCESS_CACHE = "patientAccess";
+
+    private static final EntityReference XWIKI_SPACE = new EntityReference("XWiki", EntityType.SPACE, null);
+
+    /** The classes granting rights or group memberships, which may change the access of any user. */
+    private static final List<EntityReference> RIGHTS_CLASSES = Arrays.asList(
+        new EntityReference("XWikiGroups", EntityType.DOCUMENT, XWIKI_SPACE),
+        new EntityReference("XWikiRights", EntityType.DOCUMENT, XWIKI_SPACE),
+        new EntityReference("XWikiGlobalRights", EntityType.DOCUMENT, XWIKI_SPACE));
+
+    @Inject
+    private PermissionsManager pm;
+
+    @Inject
+    private PatientRepository pr;
+
+    @Inject
+    @Named("view")
+    private AccessLevel viewAccess;
+
+    @Inject
+    private Provider<XWikiContext> xcontext;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    @Inject
+    private MendelianSearchMetrics metrics;
+
+    private final HiddenVisibility hidden = new HiddenVisibility();
+
+    /** Guards the changes of the numbers and the bitmaps, and the {@link #generation}. */
+    private final Object lock = new Object();
+
+    /** Patient id to the dense number of the patient, i.e. its bit in the bitmaps. */
+    private final ConcurrentMap<String, Integer> numbers = new ConcurrentHashMap<String, Integer>();
+
+    /** The numbers of deleted patients, given to new patients first. */
+    private final BitSet freeNumbers = new BitSet();
+
+    /** The number given to the next new patient, if there are no free numbers. */
+    private int nextNumber;
+
+    /** Incremented whenever entries are forgotten, so that rights evaluated meanwhile aren't remembered. */
+    private long generation;
+
+    /** Which patients are visible. */
+    private final PatientBitmap visible = new PatientBitmap();
+
+    /** Patient id to the username of the owner of the patient, or {@link #NO_OWNER}. */
+    private final ConcurrentMap<String, String> owners = new ConcurrentHashMap<String, String>();
+
+    /** User to the patients the user has view access on, for the most recent users. */
+    private final Map<String, PatientBitmap> userAccess =
+        new LinkedHashMap<String, PatientBitmap>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PatientBitmap> eldest)
+            {
+                return size() > MAX_USERS;
+            }
+        };
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.observationManager.addListener(new AbstractEventListener(LISTENER_NAME, new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent())
+        {
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                XWikiDocument doc = (XWikiDocument) source;
+                if (hasObject(doc, Patient.CLASS_REFERENCE)) {
+                    // Owners, collaborators and visibility are stored in the patient document
+                    DefaultPatientAccessIndex.this.forget(doc.getDocumentReference().getName(),
+                        event instanceof DocumentDeletedEvent);
+                    return;
+                }
+                for (EntityReference rightsClass : RIGHTS_CLASSES) {
+                    if (hasObject(doc, rightsClass)) {
+                        DefaultPatientAccessIndex.this.forgetUsers();
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.observationManager.removeListener(LISTENER_NAME);
+    }
+
+    @Override
+    public boolean isVisible(Patient patient)
+    {
+        String id = patient.getId();
+        if (id == null) {
+            return this.isVisible(this.pm.getPatientAccess(patient));
+        }
+        int number = this.getNumber(id);
+        Boolean result = this.visible.get(number);
+        this.metrics.recordCacheAccess(VISIBILITY_CACHE, result != null);
+        if (result == null) {
+            result = this.isVisible(this.load(patient, number, null));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean hasAccess(Patient patient)
+    {
+        String id = patient.getId();
+        if (id == null) {
+            PatientAccess access = this.pm.getPatientAccess(patient);
+            return this.isVisible(access) && access.hasAccessLevel(this.viewAccess);
+        }
+        int number = this.getNumber(id);
+        PatientBitmap access = this.getUserAccess();
+        Boolean isVisible = this.visible.get(number);
+        Boolean granted = access.get(number);
+        this.metrics.recordCacheAccess(ACCESS_CACHE, isVisible != null && granted != null);
+        if (isVisible == null || granted == null) {
+            PatientAccess patientAccess = this.load(patient, number, access);
+            return this.isVisible(patientAccess) && patientAccess.hasAccessLevel(this.viewAccess);
+        }
+        return isVisible && granted;
+    }
+
+    @Override
+    public String getOwner(Patient patient)
+    {
+        String id = patient.getId();
+        String owner = (id == null) ? null : this.owners.get(id);
+        if (owner == null) {
+            owner = getUsername((id == null) ? this.pm.getPatientAccess(patient)
+                : this.load(patient, this.getNumber(id), null));
+        }
+        return NO_OWNER.equals(owner) ? null : owner;
+    }
+
+    @Override
+    public String getOwner(String id)
+    {
+        String owner = this.owners.get(id);
+        if (owner == null) {
+            Patient patient = this.pr.get(id);
+            if (patient == null) {
+                return null;
+            }
+            owner = getUsername(this.load(patient, this.getNumber(id), null));
+        }
+        return NO_OWNER.equals(owner) ? null : owner;
+    }
+
+    @Override
+    public Set<String> filterVisible(Set<String> ids)
+    {
+        return this.filter(ids, null, VISIBILITY_CACHE);
+    }
+
+    @Override
+    public Set<String> filterAccessible(Set<String> ids)
+    {
+        return this.filter(ids, this.getUserAccess(), ACCESS_CACHE);
+    }
+
+    /**
+     * Select the visible patients of a set, which the user also has access on if needed. The known bits are combined
+     * with bitmap operations, and only the patients with unknown bits are loaded.
+     *
+     * @param ids the internal ids of the patients
+     * @param access the access of the current user, {@code null} to only select visible patients
+     * @param cache the name of the bitmaps in the metrics
+     * @return the selected ids, in the same order
+     */
+    private Set<String> filter(Set<String> ids, PatientBitmap access, String cache)
+    {
+        int[] idNumbers = new int[ids.size()];
+        BitSet requested = new BitSet();
+        int i = 0;
+        for (String id : ids) {
+            idNumbers[i] = this.getNumber(id);
+            requested.set(idNumbers[i++]);
+        }
+        BitSet selected = this.visible.and(requested);
+        BitSet unknown = this.visible.andNotKnown(requested);
+        if (access != null) {
+            selected.and(access.and(requested));
+            unknown.or(access.andNotKnown(requested));
+        }
+
+        Set<String> result = new LinkedHashSet<String>();
+        i = 0;
+        for (String id : ids) {
+            int number = idNumbers[i++];
+            this.metrics.recordCacheAccess(cache, !unknown.get(number));
+            if (unknown.get(number) ? this.loadAndCheck(id, number, access) : selected.get(number)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    private boolean loadAndCheck(String id, int number, PatientBitmap access)
+    {
+        Patient patient = this.pr.get(id);
+        if (patient == null) {
+            return false;
+        }
+        PatientAccess patientAccess = this.load(patient, number, access);
+        return this.isVisible(patientAccess) && (access == null || patientAccess.hasAccessLevel(this.viewAccess));
+    }
+
+    /**
+     * Evaluate the rights on a patient, and remember its visibility, its owner, and the access of a user on it, unless
+     * something was forgotten or the patient was renumbered meanwhile.
+     *
+     * @param patient the patient, with an id
+     * @param number the number of the patient
+     * @param access the access of the current user, may be {@code null} if not needed
+     * @return the rights on the patient
+     */
+    private PatientAccess load(Patient patient, int number, PatientBitmap access)
+    {
+        long loadGeneration;
+        synchronized (this.lock) {
+            loadGeneration = this.generation;
+        }
+        PatientAccess patientAccess = this.pm.getPatientAccess(patient);
+        synchronized (this.lock) {
+            Integer currentNumber = this.numbers.get(patient.getId());
+            if (loadGeneration != this.generation || currentNumber == null || currentNumber != number) {
+                return patientAccess;
+            }
+            this.visible.set(number, this.isVisible(patientAccess));
+            this.owners.put(patient.getId(), getUsername(patientAccess));
+            if (access != null) {
+                access.set(number, patientAccess.hasAccessLevel(this.viewAccess));
+            }
+        }
+        return patientAccess;
+    }
+
+    private boolean isVisible(PatientAccess access)
+    {
+        return access.getVisibility().compareTo(this.hidden) > 0;
+    }
+
+    private static String getUsername(PatientAccess access)
+    {
+        Owner owner = access.getOwner();
+        return (owner == null || owner.getUsername() == null) ? NO_OWNER : owner.getUsername();
+    }
+
+    private int getNumber(String id)
+    {
+        Integer number = this.numbers.get(id);
+        if (number == null) {
+            synchronized (this.lock) {
+                number = this.numbers.get(id);
+                if (number == null) {
+                    number = this.freeNumbers.nextSetBit(0);
+                    if (number < 0) {
+                        number = this.nextNumber++;
+                    } else {
+                        this.freeNumbers.clear(number);
+                    }
+                    this.numbers.put(id, number);
+                }
+            }
+        }
+        return number;
+    }
+
+    private PatientBitmap getUserAccess()
+    {
+        DocumentReference user = this.xcontext.get().getUserReference();
+        String key = (user == null) ? GUEST : user.toString();
+        synchronized (this.userAccess) {
+            PatientBitmap access = this.userAccess.get(key);
+            if (access == null) {
+                access = new PatientBitmap();
+                this.userAccess.put(key, access);
+            }
+            return access;
+        }
+    }
+
+    /**
+     * Forget the entries of a patient.
+     *
+     * @param id the id of the patient
+     * @param deleted whether the patient was deleted, in which case its number is freed for another patient
+     */
+    private void forget(String id, boolean deleted)
+    {
+        synchronized (this.lock) {
+            this.generation++;
+            this.owners.remove(id);
+            Integer number = deleted ? this.numbers.remove(id) : this.numbers.get(id);
+            if (number == null) {
+                return;
+            }
+            this.visible.clear(number);
+            synchronized (this.userAccess) {
+                for (PatientBitmap access : this.userAccess.values()) {
+                    access.clear(number);
+                }
+            }
+            if (deleted) {
+                this.freeNumbers.set(number);
+            }
+        }
+    }
+
+    private void forgetUsers()
+    {
+        synchronized (this.lock) {
+            this.generation++;
+            synchronized (this.userAccess) {
+                this.userAccess.clear();
+            }
+        }
+    }
+
+    private static boolean hasObject(XWikiDocument doc, EntityReference xclass)
+    {
+        return doc.getXObject(xclass) != null
+            || (doc.getOriginalDocument() != null && doc.getOriginalDocument().getXObject(xclass) != null);
+    }
+
+    /**
+     * A bit for each patient number, which may also be unknown.
+     */
+    private static final class PatientBitmap
+    {
+        /** The patients whose bit is known. */
+        private final BitSet known = new BitSet();
+
+        private final BitSet bits = new BitSet();
+
+        synchronized Boolean get(int number)
+        {
+            return this.known.get(number) ? Boolean.valueOf(this.bits.get(number)) : null;
+        }
+
+        synchronized void set(int number, boolean value)
+        {
+            this.bits.set(number, value);
+            this.known.set(number);
+        }
+
+        synchronized void clear(int number)
+        {
+            this.known.clear(number);
+            this.bits.clear(number);
+        }
+
+        /**
+         * @param numbers some patient numbers
+         * @return the numbers whose bit is known and set
+         */
+        synchronized BitSet and(BitSet numbers)
+        {
+            BitSet result = (BitSet) numbers.clone();
+            result.and(this.bits);
+            return result;
+        }
+
+        /**
+         * @param numbers some patient numbers
+         * @return the numbers whose bit is unknown
+         */
+        synchronized BitSet andNotKnown(BitSet numbers)
+        {
+            BitSet result = (BitSet) numbers.clone();
+            result.andNot(this.known);
+            return result;
+        }
+    }
+}
@@ -53,6 +53,8 @@ public class DefaultPatientView implements PatientView
 
     private List<Disorder> diagnosis;
 
+    private boolean complete;
+
     /**
      * Empty constructor for a DefaultPatientView.
      */
@@ -66,6 +68,36 @@ public class DefaultPatientView implements PatientView
         return this.type;
     }
 
+    @Override
+    public String getPatientId()
+    {
+        return this.patientID;
+    }
+
+    @Override
+    public String getOwner()
+    {
+        return this.owner;
+    }
+
+    @Override
+    public double getPhenotypeScore()
+    {
+        return this.phenotypeScore;
+    }
+
+    @Override
+    public List<GAVariant> getVariants()
+    {
+        return this.variants;
+    }
+
+    @Override
+    public boolean isComplete()
+    {
+        return this.complete;
+    }
+
     @Override
     public JSONObject toJSON()
     {
@@ -121,6 +153,12 @@ public class DefaultPatientView implements PatientView
         this.type = type;
     }
 
+    @Override
+    public void setComplete(boolean complete)
+    {
+        this.complete = complete;
+    }
+
     @Override
     public void setOwner(String owner)
     {
@@ -22,10 +22,8 @@ import org.phenotips.data.Feature;
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientRepository;
-import org.phenotips.data.permissions.AccessLevel;
-import org.phenotips.data.permissions.PatientAccess;
-import org.phenotips.data.permissions.PermissionsManager;
-import org.phenotips.data.permissions.internal.visibility.HiddenVisibility;
+import org.phenotips.mendelianSearch.MendelianSearchMetrics;
+import org.phenotips.mendelianSearch.PatientAccessIndex;
 import org.phenotips.mendelianSearch.PatientView;
 import org.phenotips.mendelianSearch.PatientViewFactory;
 
@@ -33,12 +31,12 @@ import org.xwiki.component.annotation.Component;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
@@ -59,11 +57,7 @@ public class DefaultPatientViewFactory implements PatientViewFactory
     private static final String UNDISCLOSED_MARKER = "?";
 
     @Inject
-    private PermissionsManager pm;
-
-    @Inject
-    @Named("view")
-    private AccessLevel viewAccess;
+    private PatientAccessIndex accessIndex;
 
     @Inject
     private PatientRepository pr;
@@ -71,25 +65,24 @@ public class DefaultPatientViewFactory implements PatientViewFactory
     @Inject
     private Provider<XWikiContext> xcontext;
 
+    @Inject
+    private MendelianSearchMetrics metrics;
+
     @Override
     public PatientView createPatientView(String id, List<GAVariant> variants, Double phenotypeScore,
         MendelianSearchRequest request)
     {
-        PatientView view;
-        Patient patient = this.pr.get(id);
-        if (patient == null) {
-            patient = this.pr.getByName(id);
-        }
+        Patient patient = this.getPatient(id);
         if ((patient == null) || (variants == null) || (phenotypeScore == null)) {
             return null;
         }
-        boolean hasAccess = this.hasPatientAccess(patient);
-        if (hasAccess) {
-            view = this.generateOpenPatientView(patient, variants, phenotypeScore, request);
+        if (this.accessIndex.hasAccess(patient)) {
+            PatientView view = this.generatePartialOpenPatientView(patient.getId(), this.accessIndex.getOwner(patient),
+                variants, phenotypeScore);
+            return this.completeOpenPatientView(view, patient, request);
         } else {
-            view = this.generateRestrictedPatientView(patient, variants, phenotypeScore, request);
+            return this.generateRestrictedPatientView(phenotypeScore);
         }
-        return view;
     }
 
     @Override
@@ -111,8 +104,59 @@ public class DefaultPatientViewFactory implements PatientViewFactory
         return result;
     }
 
-    private PatientView generateRestrictedPatientView(Patient patient, List<GAVariant> variants,
-        double phenotypeScore, MendelianSearchRequest request)
+    @Override
+    public List<PatientView> createPartialPatientViews(Set<String> ids, Map<String, List<GAVariant>> variantMap,
+        Map<String, Double> scores, MendelianSearchRequest request)
+    {
+        List<PatientView> result = new ArrayList<PatientView>();
+        if (ids == null || ids.isEmpty()) {
+            return result;
+        }
+        long start = System.nanoTime();
+        Set<String> viewedIds = new LinkedHashSet<String>();
+        for (String id : ids) {
+            if (variantMap.get(id) != null && scores.get(id) != null) {
+                viewedIds.add(id);
+            }
+        }
+        Set<String> accessibleIds = this.accessIndex.filterAccessible(viewedIds);
+        for (String id : viewedIds) {
+            double phenotypeScore = scores.get(id);
+            if (accessibleIds.contains(id)) {
+                result.add(this.generatePartialOpenPatientView(id, this.accessIndex.getOwner(id), variantMap.get(id),
+                    phenotypeScore));
+            } else {
+                result.add(this.generateRestrictedPatientView(phenotypeScore));
+            }
+        }
+        this.metrics.recordTime(request.getId(), "partialViews", System.nanoTime() - start);
+        this.metrics.recordSize("partialViews", result.size());
+        return result;
+    }
+
+    @Override
+    public List<PatientView> completePatientViews(List<PatientView> views, MendelianSearchRequest request)
+    {
+        long start = System.nanoTime();
+        List<PatientView> result = new ArrayList<PatientView>(views.size());
+        for (PatientView view : views) {
+            Patient patient = view.isComplete() ? null : this.getPatient(view.getPatientId());
+            result.add((patient == null) ? view : this.completeOpenPatientView(view, patient, request));
+        }
+        this.metrics.recordTime(request.getId(), "viewCompletion", System.nanoTime() - start);
+        return result;
+    }
+
+    private Patient getPatient(String id)
+    {
+        Patient patient = this.pr.get(id);
+        if (patient == null) {
+            patient = this.pr.getByName(id);
+        }
+        return patient;
+    }
+
+    private PatientView generateRestrictedPatientView(double phenotypeScore)
     {
         PatientView view = new DefaultPatientView();
         view.setType("restricted");
@@ -121,29 +165,49 @@ public class DefaultPatientViewFactory implements PatientViewFactory
         view.setPhenotype(new ArrayList<String>());
         view.setPhenotypeScore(phenotypeScore);
         view.setVariants(new ArrayList<GAVariant>());
+        view.setComplete(true);
         return view;
     }
 
-    private PatientView generateOpenPatientView(Patient patient, List<GAVariant> variants,
-        double phenotypeScore, MendelianSearchRequest request)
+    /**
+     * Create an open view with the id, owner, phenotype score and variants of a patient, which still needs to be
+     * {@link #completeOpenPatientView completed} before being displayed.
+     *
+     * @param id the id of the patient
+     * @param owner the owner of the patient, may be {@code null}
+     * @param variants the variants associated with this patient
+     * @param phenotypeScore the phenotype score of this patient
+     * @return the partial view
+     */
+    private PatientView generatePartialOpenPatientView(String id, String owner, List<GAVariant> variants,
+        double phenotypeScore)
     {
         PatientView view = new DefaultPatientView();
         view.setType("open");
-
-        String id = patient.getId();
-        String owner = this.pm.getPatientAccess(patient).getOwner().getUsername();
-        List<String> phenotype = this.getDisplayedPatientPhenotype(patient);
-
         view.setPatientId(id);
-        view.setPatientURL(this.getPatientURL(patient));
-        view.setGeneStatus(this.getPatientGeneStatus(patient, (String) request.get("geneSymbol")));
         view.setOwner(owner);
-        view.setDiagnosis(this.getPatientDiagnosis(patient));
-
-        view.setPhenotype(phenotype);
         view.setPhenotypeScore(phenotypeScore);
         view.setVariants(variants);
+        return view;
+    }
 
+    /**
+     * Create a complete copy of a partial open view, leaving the partial view unchanged.
+     *
+     * @param partial the partial view
+     * @param patient the patient of the view
+     * @param request the request, with the gene to report the status of
+     * @return the complete view
+     */
+    private PatientView completeOpenPatientView(PatientView partial, Patient patient, MendelianSearchRequest request)
+    {
+        PatientView view = this.generatePartialOpenPatientView(partial.getPatientId(), partial.getOwner(),
+            partial.getVariants(), partial.getPhenotypeScore());
+        view.setPatientURL(this.getPatientURL(patient));
+        view.setGeneStatus(this.getPatientGeneStatus(patient, (String) request.get("geneSymbol")));
+        view.setDiagnosis(this.getPatientDiagnosis(patient));
+        view.setPhenotype(this.getDisplayedPatientPhenotype(patient));
+        view.setComplete(true);
         return view;
     }
 
@@ -168,12 +232,6 @@ public class DefaultPatientViewFactory implements PatientViewFactory
         return result;
     }
 
-    private boolean hasPatientAccess(Patient patient)
-    {
-        PatientAccess pa = this.pm.getPatientAccess(patient);
-        return pa.hasAccessLevel(this.viewAccess) && (pa.getVisibility().compareTo(new HiddenVisibility()) > 0);
-    }
-
     private String getPatientGeneStatus(Patient patient, String geneSymbol)
     {
         PatientData<Map<String, String>> allGenes = patient.getData("genes");
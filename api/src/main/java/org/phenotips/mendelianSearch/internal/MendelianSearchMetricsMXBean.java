@@ -0,0 +1,64 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.internal;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the {@link org.phenotips.mendelianSearch.MendelianSearchMetrics Mendelian search metrics},
+ * registered as {@code org.phenotips.mendelianSearch:type=Metrics}.
+ *
+ * @version $Id$
+ */
+public interface MendelianSearchMetricsMXBean
+{
+    /**
+     * @return the number of times each stage ran
+     */
+    Map<String, Long> getStageCounts();
+
+    /**
+     * @return the mean number of milliseconds spent in each stage
+     */
+    Map<String, Double> getStageMeanMillis();
+
+    /**
+     * @return the maximum number of milliseconds spent in each stage
+     */
+    Map<String, Double> getStageMaxMillis();
+
+    /**
+     * @return the mean size of each result set
+     */
+    Map<String, Double> getMeanSizes();
+
+    /**
+     * @return the maximum size of each result set
+     */
+    Map<String, Long> getMaxSizes();
+
+    /**
+     * @return the ratio of lookups which were found in each cache, between 0 and 1
+     */
+    Map<String, Double> getCacheHitRatios();
+
+    /**
+     * Forget all the measurements.
+     */
+    void reset();
+}
@@ -17,8 +17,16 @@
  */
 package org.phenotips.mendelianSearch.internal;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * An object representation of the query made by a user interacting with the mendelian search application. Just wraps a
@@ -28,6 +36,10 @@ import java.util.Map;
  */
 public class MendelianSearchRequest
 {
+    /** The parameters which only change how the results are displayed, not which results are found. */
+    private static final Set<String> DISPLAY_PARAMS =
+        new HashSet<String>(Arrays.asList("sort", "asc", "page", "resultsPerPage", "overviewMode"));
+
     private Map<String, Object> requestParams;
 
     private String id;
@@ -58,6 +70,43 @@ public class MendelianSearchRequest
         return this.requestParams.get(param);
     }
 
+    /**
+     * Build a canonical representation of the search parameters of this request, ignoring the sorting and pagination
+     * parameters. Two requests with the same search key find the same results, regardless of the order in which
+     * multi-valued parameters were given.
+     *
+     * @return the search key of this request
+     */
+    public String getSearchKey()
+    {
+        Map<String, Object> searchParams = new TreeMap<String, Object>();
+        for (Map.Entry<String, Object> param : this.requestParams.entrySet()) {
+            if (!DISPLAY_PARAMS.contains(param.getKey())) {
+                searchParams.put(param.getKey(), canonicalize(param.getValue()));
+            }
+        }
+        return searchParams.toString();
+    }
+
+    private static Object canonicalize(Object value)
+    {
+        if (value instanceof Map) {
+            Map<String, Object> result = new TreeMap<String, Object>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                result.put(String.valueOf(entry.getKey()), canonicalize(entry.getValue()));
+            }
+            return result;
+        } else if (value instanceof Collection) {
+            List<String> result = new ArrayList<String>();
+            for (Object item : (Collection<?>) value) {
+                result.add(String.valueOf(canonicalize(item)));
+            }
+            Collections.sort(result);
+            return result;
+        }
+        return value;
+    }
+
     /**
      * @return the unique id of this request.
      */
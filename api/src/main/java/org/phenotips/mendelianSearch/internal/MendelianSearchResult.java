@@ -0,0 +1,68 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.internal;
+
+import org.phenotips.mendelianSearch.PatientView;
+
+import java.util.List;
+
+/**
+ * The views found by a search, together with the number of patients matching it, so that both always come from the
+ * same search. Results are cached and shared between calls, and are immutable.
+ *
+ * @version $Id$
+ */
+public final class MendelianSearchResult
+{
+    /** See {@link #getViews()}. */
+    private final List<PatientView> views;
+
+    /** See {@link #getTotal()}. */
+    private final int total;
+
+    /**
+     * Construct a new search result.
+     *
+     * @param views the views found, an unmodifiable list
+     * @param total the number of patients matching the search, at least the number of views
+     */
+    public MendelianSearchResult(List<PatientView> views, int total)
+    {
+        this.views = views;
+        this.total = total;
+    }
+
+    /**
+     * @return the views found by the search, which must not be modified; they may be partial, see
+     *         {@link org.phenotips.mendelianSearch.PatientViewFactory#completePatientViews}
+     */
+    public List<PatientView> getViews()
+    {
+        return this.views;
+    }
+
+    /**
+     * @return the number of patients matching the search, including the ones left out because of the
+     *         {@code maxResults} request parameter, which only keeps the best phenotype scores, and the ones the
+     *         current user can only see as restricted matches
+     */
+    public int getTotal()
+    {
+        return this.total;
+    }
+}
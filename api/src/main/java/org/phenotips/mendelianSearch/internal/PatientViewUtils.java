@@ -17,11 +17,13 @@
  */
 package org.phenotips.mendelianSearch.internal;
 
+import org.phenotips.mendelianSearch.PatientView;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import org.json.JSONObject;
 
@@ -31,6 +33,11 @@ import org.json.JSONObject;
  */
 public final class PatientViewUtils
 {
+    /** The sort key for the phenotype score. */
+    private static final String PHENOTYPE_SCORE_KEY = "phenotypeScore";
+
+    /** The sort key for the owner. */
+    private static final String OWNER_KEY = "owner";
 
     private PatientViewUtils()
     {
@@ -87,4 +94,92 @@ public final class PatientViewUtils
         }
         return views.subList(startIndex, stopIndex);
     }
+
+    /**
+     * Create a comparator for patient views, comparing the typed value of a field rather than its string form. Views
+     * with equal values are ordered by patient id, so that the order is the same for every page of a result.
+     *
+     * @param key the field to sort on: {@code patientId}, {@code owner} or {@code phenotypeScore}; unknown keys sort
+     *            on the patient id
+     * @param ascending true if sort order should be ascending, false for descending
+     * @return the comparator
+     */
+    public static Comparator<PatientView> getPatientViewComparator(final String key, final boolean ascending)
+    {
+        return new Comparator<PatientView>()
+        {
+            @Override
+            public int compare(PatientView pv1, PatientView pv2)
+            {
+                int compareVal;
+                if (PHENOTYPE_SCORE_KEY.equals(key)) {
+                    compareVal = Double.compare(pv1.getPhenotypeScore(), pv2.getPhenotypeScore());
+                } else if (OWNER_KEY.equals(key)) {
+                    compareVal = compareStrings(pv1.getOwner(), pv2.getOwner());
+                } else {
+                    compareVal = 0;
+                }
+                if (compareVal == 0) {
+                    compareVal = compareStrings(pv1.getPatientId(), pv2.getPatientId());
+                }
+                return ascending ? compareVal : -compareVal;
+            }
+        };
+    }
+
+    /**
+     * Select one page of sorted views, without sorting all of them. Only the views up to the end of the requested
+     * page are kept in a bounded heap, so selecting an early page of a large result is close to linear. Pages are
+     * computed like in {@link #paginatePatientViewJSON(List, int, int)}.
+     *
+     * @param views the views to select from; not modified
+     * @param comparator the sort order
+     * @param page the page number
+     * @param elementsPerPage the number of views in a page
+     * @return the sorted views on the requested page
+     */
+    public static List<PatientView> selectPatientViewPage(List<PatientView> views,
+        Comparator<PatientView> comparator, int page, int elementsPerPage)
+    {
+        if (page < 1 || elementsPerPage < 1) {
+            return new ArrayList<PatientView>();
+        }
+        long startIndex = (long) (page - 1) * elementsPerPage;
+        if (startIndex > views.size()) {
+            startIndex = elementsPerPage * (views.size() / elementsPerPage);
+        }
+        int start = (int) startIndex;
+        int stop = (int) Math.min(startIndex + elementsPerPage, views.size());
+        if (start >= stop) {
+            return new ArrayList<PatientView>();
+        }
+
+        List<PatientView> top;
+        if (stop >= views.size() / 2) {
+            top = new ArrayList<PatientView>(views);
+            Collections.sort(top, comparator);
+        } else {
+            // Keep the first "stop" views in a max-heap, evicting the largest one whenever a smaller view comes in
+            PriorityQueue<PatientView> heap = new PriorityQueue<PatientView>(stop, Collections.reverseOrder(comparator));
+            for (PatientView view : views) {
+                if (heap.size() < stop) {
+                    heap.add(view);
+                } else if (comparator.compare(view, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(view);
+                }
+            }
+            top = new ArrayList<PatientView>(heap);
+            Collections.sort(top, comparator);
+        }
+        return new ArrayList<PatientView>(top.subList(start, stop));
+    }
+
+    private static int compareStrings(String s1, String s2)
+    {
+        if (s1 == null || s2 == null) {
+            return (s1 == null) ? ((s2 == null) ? 0 : -1) : 1;
+        }
+        return s1.compareTo(s2);
+    }
 }
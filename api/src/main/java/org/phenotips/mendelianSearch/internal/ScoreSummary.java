@@ -0,0 +1,175 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary statistics of phenotype scores, computed in a single pass and in constant space: the count, mean, minimum
+ * and maximum, the quartiles, and a histogram. Scores are counted in {@value #BINS} bins splitting the {@code [0, 1]}
+ * score range, so quantiles are estimated within {@code 1 / }{@value #BINS}, and summaries of separate partitions of
+ * the scores can be {@link #merge(ScoreSummary) merged} into the exact summary of all the scores. Scores outside of
+ * the range are counted in the first or last bin.
+ *
+ * @version $Id$
+ */
+final class ScoreSummary
+{
+    /** The number of bins counting the scores, i.e. the resolution of the quantiles. */
+    private static final int BINS = 1000;
+
+    private final long[] bins = new long[BINS];
+
+    /** The number of bins of the reported histogram, a divisor of {@link #BINS}. */
+    private final int histogramBins;
+
+    private long count;
+
+    private double sum;
+
+    private double min = Double.POSITIVE_INFINITY;
+
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Create an empty summary.
+     *
+     * @param histogramBins the number of bins of the reported histogram, which must divide 1000
+     * @throws IllegalArgumentException if the number of histogram bins does not divide 1000
+     */
+    ScoreSummary(int histogramBins)
+    {
+        if (histogramBins <= 0 || BINS % histogramBins != 0) {
+            throw new IllegalArgumentException("The number of histogram bins must divide " + BINS);
+        }
+        this.histogramBins = histogramBins;
+    }
+
+    /**
+     * Count a score.
+     *
+     * @param score the score, ignored if not a number
+     */
+    void add(double score)
+    {
+        if (Double.isNaN(score)) {
+            return;
+        }
+        this.bins[Math.max(0, Math.min((int) (score * BINS), BINS - 1))]++;
+        this.count++;
+        this.sum += score;
+        this.min = Math.min(this.min, score);
+        this.max = Math.max(this.max, score);
+    }
+
+    /**
+     * Add the scores counted by another summary to this one.
+     *
+     * @param other the summary to merge, not modified
+     * @return this summary
+     * @throws IllegalArgumentException if the summaries report histograms with different bins
+     */
+    ScoreSummary merge(ScoreSummary other)
+    {
+        if (other.histogramBins != this.histogramBins) {
+            throw new IllegalArgumentException("Can't merge summaries with different histograms");
+        }
+        for (int i = 0; i < BINS; i++) {
+            this.bins[i] += other.bins[i];
+        }
+        this.count += other.count;
+        this.sum += other.sum;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+        return this;
+    }
+
+    /**
+     * @return the number of scores
+     */
+    long getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * @param quantile the quantile, between 0 and 1
+     * @return the estimated score at this quantile, by linear interpolation within its bin, the exact minimum and
+     *         maximum at 0 and 1, {@link Double#NaN} if there are no scores
+     */
+    double getQuantile(double quantile)
+    {
+        if (this.count == 0) {
+            return Double.NaN;
+        } else if (quantile <= 0) {
+            return this.min;
+        } else if (quantile >= 1) {
+            return this.max;
+        }
+        double rank = quantile * this.count;
+        long before = 0;
+        int bin = 0;
+        while (bin < BINS - 1 && before + this.bins[bin] < rank) {
+            before += this.bins[bin++];
+        }
+        double position = (this.bins[bin] == 0) ? 0 : (rank - before) / this.bins[bin];
+        double estimate = (bin + Math.max(0, Math.min(position, 1))) / BINS;
+        return Math.max(this.min, Math.min(estimate, this.max));
+    }
+
+    /**
+     * @return the number of scores in each of the reported histogram bins, which evenly split the {@code [0, 1]}
+     *         score range
+     */
+    long[] getHistogram()
+    {
+        long[] histogram = new long[this.histogramBins];
+        int width = BINS / this.histogramBins;
+        for (int i = 0; i < BINS; i++) {
+            histogram[i / width] += this.bins[i];
+        }
+        return histogram;
+    }
+
+    /**
+     * @return the {@code count} of scores and, if there are any, their {@code mean}, {@code min}, {@code max},
+     *         {@code lowerQuartile}, {@code median}, {@code upperQuartile} and {@code histogram}
+     */
+    Map<String, Object> toMap()
+    {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("count", this.count);
+        if (this.count > 0) {
+            result.put("mean", this.sum / this.count);
+            result.put("min", this.min);
+            result.put("max", this.max);
+            result.put("lowerQuartile", this.getQuantile(0.25));
+            result.put("median", this.getQuantile(0.5));
+            result.put("upperQuartile", this.getQuantile(0.75));
+            List<Long> histogram = new ArrayList<Long>(this.histogramBins);
+            for (long binCount : this.getHistogram()) {
+                histogram.add(binCount);
+            }
+            result.put("histogram", histogram);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The variant effects of a fixed set of {@link MendelianVariantCategory variant categories}, each numbered with a bit
+ * of a {@code long} mask. A selection of categories is compiled into a single mask, which tells in constant time if an
+ * effect is selected, and is turned into the list of effects sent to the variant store without building a new list
+ * for every request. Effect names are trimmed, so that stray spaces don't cause mismatches.
+ *
+ * @version $Id$
+ */
+final class VariantEffects
+{
+    /** The effects, by bit. */
+    private final String[] effects;
+
+    /** The bit of each effect. */
+    private final Map<String, Integer> bits = new HashMap<String, Integer>();
+
+    /** The mask of the effects of each category. */
+    private final Map<String, Long> categoryMasks = new HashMap<String, Long>();
+
+    /** The immutable list of effects of the masks used so far. */
+    private final ConcurrentMap<Long, List<String>> effectLists = new ConcurrentHashMap<Long, List<String>>();
+
+    /**
+     * Number the effects of the given categories.
+     *
+     * @param categories the categories, by name
+     * @throws IllegalArgumentException if the categories contain more than 64 distinct effects
+     */
+    VariantEffects(Map<String, MendelianVariantCategory> categories)
+    {
+        List<String> names = new ArrayList<String>();
+        for (Map.Entry<String, MendelianVariantCategory> category : categories.entrySet()) {
+            long mask = 0;
+            for (String effect : category.getValue().getVariantEffects()) {
+                String name = StringUtils.trim(effect);
+                if (StringUtils.isEmpty(name)) {
+                    continue;
+                }
+                Integer bit = this.bits.get(name);
+                if (bit == null) {
+                    if (names.size() == Long.SIZE) {
+                        throw new IllegalArgumentException("Too many variant effects, at most 64 are supported");
+                    }
+                    bit = names.size();
+                    names.add(name);
+                    this.bits.put(name, bit);
+                }
+                mask |= 1L << bit;
+            }
+            this.categoryMasks.put(category.getKey(), mask);
+        }
+        this.effects = names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * @param categoryNames the names of the selected categories
+     * @return the mask of the effects of these categories
+     * @throws IllegalArgumentException if one of the categories is unknown
+     */
+    long getMask(Collection<String> categoryNames)
+    {
+        long mask = 0;
+        for (String categoryName : categoryNames) {
+            Long categoryMask = this.categoryMasks.get(categoryName);
+            if (categoryMask == null) {
+                throw new IllegalArgumentException("Unknown variant category: " + categoryName);
+            }
+            mask |= categoryMask;
+        }
+        return mask;
+    }
+
+    /**
+     * @param mask a mask returned by {@link #getMask(Collection)}
+     * @return the immutable list of the effects selected by the mask, in the order they were numbered
+     */
+    List<String> getEffects(long mask)
+    {
+        List<String> result = this.effectLists.get(mask);
+        if (result == null) {
+            List<String> selected = new ArrayList<String>(Long.bitCount(mask));
+            for (int bit = 0; bit < this.effects.length; bit++) {
+                if ((mask & (1L << bit)) != 0) {
+                    selected.add(this.effects[bit]);
+                }
+            }
+            result = Collections.unmodifiableList(selected);
+            this.effectLists.putIfAbsent(mask, result);
+        }
+        return result;
+    }
+}
@@ -20,30 +20,89 @@ package org.phenotips.mendelianSearch.phenotype;
 import org.phenotips.data.Feature;
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
-import org.phenotips.data.permissions.PermissionsManager;
-import org.phenotips.data.permissions.internal.visibility.HiddenVisibility;
+import org.phenotips.mendelianSearch.MendelianSearchMetrics;
+import org.phenotips.mendelianSearch.PatientAccessIndex;
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
 
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.xpn.xwiki.doc.XWikiDocument;
 
 /**
- * Default implementation of a {@link PatientPhenotypeScorer}.
+ * Default implementation of a {@link PatientPhenotypeScorer}. The phenotype profile of each patient is cached, and
+ * evicted when the patient document changes, so that repeated searches don't have to load the patients and resolve
+ * their features again. Patients looked up by id are scored through a {@link PhenotypeProfileIndex}, so that only
+ * the patients sharing terms with the query are looked at, and other cohorts are scored directly once loaded; both are
+ * scored in parallel if large enough. The cache and the threads are configured in {@code xwiki.properties}: the
+ * cache holds at most {@code mendelianSearch.profileCache.size} profiles, and the number of scoring threads is set
+ * with the {@code mendelianSearch.scoring.threads} property, where a value of {@code 1} disables parallel scoring.
+ * Note that the profile index is not bounded by the cache size, and keeps the profiles of all the patients scored by
+ * id.
  *
  * @version $Id$
  */
 @Component
-public class DefaultPatientPhenotypeScorer implements PatientPhenotypeScorer
+@Singleton
+public class DefaultPatientPhenotypeScorer implements PatientPhenotypeScorer, Initializable, Disposable
 {
+    /** The name of the listener evicting the profiles of modified patients. */
+    private static final String LISTENER_NAME = "mendelian-search-patient-profile-invalidator";
+
+    /** The configuration property holding the maximum number of patient profiles to keep in the cache. */
+    private static final String PROFILE_CACHE_SIZE_PROPERTY = "mendelianSearch.profileCache.size";
+
+    /** The default maximum number of patient profiles to keep in the cache. */
+    private static final int DEFAULT_PROFILE_CACHE_SIZE = 100000;
+
+    /** The configuration property holding the number of scoring threads. */
+    private static final String THREADS_PROPERTY = "mendelianSearch.scoring.threads";
+
+    /** The minimum number of patients scored by one thread; smaller cohorts are scored on the calling thread. */
+    private static final int MIN_PARTITION_SIZE = 1000;
+
+    /** The name of the metrics stage loading patients and their profiles. */
+    private static final String PATIENT_LOADING = "patientLoading";
+
+    /** The name of the metrics stage scoring patient profiles. */
+    private static final String SCORING = "phenotypeScoring";
+
+    /** The name of the profile cache in the metrics. */
+    private static final String PROFILE_CACHE = "patientProfiles";
+
     @Inject
     private PhenotypeScorer scorer;
 
@@ -52,43 +111,233 @@ public class DefaultPatientPhenotypeScorer implements PatientPhenotypeScorer
     private VocabularyManager vocabularyManager;
 
     @Inject
-    private PermissionsManager pm;
+    private PatientAccessIndex accessIndex;
 
     @Inject
     private PatientRepository pr;
 
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private MendelianSearchMetrics metrics;
+
+    /** Patient id to the phenotype profile of the patient. */
+    private Cache<PhenotypeProfile> profiles;
+
+    /** Inverted index of the profiles of the visible patients. */
+    private PhenotypeProfileIndex profileIndex;
+
+    /** The number of threads used for scoring. */
+    private int threads;
+
+    /** Runs the scoring partitions, {@code null} if parallel scoring is disabled. */
+    private ExecutorService scoringExecutor;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            CacheConfiguration config = new CacheConfiguration();
+            config.setConfigurationId("mendelianSearch.patientPhenotypeProfiles");
+            LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+            lru.setMaxEntries(
+                this.configuration.getProperty(PROFILE_CACHE_SIZE_PROPERTY, DEFAULT_PROFILE_CACHE_SIZE));
+            config.put(EntryEvictionConfiguration.CONFIGURATIONID, lru);
+            this.profiles = this.cacheManager.createNewLocalCache(config);
+        } catch (CacheException ex) {
+            throw new InitializationException("Failed to create the patient phenotype profile cache", ex);
+        }
+        this.profileIndex = this.scorer.createProfileIndex();
+        this.observationManager.addListener(new AbstractEventListener(LISTENER_NAME, new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent())
+        {
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                XWikiDocument doc = (XWikiDocument) source;
+                String id = doc.getDocumentReference().getName();
+                DefaultPatientPhenotypeScorer.this.profiles.remove(id);
+                DefaultPatientPhenotypeScorer.this.profileIndex.remove(id);
+            }
+        });
+
+        this.threads = this.configuration.getProperty(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+        if (this.threads > 1) {
+            this.scoringExecutor = Executors.newFixedThreadPool(this.threads, new ThreadFactory()
+            {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "mendelian-search-scorer-" + this.count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.scoringExecutor != null) {
+            this.scoringExecutor.shutdownNow();
+        }
+        this.observationManager.removeListener(LISTENER_NAME);
+        if (this.profiles != null) {
+            this.profiles.dispose();
+        }
+    }
+
     @Override
     public Map<Patient, Double> getScores(List<VocabularyTerm> phenotype, Set<Patient> patients)
     {
-        Map<Patient, Double> patientScores = new HashMap<Patient, Double>();
+        long start = System.nanoTime();
+        List<Patient> scoredPatients = new ArrayList<Patient>(patients.size());
+        List<PhenotypeProfile> references = new ArrayList<PhenotypeProfile>(patients.size());
         for (Patient patient : patients) {
-            if (patient == null
-                || (this.pm.getPatientAccess(patient).getVisibility().compareTo(new HiddenVisibility()) <= 0)) {
-                continue;
+            if (patient != null && this.accessIndex.isVisible(patient)) {
+                scoredPatients.add(patient);
+                references.add(this.getProfile(patient));
             }
-            patientScores.put(patient,
-                this.scorer.getScoreAgainstReference(phenotype, this.getPresentPatientTerms(patient)));
         }
+        this.metrics.recordTime(PATIENT_LOADING, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        double[] scores = this.scoreProfiles(phenotype, references);
+        Map<Patient, Double> patientScores = new HashMap<Patient, Double>();
+        for (int i = 0; i < scores.length; i++) {
+            patientScores.put(scoredPatients.get(i), scores[i]);
+        }
+        this.metrics.recordTime(SCORING, System.nanoTime() - start);
         return patientScores;
     }
 
     @Override
     public Map<String, Double> getScoresById(List<VocabularyTerm> phenotype, Set<String> ids)
     {
-        Set<Patient> patients = new HashSet<Patient>();
+        return this.getScoresById(phenotype, ids, 0);
+    }
+
+    @Override
+    public Map<String, Double> getScoresById(List<VocabularyTerm> phenotype, Set<String> ids, double minScore)
+    {
+        long start = System.nanoTime();
+        Map<String, PhenotypeProfile> references = new LinkedHashMap<String, PhenotypeProfile>(ids.size() * 2);
         for (String id : ids) {
-            Patient patient = this.pr.get(id);
-            patients.add(patient);
+            PhenotypeProfile profile = this.profiles.get(id);
+            if (profile == null) {
+                Patient patient = this.pr.get(id);
+                // Also remembers the visibility of the loaded patient, for the check below
+                if (patient == null || !this.accessIndex.isVisible(patient)) {
+                    continue;
+                }
+                // Records the cache miss
+                profile = this.getProfile(patient);
+            } else {
+                this.metrics.recordCacheAccess(PROFILE_CACHE, true);
+            }
+            references.put(id, profile);
         }
-        Map<Patient, Double> patientMap = this.getScores(phenotype, patients);
+        // The visibility may change without the profile, so it is checked for all the patients at once when scoring
+        references.keySet().retainAll(this.accessIndex.filterVisible(references.keySet()));
+        this.metrics.recordTime(PATIENT_LOADING, System.nanoTime() - start);
+        this.metrics.recordSize("scoredPatients", references.size());
 
-        Map<String, Double> result = new HashMap<String, Double>();
-        for (Patient patient : patientMap.keySet()) {
-            result.put(patient.getId(), patientMap.get(patient));
-        }
+        start = System.nanoTime();
+        Map<String, Double> result =
+            this.profileIndex.getScores(phenotype, references, minScore, this.scoringExecutor, this.threads);
+        this.metrics.recordTime(SCORING, System.nanoTime() - start);
         return result;
     }
 
+    /**
+     * Score already loaded and access-filtered profiles, in batches, partitioned across the scoring threads if there
+     * are enough of them.
+     *
+     * @param phenotype the query phenotype
+     * @param references the profiles to score
+     * @return the scores, in the same order as the profiles
+     */
+    private double[] scoreProfiles(final List<VocabularyTerm> phenotype, List<PhenotypeProfile> references)
+    {
+        int partitions = Math.min(this.threads, references.size() / MIN_PARTITION_SIZE);
+        if (this.scoringExecutor == null || partitions < 2) {
+            return this.scorer.getScoresAgainstProfiles(phenotype, references);
+        }
+
+        int partitionSize = (references.size() + partitions - 1) / partitions;
+        List<Future<double[]>> results = new ArrayList<Future<double[]>>(partitions);
+        for (int start = 0; start < references.size(); start += partitionSize) {
+            final List<PhenotypeProfile> partition =
+                references.subList(start, Math.min(start + partitionSize, references.size()));
+            results.add(this.scoringExecutor.submit(new Callable<double[]>()
+            {
+                @Override
+                public double[] call()
+                {
+                    return DefaultPatientPhenotypeScorer.this.scorer.getScoresAgainstProfiles(phenotype, partition);
+                }
+            }));
+        }
+
+        double[] scores = new double[references.size()];
+        int offset = 0;
+        try {
+            for (Future<double[]> result : results) {
+                double[] partitionScores = result.get();
+                System.arraycopy(partitionScores, 0, scores, offset, partitionScores.length);
+                offset += partitionScores.length;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            cancel(results);
+            throw new IllegalStateException("Interrupted while scoring patients", ex);
+        } catch (ExecutionException ex) {
+            cancel(results);
+            throw new IllegalStateException("Failed to score patients", ex.getCause());
+        }
+        return scores;
+    }
+
+    private static void cancel(List<? extends Future<?>> tasks)
+    {
+        for (Future<?> task : tasks) {
+            task.cancel(true);
+        }
+    }
+
+    /**
+     * Return the cached profile of a patient, computing and caching it if needed.
+     *
+     * @param patient the patient, not {@code null}
+     * @return the profile of the patient
+     */
+    private PhenotypeProfile getProfile(Patient patient)
+    {
+        String id = patient.getId();
+        PhenotypeProfile profile = (id == null) ? null : this.profiles.get(id);
+        if (id != null) {
+            this.metrics.recordCacheAccess(PROFILE_CACHE, profile != null);
+        }
+        if (profile == null) {
+            profile = this.scorer.getProfile(this.getPresentPatientTerms(patient));
+            if (id != null) {
+                this.profiles.set(id, profile);
+            }
+        }
+        return profile;
+    }
+
     /**
      * Return a (potentially empty) collection of terms present in the patient.
      *
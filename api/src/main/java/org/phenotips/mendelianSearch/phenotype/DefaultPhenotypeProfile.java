@@ -0,0 +1,83 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.phenotype;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link PhenotypeProfile} created by the {@link DefaultPhenotypeScorer}. Stores the sorted ancestor closure of the
+ * terms as indices into the {@link PhenotypeTermIndex} that was used to compute it.
+ *
+ * @version $Id$
+ */
+final class DefaultPhenotypeProfile implements PhenotypeProfile
+{
+    private final List<String> termIds;
+
+    private final PhenotypeTermIndex index;
+
+    private final int[] ancestors;
+
+    private final double informationContent;
+
+    /**
+     * Create a new profile.
+     *
+     * @param termIds the ids of the terms the profile was created from
+     * @param index the term index the closure refers to
+     * @param ancestors the sorted ancestor closure of the terms, as term indices
+     * @param informationContent the total IC of the closure
+     */
+    DefaultPhenotypeProfile(List<String> termIds, PhenotypeTermIndex index, int[] ancestors,
+        double informationContent)
+    {
+        this.termIds = Collections.unmodifiableList(termIds);
+        this.index = index;
+        this.ancestors = ancestors;
+        this.informationContent = informationContent;
+    }
+
+    @Override
+    public List<String> getTermIds()
+    {
+        return this.termIds;
+    }
+
+    @Override
+    public double getInformationContent()
+    {
+        return this.informationContent;
+    }
+
+    /**
+     * @return the term index the closure refers to
+     */
+    PhenotypeTermIndex getIndex()
+    {
+        return this.index;
+    }
+
+    /**
+     * @return the sorted ancestor closure of the terms; must not be modified
+     */
+    int[] getAncestors()
+    {
+        return this.ancestors;
+    }
+}
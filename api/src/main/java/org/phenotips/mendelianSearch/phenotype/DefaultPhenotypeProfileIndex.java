@@ -0,0 +1,504 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.phenotype;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link PhenotypeProfileIndex} created by the {@link DefaultPhenotypeScorer}. Each indexed profile gets a dense slot
+ * number, and each informative term of the {@link PhenotypeTermIndex} has a posting list of the slots whose closure
+ * contains it.
+ * <p>
+ * A query is scored term-at-a-time, walking the posting lists of its informative terms by decreasing IC while
+ * accumulating the common IC of each slot. When a minimum score is requested, the total IC of the query terms not yet
+ * walked bounds the common IC a slot can still gain: slots first reached once this bound is too low for them are
+ * skipped, and once it is too low for every profile, the remaining posting lists are not walked at all and the
+ * candidates found so far are scored directly from their closures. Posting lists are sorted by slot, so large indexes
+ * can be scored in parallel, each partition walking the part of the posting lists within its own range of slots.
+ * </p>
+ * <p>
+ * Profiles stay indexed until they are {@link #remove(String) removed}, and are not bounded by the size of the profile
+ * cache of the {@link DefaultPatientPhenotypeScorer}: the index ends up holding every profile scored since the last
+ * change of the term index, so its memory grows with the cohort. Besides the profile itself, which the index keeps
+ * even once evicted from the cache, each profile takes an {@code int} per ancestor term in its closure and another
+ * one per informative ancestor term in the posting lists, i.e. a few hundred bytes for a typical patient.
+ * </p>
+ *
+ * @version $Id$
+ */
+final class DefaultPhenotypeProfileIndex implements PhenotypeProfileIndex
+{
+    /** Slot state: the slot is not part of the current query. */
+    private static final byte IGNORED = 0;
+
+    /** Slot state: the slot is part of the current query, but wasn't reached yet. */
+    private static final byte REQUESTED = 1;
+
+    /** Slot state: the slot was reached and may reach the minimum score. */
+    private static final byte CANDIDATE = 2;
+
+    /** Slot state: the slot cannot reach the minimum score. */
+    private static final byte PRUNED = 3;
+
+    /** Removed slots are only reclaimed once there are at least this many of them. */
+    private static final int MIN_COMPACTION = 1024;
+
+    /** The initial number of slots. */
+    private static final int INITIAL_SLOTS = 64;
+
+    /** The initial size of a posting list. */
+    private static final int INITIAL_POSTING_SIZE = 4;
+
+    /** The minimum number of slots scored by one partition; smaller indexes are scored on the calling thread. */
+    private static final int MIN_PARTITION_SLOTS = 8192;
+
+    /** Provides the current term index and normalizes profiles against it. */
+    private final DefaultPhenotypeScorer scorer;
+
+    /** Guards all the fields below. */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** The term index that the closures and posting lists refer to, {@code null} before the first query. */
+    private PhenotypeTermIndex termIndex;
+
+    /** Profile id to slot. */
+    private final Map<String, Integer> slots = new HashMap<String, Integer>();
+
+    /** The id of the profile in each slot. */
+    private String[] slotIds;
+
+    /** The profile given for each slot, {@code null} for removed slots. */
+    private PhenotypeProfile[] sources;
+
+    /** The sorted ancestor closure of the profile in each slot, {@code null} for removed slots. */
+    private int[][] closures;
+
+    /** The total IC of the profile in each slot. */
+    private double[] totals;
+
+    /** The number of slots used so far, including removed ones. */
+    private int slotCount;
+
+    /** The number of removed slots. */
+    private int removedCount;
+
+    /** For each term, the slots whose closure contains it, in increasing order, possibly including removed slots. */
+    private int[][] postings;
+
+    /** The number of used entries in each posting list. */
+    private int[] postingSizes;
+
+    /**
+     * Create a new, empty index.
+     *
+     * @param scorer the scorer providing the term index
+     */
+    DefaultPhenotypeProfileIndex(DefaultPhenotypeScorer scorer)
+    {
+        this.scorer = scorer;
+    }
+
+    @Override
+    public Map<String, Double> getScores(List<VocabularyTerm> query, Map<String, PhenotypeProfile> profiles,
+        double minScore)
+    {
+        return this.getScores(query, profiles, minScore, null, 1);
+    }
+
+    @Override
+    public Map<String, Double> getScores(List<VocabularyTerm> query, Map<String, PhenotypeProfile> profiles,
+        double minScore, ExecutorService executor, int parallelism)
+    {
+        PhenotypeTermIndex index = this.scorer.getTermIndex();
+        this.lock.readLock().lock();
+        if (this.needsUpdate(index, profiles)) {
+            this.lock.readLock().unlock();
+            this.lock.writeLock().lock();
+            try {
+                this.update(index, profiles);
+                // Downgrade to a read lock, so that the profiles are still indexed when scoring
+                this.lock.readLock().lock();
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+        try {
+            return this.score(index, query, profiles.keySet(), minScore, executor, parallelism);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(String id)
+    {
+        this.lock.writeLock().lock();
+        try {
+            Integer slot = this.slots.get(id);
+            if (slot != null) {
+                this.removeSlot(slot);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private boolean needsUpdate(PhenotypeTermIndex index, Map<String, PhenotypeProfile> profiles)
+    {
+        if (this.termIndex != index) {
+            return true;
+        }
+        for (Map.Entry<String, PhenotypeProfile> profile : profiles.entrySet()) {
+            Integer slot = this.slots.get(profile.getKey());
+            if (slot == null || this.sources[slot] != profile.getValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void update(PhenotypeTermIndex index, Map<String, PhenotypeProfile> profiles)
+    {
+        if (this.termIndex != index) {
+            this.clear(index);
+        }
+        for (Map.Entry<String, PhenotypeProfile> profile : profiles.entrySet()) {
+            Integer slot = this.slots.get(profile.getKey());
+            if (slot != null && this.sources[slot] == profile.getValue()) {
+                continue;
+            }
+            if (slot != null) {
+                this.removeSlot(slot);
+            }
+            DefaultPhenotypeProfile indexed = this.scorer.getIndexedProfile(profile.getValue(), index);
+            this.addSlot(profile.getKey(), profile.getValue(), indexed.getAncestors(), indexed.getInformationContent());
+        }
+        if (this.removedCount >= MIN_COMPACTION && this.removedCount > this.slotCount / 2) {
+            this.compact();
+        }
+    }
+
+    private void clear(PhenotypeTermIndex index)
+    {
+        this.termIndex = index;
+        this.slots.clear();
+        this.slotIds = new String[INITIAL_SLOTS];
+        this.sources = new PhenotypeProfile[INITIAL_SLOTS];
+        this.closures = new int[INITIAL_SLOTS][];
+        this.totals = new double[INITIAL_SLOTS];
+        this.slotCount = 0;
+        this.removedCount = 0;
+        this.postings = new int[index.size()][];
+        this.postingSizes = new int[index.size()];
+    }
+
+    private void addSlot(String id, PhenotypeProfile source, int[] closure, double total)
+    {
+        if (this.slotCount == this.slotIds.length) {
+            int capacity = this.slotCount * 2;
+            this.slotIds = Arrays.copyOf(this.slotIds, capacity);
+            this.sources = Arrays.copyOf(this.sources, capacity);
+            this.closures = Arrays.copyOf(this.closures, capacity);
+            this.totals = Arrays.copyOf(this.totals, capacity);
+        }
+        int slot = this.slotCount++;
+        this.slots.put(id, slot);
+        this.slotIds[slot] = id;
+        this.sources[slot] = source;
+        this.closures[slot] = closure;
+        this.totals[slot] = total;
+        for (int term : closure) {
+            if (this.termIndex.getTermIC(term) <= 0) {
+                // Terms without information content never contribute to a score
+                continue;
+            }
+            int[] posting = this.postings[term];
+            int size = this.postingSizes[term];
+            if (posting == null) {
+                posting = new int[INITIAL_POSTING_SIZE];
+                this.postings[term] = posting;
+            } else if (size == posting.length) {
+                posting = Arrays.copyOf(posting, size * 2);
+                this.postings[term] = posting;
+            }
+            posting[size] = slot;
+            this.postingSizes[term] = size + 1;
+        }
+    }
+
+    private void removeSlot(int slot)
+    {
+        this.slots.remove(this.slotIds[slot]);
+        this.slotIds[slot] = null;
+        this.sources[slot] = null;
+        this.closures[slot] = null;
+        this.removedCount++;
+    }
+
+    /**
+     * Re-index the live profiles into consecutive slots, dropping the removed slots from the posting lists.
+     */
+    private void compact()
+    {
+        String[] ids = this.slotIds;
+        PhenotypeProfile[] oldSources = this.sources;
+        int[][] oldClosures = this.closures;
+        double[] oldTotals = this.totals;
+        int count = this.slotCount;
+        this.clear(this.termIndex);
+        for (int slot = 0; slot < count; slot++) {
+            if (oldClosures[slot] != null) {
+                this.addSlot(ids[slot], oldSources[slot], oldClosures[slot], oldTotals[slot]);
+            }
+        }
+    }
+
+    private Map<String, Double> score(PhenotypeTermIndex index, List<VocabularyTerm> query, Collection<String> ids,
+        double minScore, ExecutorService executor, int parallelism)
+    {
+        Map<String, Double> result = new HashMap<String, Double>();
+        byte[] state = new byte[this.slotCount];
+        double minTotal = Double.POSITIVE_INFINITY;
+        int requested = 0;
+        for (String id : ids) {
+            Integer slot = this.slots.get(id);
+            if (slot == null || state[slot] != IGNORED) {
+                continue;
+            }
+            state[slot] = REQUESTED;
+            requested++;
+            if (this.totals[slot] > 0) {
+                minTotal = Math.min(minTotal, this.totals[slot]);
+            }
+            if (minScore <= 0) {
+                result.put(id, 0.0);
+            }
+        }
+
+        int[] queryTerms = this.getInformativeTerms(index, index.getAncestorIndices(query));
+        if (requested == 0 || queryTerms.length == 0) {
+            return result;
+        }
+        // remaining[e] is the total IC of the query terms from e on, i.e. the most a slot can gain from them
+        double[] remaining = new double[queryTerms.length + 1];
+        for (int e = queryTerms.length - 1; e >= 0; e--) {
+            remaining[e] = remaining[e + 1] + index.getTermIC(queryTerms[e]);
+        }
+
+        int partitions = (executor == null) ? 1 : Math.min(parallelism, this.slotCount / MIN_PARTITION_SLOTS);
+        if (partitions < 2) {
+            result.putAll(this.scoreSlots(index, queryTerms, remaining, minScore, minTotal, state, 0, this.slotCount));
+            return result;
+        }
+        result.putAll(this.scorePartitions(index, queryTerms, remaining, minScore, minTotal, state, executor,
+            partitions));
+        return result;
+    }
+
+    /**
+     * Score the requested slots in consecutive ranges of slots, one per task submitted to the executor. The ranges
+     * share the slot states, each task only writing the states of its own slots.
+     *
+     * @param index the term index
+     * @param queryTerms the informative query terms, by decreasing IC
+     * @param remaining for each query term, the total IC of the query terms from it on
+     * @param minScore the minimum score of the returned profiles
+     * @param minTotal the lowest total IC of the requested profiles
+     * @param state the state of each slot
+     * @param executor runs the partitions
+     * @param partitions the number of partitions
+     * @return the scores of the requested profiles reaching the minimum score, by id
+     */
+    private Map<String, Double> scorePartitions(final PhenotypeTermIndex index, final int[] queryTerms,
+        final double[] remaining, final double minScore, final double minTotal, final byte[] state,
+        ExecutorService executor, int partitions)
+    {
+        int partitionSize = (this.slotCount + partitions - 1) / partitions;
+        List<Future<Map<String, Double>>> results = new ArrayList<Future<Map<String, Double>>>(partitions);
+        for (int start = 0; start < this.slotCount; start += partitionSize) {
+            final int from = start;
+            final int to = Math.min(start + partitionSize, this.slotCount);
+            results.add(executor.submit(new Callable<Map<String, Double>>()
+            {
+                @Override
+                public Map<String, Double> call()
+                {
+                    return DefaultPhenotypeProfileIndex.this.scoreSlots(index, queryTerms, remaining, minScore,
+                        minTotal, state, from, to);
+                }
+            }));
+        }
+
+        Map<String, Double> result = new HashMap<String, Double>();
+        try {
+            for (Future<Map<String, Double>> partition : results) {
+                result.putAll(partition.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            cancel(results);
+            throw new IllegalStateException("Interrupted while scoring profiles", ex);
+        } catch (ExecutionException ex) {
+            cancel(results);
+            throw new IllegalStateException("Failed to score profiles", ex.getCause());
+        }
+        return result;
+    }
+
+    /**
+     * Score the requested slots within a range of slots, walking the part of the posting lists of the query terms
+     * which falls in that range.
+     *
+     * @param index the term index
+     * @param queryTerms the informative query terms, by decreasing IC
+     * @param remaining for each query term, the total IC of the query terms from it on
+     * @param minScore the minimum score of the returned profiles
+     * @param minTotal the lowest total IC of the requested profiles
+     * @param state the state of each slot, only updated within the range
+     * @param from the first slot of the range
+     * @param to the slot after the last one of the range
+     * @return the scores of the requested profiles of the range reaching the minimum score, by id
+     */
+    private Map<String, Double> scoreSlots(PhenotypeTermIndex index, int[] queryTerms, double[] remaining,
+        double minScore, double minTotal, byte[] state, int from, int to)
+    {
+        Map<String, Double> result = new HashMap<String, Double>();
+        double[] common = new double[to - from];
+        int[] candidates = new int[to - from];
+        int candidateCount = 0;
+        int e = 0;
+        for (; e < queryTerms.length; e++) {
+            if (minScore > 0 && remaining[e] < minScore * minTotal) {
+                // No profile that wasn't reached yet can reach the minimum score
+                break;
+            }
+            int term = queryTerms[e];
+            double ic = index.getTermIC(term);
+            int[] posting = this.postings[term];
+            int size = this.postingSizes[term];
+            for (int i = findFirst(posting, size, from); i < size && posting[i] < to; i++) {
+                int slot = posting[i];
+                if (state[slot] == REQUESTED) {
+                    if (minScore > 0 && remaining[e] < minScore * this.totals[slot]) {
+                        state[slot] = PRUNED;
+                        continue;
+                    }
+                    state[slot] = CANDIDATE;
+                    candidates[candidateCount++] = slot;
+                }
+                if (state[slot] == CANDIDATE) {
+                    common[slot - from] += ic;
+                }
+            }
+        }
+
+        boolean exhaustive = e == queryTerms.length;
+        for (int i = 0; i < candidateCount; i++) {
+            int slot = candidates[i];
+            double total = this.totals[slot];
+            if (total <= 0) {
+                continue;
+            }
+            double score;
+            if (exhaustive) {
+                score = common[slot - from] / total;
+            } else if ((common[slot - from] + remaining[e]) / total < minScore) {
+                continue;
+            } else {
+                score = this.getCommonIC(index, queryTerms, this.closures[slot]) / total;
+            }
+            if (score >= minScore) {
+                result.put(this.slotIds[slot], score);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param posting a posting list, possibly {@code null} if empty
+     * @param size the number of used entries in the posting list
+     * @param slot the first slot to look for
+     * @return the position of the first entry of the posting list not lower than the slot
+     */
+    private static int findFirst(int[] posting, int size, int slot)
+    {
+        if (size == 0 || slot == 0) {
+            return 0;
+        }
+        int position = Arrays.binarySearch(posting, 0, size, slot);
+        return (position >= 0) ? position : -position - 1;
+    }
+
+    private static void cancel(List<? extends Future<?>> tasks)
+    {
+        for (Future<?> task : tasks) {
+            task.cancel(true);
+        }
+    }
+
+    /**
+     * @param index the term index
+     * @param terms sorted term indices
+     * @return the terms with a positive IC, still sorted, i.e. by decreasing IC
+     */
+    private int[] getInformativeTerms(PhenotypeTermIndex index, int[] terms)
+    {
+        int count = 0;
+        while (count < terms.length && index.getTermIC(terms[count]) > 0) {
+            count++;
+        }
+        return (count == terms.length) ? terms : Arrays.copyOf(terms, count);
+    }
+
+    /**
+     * @param index the term index
+     * @param a sorted term indices
+     * @param b other sorted term indices
+     * @return the total IC of the terms present in both arrays
+     */
+    private double getCommonIC(PhenotypeTermIndex index, int[] a, int[] b)
+    {
+        double ic = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                ic += index.getTermIC(a[i]);
+                i++;
+                j++;
+            }
+        }
+        return ic;
+    }
+}
@@ -24,7 +24,11 @@ import org.phenotips.vocabulary.VocabularyTerm;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -33,16 +37,28 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.common.params.CommonParams;
 import org.slf4j.Logger;
 
 /**
  * Restates the getPhenotypeScore method used in the DefaultPatientSimilarityView class of patient-network. All other
  * methods have been copied from either DefaultPatientSimilarityView or DefaultPatientSimilarityViewFactory
+ * <p>
+ * The term index the scores are computed with is built, or loaded from its last snapshot, when the component is
+ * initialized. This blocks the first lookup of the scorer, unless {@code mendelianSearch.scoring.asyncInitialization}
+ * is set to {@code true} in {@code xwiki.properties}: the index is then built on a background thread, and scoring
+ * calls made before it is ready wait for it for up to {@code mendelianSearch.scoring.initializationTimeout} seconds,
+ * then fail. Background initialization is off by default, so that a broken vocabulary fails the component lookup
+ * instead of every search.
+ * </p>
  *
  * @version $Id$
  */
@@ -59,8 +75,29 @@ public class DefaultPhenotypeScorer implements PhenotypeScorer, Initializable
     /** A string variable for "id".*/
     private static final String ID_STRING = "id";
 
-    /** Pre-computed term information content (-logp), for each node t (i.e. t.inf). */
-    private Map<VocabularyTerm, Double> termICs;
+    /** The location of the term index snapshot, relative to the permanent directory. */
+    private static final String SNAPSHOT_PATH = "mendelianSearch/phenotypeTermIndex.bin";
+
+    /** The configuration property enabling the background initialization of the scorer. */
+    private static final String ASYNC_PROPERTY = "mendelianSearch.scoring.asyncInitialization";
+
+    /** The configuration property holding how many seconds scoring calls wait for a background initialization. */
+    private static final String TIMEOUT_PROPERTY = "mendelianSearch.scoring.initializationTimeout";
+
+    /** By default, scoring calls wait up to this many seconds for a background initialization. */
+    private static final int DEFAULT_TIMEOUT = 30;
+
+    /** Released once the initialization finishes, successfully or not. */
+    private final CountDownLatch initialized = new CountDownLatch(1);
+
+    /**
+     * Dense index of the terms under {@link #HP_ROOT}, with their ancestor closures and ICs; {@code null} until the
+     * scorer is initialized.
+     */
+    private volatile PhenotypeTermIndex termIndex;
+
+    /** How many seconds scoring calls wait for the initialization to finish. */
+    private int initializationTimeout;
 
     @Inject
     private Logger logger;
@@ -69,27 +106,114 @@ public class DefaultPhenotypeScorer implements PhenotypeScorer, Initializable
     @Inject
     private VocabularyManager vocabularyManager;
 
+    /** Provides the permanent directory where the term index snapshot is stored. */
+    @Inject
+    private Environment environment;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
     @Override
     public void initialize() throws InitializationException
+    {
+        this.initializationTimeout = this.configuration.getProperty(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT);
+        if (!this.configuration.getProperty(ASYNC_PROPERTY, Boolean.FALSE)) {
+            this.warmUp();
+            if (this.termIndex == null) {
+                throw new InitializationException("Failed to initialize the phenotype scorer");
+            }
+            return;
+        }
+
+        // Compute the index on a dedicated thread, so that looking up the scorer does not block the current request
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                warmUp();
+            }
+        }, "mendelian-search-phenotype-scorer-init");
+        thread.setDaemon(true);
+        thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler()
+        {
+            @Override
+            public void uncaughtException(Thread t, Throwable ex)
+            {
+                DefaultPhenotypeScorer.this.logger.error("Failed to initialize the phenotype scorer: {}",
+                    ex.getMessage(), ex);
+            }
+        });
+        thread.start();
+    }
+
+    @Override
+    public boolean isReady()
+    {
+        return this.termIndex != null;
+    }
+
+    /**
+     * Build or load the term index. The {@link #initialized} latch is released even if this fails, in which case the
+     * term index stays {@code null}.
+     */
+    private void warmUp()
+    {
+        try {
+            this.termIndex = this.loadTermIndex();
+        } finally {
+            this.initialized.countDown();
+        }
+    }
+
+    private PhenotypeTermIndex loadTermIndex()
     {
         this.logger.info("Initializing...");
 
         // Load the OMIM/HPO mappings
         Vocabulary mim = this.vocabularyManager.getVocabulary("MIM");
         Vocabulary hpo = this.vocabularyManager.getVocabulary("HPO");
-        VocabularyTerm hpRoot = hpo.getTerm(HP_ROOT);
-
-        // Pre-compute HPO descendant lookups
-        Map<VocabularyTerm, Collection<VocabularyTerm>> termChildren = getChildrenMap(hpo);
-        Map<VocabularyTerm, Collection<VocabularyTerm>> termDescendants = getDescendantsMap(hpRoot, termChildren);
 
-        // Compute prior frequencies of phenotypes (based on disease frequencies and phenotype prevalence)
-        Map<VocabularyTerm, Double> termFreq = getTermFrequencies(mim, hpo, termDescendants.keySet());
-
-        // Pre-compute term information content (-logp), for each node t (i.e. t.inf).
-        this.termICs = findTermICs(termFreq, termDescendants);
+        // Reuse the index computed by a previous start, unless the vocabularies changed since
+        String version = getVocabularyVersion(hpo, mim);
+        File snapshot = getSnapshotFile();
+        PhenotypeTermIndex index = readSnapshot(snapshot, version);
+        if (index == null) {
+            index = computeTermIndex(mim, hpo);
+            writeSnapshot(snapshot, version, index);
+        }
 
         this.logger.info("Initialized.");
+        return index;
+    }
+
+    /**
+     * Return the term index, waiting for the initialization to finish if needed.
+     *
+     * @return the term index
+     * @throws IllegalStateException if the scorer is still warming up after the configured timeout, or if its
+     *             initialization failed
+     */
+    PhenotypeTermIndex getTermIndex()
+    {
+        PhenotypeTermIndex index = this.termIndex;
+        if (index != null) {
+            return index;
+        }
+        try {
+            if (!this.initialized.await(this.initializationTimeout, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("The phenotype scorer is still warming up, try again later");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the phenotype scorer to warm up", ex);
+        }
+        index = this.termIndex;
+        if (index == null) {
+            throw new IllegalStateException("The phenotype scorer failed to initialize");
+        }
+        return index;
     }
 
     @Override
@@ -104,45 +228,124 @@ public class DefaultPhenotypeScorer implements PhenotypeScorer, Initializable
         return this.getScore(query, reference, false);
     }
 
+    @Override
+    public PhenotypeProfile getProfile(List<VocabularyTerm> terms)
+    {
+        List<String> ids = new ArrayList<String>(terms.size());
+        for (VocabularyTerm term : terms) {
+            if (term != null) {
+                ids.add(term.getId());
+            }
+        }
+        return this.createProfile(ids, terms, this.getTermIndex());
+    }
+
+    @Override
+    public double[] getScoresAgainstProfiles(List<VocabularyTerm> query, List<PhenotypeProfile> references)
+    {
+        PhenotypeTermIndex index = this.getTermIndex();
+        int[][] closures = new int[references.size()][];
+        double[] totals = new double[references.size()];
+        int i = 0;
+        for (PhenotypeProfile reference : references) {
+            DefaultPhenotypeProfile profile = this.getIndexedProfile(reference, index);
+            closures[i] = profile.getAncestors();
+            totals[i] = profile.getInformationContent();
+            i++;
+        }
+        return index.getScores(query, closures, totals);
+    }
+
+    @Override
+    public PhenotypeProfileIndex createProfileIndex()
+    {
+        return new DefaultPhenotypeProfileIndex(this);
+    }
+
     @Override
     public List<Map<String, Object>> getDetailedMatches(List<VocabularyTerm> q, List<VocabularyTerm> m)
     {
         List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
-        double maxIC;
-
-        //This is a far from optimal greedy approach to creating matches.
-        // Each trait (qt) from q is matched with its best match in m (mt). mt is then removed from m.
-        // So although mt may be the best match for qt, qt may not be the best match for mt.
-        for (VocabularyTerm t : q) {
-            if (m.isEmpty()) {
-                break;
-            }
-            maxIC = 0;
-            VocabularyTerm bestMatch = null;
-            VocabularyTerm lcs = null;
-            for (VocabularyTerm tPrime : m) {
-                VocabularyTerm tempLcs = this.findBestCommonAncestor(t, tPrime);
-                if (tempLcs != null && this.termICs.get(tempLcs) > maxIC) {
-                    lcs = tempLcs;
-                    maxIC = this.termICs.get(tempLcs);
-                    bestMatch = tPrime;
+        if (q.isEmpty() || m.isEmpty()) {
+            return result;
+        }
+        PhenotypeTermIndex index = this.getTermIndex();
+
+        // Compute the most informative common ancestor of every pair once, from the indexed ancestors of indexed
+        // terms, and the ancestors of the other terms
+        int[] mIndices = new int[m.size()];
+        int[][] mAncestors = new int[m.size()][];
+        for (int j = 0; j < mAncestors.length; j++) {
+            mIndices[j] = this.getIndex(m.get(j), index);
+            mAncestors[j] = (mIndices[j] >= 0) ? null : this.getIndexedAncestors(m.get(j), index);
+        }
+        int[][] lcs = new int[q.size()][m.size()];
+        double[][] weights = new double[q.size()][m.size()];
+        for (int i = 0; i < lcs.length; i++) {
+            int qIndex = this.getIndex(q.get(i), index);
+            int[] qAncestors = this.getIndexedAncestors(q.get(i), index);
+            for (int j = 0; j < mAncestors.length; j++) {
+                if (qIndex >= 0 && mIndices[j] >= 0) {
+                    lcs[i][j] = index.getBestCommonAncestor(qIndex, mIndices[j]);
+                } else {
+                    int[] ancestors = (mIndices[j] >= 0) ? index.getAncestors(mIndices[j]) : mAncestors[j];
+                    lcs[i][j] = index.getBestCommonAncestor(qAncestors, ancestors);
                 }
+                weights[i][j] = (lcs[i][j] < 0) ? 0 : index.getTermIC(lcs[i][j]);
             }
-            if (bestMatch != null && lcs != null) {
-                m.remove(bestMatch);
-                Map<String, Object> matchView = this.createMatchView(t, bestMatch, lcs);
-                result.add(matchView);
+        }
+
+        // Pair up the terms so that the total IC of the matches is maximal (greedily for very large phenotypes)
+        int[] assignment = PhenotypeMatchAssignment.assign(weights);
+        for (int i = 0; i < assignment.length; i++) {
+            int j = assignment[i];
+            if (j >= 0) {
+                VocabularyTerm t = q.get(i);
+                VocabularyTerm ancestor = this.resolveAncestor(t, index.getTermId(lcs[i][j]));
+                result.add(this.createMatchView(t, m.get(j), ancestor, index));
             }
         }
         return result;
     }
 
-    private Map<String, Object> createMatchView(VocabularyTerm a, VocabularyTerm b, VocabularyTerm lcs)
+    private DefaultPhenotypeProfile createProfile(List<String> ids, Collection<VocabularyTerm> terms,
+        PhenotypeTermIndex index)
+    {
+        int[] ancestors = index.getAncestorIndices(terms);
+        return new DefaultPhenotypeProfile(ids, index, ancestors, index.getTotalIC(ancestors));
+    }
+
+    /**
+     * Return a profile whose closure refers to the given index, rebuilding it from its term ids if it was computed by
+     * another scorer or against an outdated index.
+     *
+     * @param profile the profile to check, may be {@code null}
+     * @param index the current term index
+     * @return a profile usable with the index
+     */
+    DefaultPhenotypeProfile getIndexedProfile(PhenotypeProfile profile, PhenotypeTermIndex index)
+    {
+        if (profile instanceof DefaultPhenotypeProfile && ((DefaultPhenotypeProfile) profile).getIndex() == index) {
+            return (DefaultPhenotypeProfile) profile;
+        }
+        List<String> ids = (profile == null) ? Collections.<String>emptyList() : profile.getTermIds();
+        List<VocabularyTerm> terms = new ArrayList<VocabularyTerm>(ids.size());
+        for (String id : ids) {
+            VocabularyTerm term = this.vocabularyManager.resolveTerm(id);
+            if (term != null) {
+                terms.add(term);
+            }
+        }
+        return this.createProfile(ids, terms, index);
+    }
+
+    private Map<String, Object> createMatchView(VocabularyTerm a, VocabularyTerm b, VocabularyTerm lcs,
+        PhenotypeTermIndex index)
     {
         Map<String, Object> result = new HashMap<String, Object>();
-        result.put("a", this.getTermData(a));
-        result.put("b", this.getTermData(b));
-        result.put("lcs", this.getTermData(lcs));
+        result.put("a", this.getTermData(a, index));
+        result.put("b", this.getTermData(b, index));
+        result.put("lcs", this.getTermData(lcs, index));
         return result;
     }
 
@@ -161,101 +364,221 @@ public class DefaultPhenotypeScorer implements PhenotypeScorer, Initializable
      *
      * @return the similarity score, between 0 (a poor match) and 1 (a good match)
      */
-    private Double getScore(List<VocabularyTerm> match, List<VocabularyTerm> ref, boolean symmetric)
+    private double getScore(List<VocabularyTerm> match, List<VocabularyTerm> ref, boolean symmetric)
     {
         if (match.isEmpty() || ref.isEmpty()) {
             return 0.0;
-        } else {
-            // Get ancestors for both patients
-            Set<VocabularyTerm> refAncestors = getAncestors(ref);
-            Set<VocabularyTerm> matchAncestors = getAncestors(match);
-
-            if (refAncestors.isEmpty() || matchAncestors.isEmpty()) {
-                return 0.0;
-            } else {
-                // Score overlapping ancestors
-                Set<VocabularyTerm> commonAncestors = new HashSet<VocabularyTerm>();
-                commonAncestors.addAll(refAncestors);
-                commonAncestors.retainAll(matchAncestors);
-
-                Set<VocabularyTerm> allAncestors = new HashSet<VocabularyTerm>();
-                allAncestors.addAll(refAncestors);
-                allAncestors.addAll(matchAncestors);
-                Double denominator = symmetric ? getTermICs(allAncestors) : getTermICs(refAncestors);
-
-                return getTermICs(commonAncestors) / denominator;
-            }
         }
+        return this.getTermIndex().getScore(match, ref, symmetric);
     }
 
-
-    private Map<String, Object> getTermData(VocabularyTerm term)
+    private Map<String, Object> getTermData(VocabularyTerm term, PhenotypeTermIndex index)
     {
         Map<String, Object> result = new HashMap<String, Object>();
         result.put(ID_STRING, term.getId());
-        result.put("IC", this.termICs.get(term));
+        int termIndex = index.indexOf(term.getId());
+        double ic = (termIndex < 0) ? 0 : index.getTermIC(termIndex);
+        result.put("IC", (ic > 0) ? ic : null);
         result.put("label", term.getName());
         return result;
     }
 
-    private VocabularyTerm findBestCommonAncestor(VocabularyTerm t, VocabularyTerm tPrime)
+    /**
+     * @param term a vocabulary term, may be {@code null}
+     * @param index the term index
+     * @return the dense index of the term, or {@code -1} if the term is {@code null} or not indexed
+     */
+    private int getIndex(VocabularyTerm term, PhenotypeTermIndex index)
+    {
+        return (term == null) ? -1 : index.indexOf(term.getId());
+    }
+
+    /**
+     * @param term a vocabulary term, may be {@code null}
+     * @param index the term index
+     * @return the sorted indexed ancestor closure of the term, empty for a {@code null} term
+     */
+    private int[] getIndexedAncestors(VocabularyTerm term, PhenotypeTermIndex index)
+    {
+        if (term == null) {
+            return new int[0];
+        }
+        int termIndex = index.indexOf(term.getId());
+        return (termIndex >= 0) ? index.getAncestors(termIndex)
+            : index.getAncestorIndices(Collections.singletonList(term));
+    }
+
+    /**
+     * Return the vocabulary term for one of the ancestors of a term, without querying the vocabulary if possible.
+     *
+     * @param term a vocabulary term
+     * @param ancestorId the id of one of its ancestors, or of the term itself
+     * @return the ancestor term
+     */
+    private VocabularyTerm resolveAncestor(VocabularyTerm term, String ancestorId)
+    {
+        for (VocabularyTerm ancestor : term.getAncestorsAndSelf()) {
+            if (ancestor != null && ancestorId.equals(ancestor.getId())) {
+                return ancestor;
+            }
+        }
+        return this.vocabularyManager.resolveTerm(ancestorId);
+    }
+
+    /**
+     * Compute the term index from scratch, by loading all the HPO terms and MIM diseases.
+     *
+     * @param mim the MIM vocabulary with diseases and symptom frequencies
+     * @param hpo the human phenotype vocabulary
+     * @return the term index
+     */
+    private PhenotypeTermIndex computeTermIndex(Vocabulary mim, Vocabulary hpo)
     {
+        VocabularyTerm hpRoot = hpo.getTerm(HP_ROOT);
 
-        Set<VocabularyTerm> allAncestors = getAncestors(Collections.singletonList(t));
-        Set<VocabularyTerm> tPrimeAncestors = getAncestors(Collections.singletonList(tPrime));
+        // Pre-compute HPO descendant lookups
+        Map<VocabularyTerm, Collection<VocabularyTerm>> termChildren = getChildrenMap(hpo);
+        Map<VocabularyTerm, Collection<VocabularyTerm>> termDescendants = getDescendantsMap(hpRoot, termChildren);
 
-        allAncestors.retainAll(tPrimeAncestors);
-        if (allAncestors.isEmpty()) {
+        // Compute prior frequencies of phenotypes (based on disease frequencies and phenotype prevalence)
+        Map<VocabularyTerm, Double> termFreq = getTermFrequencies(mim, hpo, termDescendants.keySet());
+
+        // Pre-compute term information content (-logp), for each node t (i.e. t.inf).
+        Map<VocabularyTerm, Double> termICs = findTermICs(termFreq, termDescendants);
+
+        // Index the terms and their ancestor closures, so that scoring only works with bitsets
+        return buildTermIndex(termDescendants.keySet(), termChildren, termICs);
+    }
+
+    /**
+     * Identify the content of the vocabularies the term index is computed from.
+     *
+     * @param hpo the human phenotype vocabulary
+     * @param mim the MIM vocabulary
+     * @return a string which changes whenever either vocabulary is updated, or {@code null} if a vocabulary does not
+     *         report its version
+     */
+    private String getVocabularyVersion(Vocabulary hpo, Vocabulary mim)
+    {
+        String hpoVersion = hpo.getVersion();
+        String mimVersion = mim.getVersion();
+        if (StringUtils.isBlank(hpoVersion) || StringUtils.isBlank(mimVersion)) {
             return null;
         }
+        return String.format("HPO %s (%d terms), MIM %s (%d terms)", hpoVersion, hpo.size(), mimVersion, mim.size());
+    }
+
+    /**
+     * @return the term index snapshot file, or {@code null} if there is no permanent directory
+     */
+    private File getSnapshotFile()
+    {
+        File directory = this.environment.getPermanentDirectory();
+        return (directory == null) ? null : new File(directory, SNAPSHOT_PATH);
+    }
 
-        double maxTermIC = 0;
-        VocabularyTerm bestCommonAncestor = null;
-        for (VocabularyTerm ancestor : allAncestors) {
-            Double ic = this.termICs.get(ancestor);
-            if (ic != null && ic > maxTermIC) {
-                maxTermIC = this.termICs.get(ancestor);
-                bestCommonAncestor = ancestor;
+    private PhenotypeTermIndex readSnapshot(File snapshot, String version)
+    {
+        if (snapshot == null || version == null) {
+            return null;
+        }
+        try {
+            PhenotypeTermIndex index = PhenotypeTermIndexSnapshot.read(snapshot, version);
+            if (index != null) {
+                this.logger.info(String.format("Loaded %d indexed terms from %s.", index.size(), snapshot));
             }
+            return index;
+        } catch (IOException ex) {
+            this.logger.warn("Failed to load the term index snapshot, recomputing it: {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    private void writeSnapshot(File snapshot, String version, PhenotypeTermIndex index)
+    {
+        if (snapshot == null || version == null) {
+            return;
+        }
+        try {
+            PhenotypeTermIndexSnapshot.write(snapshot, version, index);
+        } catch (IOException ex) {
+            this.logger.warn("Failed to store the term index snapshot: {}", ex.getMessage());
         }
-        return bestCommonAncestor;
     }
 
     /**
-     * Return the total IC across a collection of terms.
+     * Assign a dense index to each term under the root, and pre-compute the indexed ancestor closure of each term.
      *
-     * @param terms (should include implied ancestors) that are present in the patient
-     * @return the total IC for all the terms
+     * @param terms the terms to index, i.e. all the descendants of the root
+     * @param termChildren a map from each vocabulary term to its children
+     * @param icMap the information content of the terms which have one
+     * @return the term index
      */
-    private double getTermICs(Collection<VocabularyTerm> terms)
+    private PhenotypeTermIndex buildTermIndex(Collection<VocabularyTerm> terms,
+        Map<VocabularyTerm, Collection<VocabularyTerm>> termChildren, Map<VocabularyTerm, Double> icMap)
     {
-        double cost = 0;
+        List<String> ids = new ArrayList<String>(terms.size());
+        Map<String, Integer> indices = new HashMap<String, Integer>(terms.size() * 2);
+        double[] ics = new double[terms.size()];
         for (VocabularyTerm term : terms) {
-            Double ic = this.termICs.get(term);
-            if (ic == null) {
-                ic = 0.0;
+            Double ic = icMap.get(term);
+            ics[ids.size()] = (ic == null) ? 0.0 : ic;
+            indices.put(term.getId(), ids.size());
+            ids.add(term.getId());
+        }
+
+        // Invert the children map into indexed parent lists
+        List<List<Integer>> parents = new ArrayList<List<Integer>>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            parents.add(new ArrayList<Integer>(2));
+        }
+        for (Map.Entry<VocabularyTerm, Collection<VocabularyTerm>> entry : termChildren.entrySet()) {
+            Integer parent = indices.get(entry.getKey().getId());
+            if (parent == null) {
+                continue;
+            }
+            for (VocabularyTerm child : entry.getValue()) {
+                Integer childIndex = indices.get(child.getId());
+                if (childIndex != null) {
+                    parents.get(childIndex).add(parent);
+                }
             }
-            cost += ic;
         }
-        return cost;
+
+        int[][] ancestors = new int[ids.size()][];
+        for (int i = 0; i < ids.size(); i++) {
+            setAncestorClosure(i, parents, ancestors);
+        }
+        this.logger.info(String.format("Indexed ancestors of %d vocabulary terms.", ids.size()));
+        return new PhenotypeTermIndex(ids, ancestors, ics);
     }
 
     /**
-     * Return the set of terms implied by a collection of features in the vocabulary.
+     * Helper method to recursively compute the ancestor closure (including self) of an indexed term.
      *
-     * @param terms a collection of terms
-     * @return all provided VocabularyTerm terms and their ancestors
+     * @param index the index of the term
+     * @param parents the indexed parents of each term
+     * @param ancestors a partially-complete array of ancestor closures, filled in by this method
      */
-    private Set<VocabularyTerm> getAncestors(Collection<VocabularyTerm> terms)
+    private void setAncestorClosure(int index, List<List<Integer>> parents, int[][] ancestors)
     {
-        Set<VocabularyTerm> ancestors = new HashSet<VocabularyTerm>();
-        for (VocabularyTerm term : terms) {
-            // Add all ancestors
-            if (term != null) {
-                ancestors.addAll(term.getAncestorsAndSelf());
+        if (ancestors[index] != null) {
+            return;
+        }
+        Set<Integer> closure = new HashSet<Integer>();
+        closure.add(index);
+        for (Integer parent : parents.get(index)) {
+            setAncestorClosure(parent, parents, ancestors);
+            for (int ancestor : ancestors[parent]) {
+                closure.add(ancestor);
             }
         }
-        return ancestors;
+        int[] result = new int[closure.size()];
+        int i = 0;
+        for (Integer ancestor : closure) {
+            result[i++] = ancestor;
+        }
+        ancestors[index] = result;
     }
 
     /**
@@ -56,4 +56,16 @@ public interface PatientPhenotypeScorer
      */
     Map<String, Double> getScoresById(List<VocabularyTerm> phenotype, Set<String> ids);
 
+    /**
+     * Computes scores between 0 and 1 for the patients in the id set which score at least {@code minScore}. Patients
+     * which cannot reach the minimum score are discarded without being fully scored.
+     *
+     * @param phenotype The phenotype against which to compute
+     * @param ids A valid set of patient internal ids
+     * @param minScore The minimum score of the returned patients; with {@code 0} or less, this is the same as
+     *            {@link #getScoresById(List, Set)}
+     * @return A map with patient ids as keys and double scores as values
+     */
+    Map<String, Double> getScoresById(List<VocabularyTerm> phenotype, Set<String> ids, double minScore);
+
 }
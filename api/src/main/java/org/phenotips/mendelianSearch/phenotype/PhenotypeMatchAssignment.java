@@ -0,0 +1,183 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.phenotype;
+
+import java.util.Arrays;
+
+/**
+ * Pairs up the terms of two phenotypes, given the weight (the IC of the best common ancestor) of every possible pair.
+ * Each term is used in at most one pair. Pairs of weight {@code 0} are never reported.
+ *
+ * @version $Id$
+ */
+final class PhenotypeMatchAssignment
+{
+    /**
+     * Above this many candidate pairs, {@link #assign} falls back to the greedy matching, since the optimal one takes
+     * cubic time.
+     */
+    static final int MAX_OPTIMAL_PAIRS = 10000;
+
+    private PhenotypeMatchAssignment()
+    {
+        // Utility class
+    }
+
+    /**
+     * Pair up rows and columns so that the total weight of the pairs is as high as possible, or greedily for large
+     * inputs.
+     *
+     * @param weights the non-negative weight of each (row, column) pair; all rows must have the same length
+     * @return for each row, the column it is paired with, or {@code -1} if it is not paired
+     */
+    static int[] assign(double[][] weights)
+    {
+        int columns = (weights.length == 0) ? 0 : weights[0].length;
+        if ((long) weights.length * columns > MAX_OPTIMAL_PAIRS) {
+            return assignGreedily(weights);
+        }
+        return assignOptimally(weights);
+    }
+
+    /**
+     * Pair each row, in order, with the heaviest column not already taken by a previous row. Ties are resolved in
+     * favour of the first column.
+     *
+     * @param weights the non-negative weight of each (row, column) pair
+     * @return for each row, the column it is paired with, or {@code -1} if it is not paired
+     */
+    static int[] assignGreedily(double[][] weights)
+    {
+        int[] result = new int[weights.length];
+        Arrays.fill(result, -1);
+        if (weights.length == 0) {
+            return result;
+        }
+        boolean[] taken = new boolean[weights[0].length];
+        for (int i = 0; i < weights.length; i++) {
+            double best = 0;
+            for (int j = 0; j < taken.length; j++) {
+                if (!taken[j] && weights[i][j] > best) {
+                    best = weights[i][j];
+                    result[i] = j;
+                }
+            }
+            if (result[i] >= 0) {
+                taken[result[i]] = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Pair rows and columns so that the total weight of the pairs is maximal, using the Hungarian algorithm in
+     * {@code O(n^2 m)} time, where {@code n} and {@code m} are the smaller and larger dimension of the matrix.
+     *
+     * @param weights the non-negative weight of each (row, column) pair
+     * @return for each row, the column it is paired with, or {@code -1} if it is not paired
+     */
+    static int[] assignOptimally(double[][] weights)
+    {
+        int rows = weights.length;
+        int columns = (rows == 0) ? 0 : weights[0].length;
+        int[] result = new int[rows];
+        Arrays.fill(result, -1);
+        if (rows == 0 || columns == 0) {
+            return result;
+        }
+        // The algorithm needs at most as many rows as columns, so work on the transposed matrix if needed
+        boolean transposed = rows > columns;
+        int n = transposed ? columns : rows;
+        int m = transposed ? rows : columns;
+        int[] rowOfColumn = solve(weights, transposed, n, m);
+        for (int j = 1; j <= m; j++) {
+            if (rowOfColumn[j] == 0) {
+                continue;
+            }
+            int row = transposed ? j - 1 : rowOfColumn[j] - 1;
+            int column = transposed ? rowOfColumn[j] - 1 : j - 1;
+            if (weights[row][column] > 0) {
+                result[row] = column;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Minimize the total cost, i.e. the negated weight, of a full assignment of the {@code n} rows to distinct
+     * columns among {@code m}, with potentials {@code u} and {@code v}. Rows and columns are numbered from 1, with
+     * column 0 used as a sentinel.
+     *
+     * @param weights the non-negative weight of each (row, column) pair
+     * @param transposed whether the algorithm rows are the columns of {@code weights}
+     * @param n the number of algorithm rows
+     * @param m the number of algorithm columns, at least {@code n}
+     * @return for each column, the row it is assigned to, or {@code 0}
+     */
+    private static int[] solve(double[][] weights, boolean transposed, int n, int m)
+    {
+        double[] u = new double[n + 1];
+        double[] v = new double[m + 1];
+        int[] rowOfColumn = new int[m + 1];
+        int[] way = new int[m + 1];
+        double[] minv = new double[m + 1];
+        boolean[] used = new boolean[m + 1];
+        for (int i = 1; i <= n; i++) {
+            rowOfColumn[0] = i;
+            int j0 = 0;
+            Arrays.fill(minv, Double.POSITIVE_INFINITY);
+            Arrays.fill(used, false);
+            do {
+                used[j0] = true;
+                int i0 = rowOfColumn[j0];
+                double delta = Double.POSITIVE_INFINITY;
+                int j1 = 0;
+                for (int j = 1; j <= m; j++) {
+                    if (used[j]) {
+                        continue;
+                    }
+                    double weight = transposed ? weights[j - 1][i0 - 1] : weights[i0 - 1][j - 1];
+                    double current = -weight - u[i0] - v[j];
+                    if (current < minv[j]) {
+                        minv[j] = current;
+                        way[j] = j0;
+                    }
+                    if (minv[j] < delta) {
+                        delta = minv[j];
+                        j1 = j;
+                    }
+                }
+                for (int j = 0; j <= m; j++) {
+                    if (used[j]) {
+                        u[rowOfColumn[j]] += delta;
+                        v[j] -= delta;
+                    } else {
+                        minv[j] -= delta;
+                    }
+                }
+                j0 = j1;
+            } while (rowOfColumn[j0] != 0);
+            do {
+                int j1 = way[j0];
+                rowOfColumn[j0] = rowOfColumn[j1];
+                j0 = j1;
+            } while (j0 != 0);
+        }
+        return rowOfColumn;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.phenotype;
+
+import java.util.List;
+
+/**
+ * A pre-processed set of phenotypes, ready to be scored by the {@link PhenotypeScorer} which created it. Profiles are
+ * immutable, so they can be computed once per patient and reused across searches.
+ *
+ * @version $Id$
+ */
+public interface PhenotypeProfile
+{
+    /**
+     * @return the ids of the terms the profile was created from
+     */
+    List<String> getTermIds();
+
+    /**
+     * @return the total information content of the terms and all their implied ancestors
+     */
+    double getInformationContent();
+}
@@ -0,0 +1,69 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.phenotype;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An inverted index from phenotype terms, including implied ancestors, to the {@link PhenotypeProfile profiles} which
+ * contain them. Only the profiles sharing at least one informative term with a query are looked at, and profiles which
+ * cannot reach a minimum score are discarded using upper bounds on their scores, without being fully scored.
+ * Implementations are thread safe.
+ *
+ * @version $Id$
+ */
+public interface PhenotypeProfileIndex
+{
+    /**
+     * Score profiles against a query, asymmetrically, like
+     * {@link PhenotypeScorer#getScoresAgainstProfiles(List, List)}. Profiles which are not indexed yet, or which
+     * replace the profile previously indexed under the same id, are indexed first.
+     *
+     * @param query the set of HPO terms to look for
+     * @param profiles the profiles to score, by id, as returned by {@link PhenotypeScorer#getProfile(List)}
+     * @param minScore the minimum score of the returned profiles; with {@code 0} or less, all the profiles are returned
+     * @return the scores of the profiles scoring at least {@code minScore}, by id
+     */
+    Map<String, Double> getScores(List<VocabularyTerm> query, Map<String, PhenotypeProfile> profiles,
+        double minScore);
+
+    /**
+     * Score profiles against a query like {@link #getScores(List, Map, double)}, splitting the scoring of large
+     * indexes into partitions run on an executor. The result is the same as on the calling thread.
+     *
+     * @param query the set of HPO terms to look for
+     * @param profiles the profiles to score, by id, as returned by {@link PhenotypeScorer#getProfile(List)}
+     * @param minScore the minimum score of the returned profiles; with {@code 0} or less, all the profiles are returned
+     * @param executor runs the scoring partitions, {@code null} to score on the calling thread
+     * @param parallelism the maximum number of partitions, usually the number of threads of the executor
+     * @return the scores of the profiles scoring at least {@code minScore}, by id
+     */
+    Map<String, Double> getScores(List<VocabularyTerm> query, Map<String, PhenotypeProfile> profiles,
+        double minScore, ExecutorService executor, int parallelism);
+
+    /**
+     * Remove a profile from the index, for instance because the phenotype it was computed from changed.
+     *
+     * @param id the id of the profile, nothing happens if it is not indexed
+     */
+    void remove(String id);
+}
@@ -33,6 +33,15 @@ import java.util.Map;
 @Role
 public interface PhenotypeScorer
 {
+    /**
+     * Check if the scorer finished loading the vocabularies. The scorer may warm up in the background, in which case
+     * scoring methods called before it is ready wait for a bounded time, and then fail with an
+     * {@link IllegalStateException}.
+     *
+     * @return {@code true} if the scorer can be used without waiting, {@code false} while it is still warming up
+     */
+    boolean isReady();
+
     /**
      * Get the phenotypic similarity score for two sets of phenotypes.
      *
@@ -51,6 +60,32 @@ public interface PhenotypeScorer
      */
     double getScoreAgainstReference(List<VocabularyTerm> query, List<VocabularyTerm> reference);
 
+    /**
+     * Pre-process a set of phenotypes so that it can be scored repeatedly, with
+     * {@link #getScoresAgainstProfiles(List, List)}, without resolving its implied ancestors every time.
+     *
+     * @param terms the set of HPO terms
+     * @return an immutable profile of the terms
+     */
+    PhenotypeProfile getProfile(List<VocabularyTerm> terms);
+
+    /**
+     * Gets the phenotypic similarity scores of a single query against many pre-processed references, asymmetrically.
+     *
+     * @param query the set of HPO terms to look for
+     * @param references the profiles to compare the query against, as returned by {@link #getProfile(List)}
+     * @return the similarity scores, between 0 (a poor match) and 1 (a good match), in the order of the references
+     */
+    double[] getScoresAgainstProfiles(List<VocabularyTerm> query, List<PhenotypeProfile> references);
+
+    /**
+     * Create a new, empty inverted index of profiles, which scores a query only against the profiles sharing terms
+     * with it.
+     *
+     * @return a new profile index, using the same similarity as {@link #getScoresAgainstProfiles(List, List)}
+     */
+    PhenotypeProfileIndex createProfileIndex();
+
     /** Returns a map of detailed matches between the terms in q and m.
      *  Matches are stored in Maps with the following structure:
      *  {
@@ -70,10 +105,12 @@ public interface PhenotypeScorer
      *          label:,
      *      }
      *  }
+     * Each term of q and m appears in at most one match, and the matches are chosen so that the total IC of their
+     * common ancestors is as high as possible. Neither list is modified.
      *
      * @param q the first set of HPO terms
      * @param m the second set of HPO terms
-     * @return A detailed view of matches.
+     * @return A detailed view of matches, in the order of the terms in q.
      */
     List<Map<String, Object>> getDetailedMatches(List<VocabularyTerm> q, List<VocabularyTerm> m);
 }
@@ -0,0 +1,59 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.phenotype;
+
+import org.xwiki.bridge.event.ApplicationReadyEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+/**
+ * Looks up the {@link PhenotypeScorer} as soon as the wiki is started, so that it starts warming up in the background
+ * before the first search instead of during it.
+ *
+ * @version $Id$
+ */
+@Component
+@Named(PhenotypeScorerWarmUpListener.NAME)
+@Singleton
+public class PhenotypeScorerWarmUpListener extends AbstractEventListener
+{
+    /** The name of this listener. */
+    public static final String NAME = "mendelian-search-phenotype-scorer-warmup";
+
+    /** Lazily provides the scorer, so that it is not initialized when this listener is registered. */
+    @Inject
+    private Provider<PhenotypeScorer> scorer;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public PhenotypeScorerWarmUpListener()
+    {
+        super(NAME, new ApplicationReadyEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        this.scorer.get();
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.phenotype;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable, densely indexed view of the phenotypic abnormality part of HPO. Every indexed term is assigned an
+ * integer in {@code [0, size())}, its ancestor closure (including itself) is stored as a sorted index array, and its
+ * information content is stored in a {@code double[]} table. Sets of terms are represented as {@code long[]} bitsets
+ * over the term indices, so that the IC of an intersection or union is computed with word-level AND/OR.
+ * <p>
+ * Terms are numbered by decreasing information content. The first index shared by two sorted ancestor arrays is thus
+ * the most informative common ancestor (MICA) of the two terms, and is found without looking at the rest of the
+ * arrays. This is cheaper than looking the pair up in a shared cache, so the MICA of pairs of terms is not cached.
+ * </p>
+ *
+ * @version $Id$
+ */
+final class PhenotypeTermIndex
+{
+    /** Number of bits in a bitset word. */
+    private static final int WORD_SIZE = 64;
+
+    /** Shift converting a term index into a word index. */
+    private static final int WORD_SHIFT = 6;
+
+    /** Maps a term id to its dense index. */
+    private final TermIdInterner termIndices;
+
+    /** The id of each indexed term. */
+    private final String[] termIds;
+
+    /** The sorted ancestor closure, including self, of each indexed term. */
+    private final int[][] termAncestors;
+
+    /** The information content of each indexed term, {@code 0} for terms with no known IC. */
+    private final double[] termICs;
+
+    /** Number of words needed to hold a bitset over all indexed terms. */
+    private final int words;
+
+    /** Per-thread scratch bitsets, so that scoring does not allocate on every call. */
+    private final ThreadLocal<long[][]> scratch = new ThreadLocal<long[][]>()
+    {
+        @Override
+        protected long[][] initialValue()
+        {
+            return new long[2][PhenotypeTermIndex.this.words];
+        }
+    };
+
+    /**
+     * Create a new index. The terms are renumbered by decreasing information content, so the index of a term is not
+     * necessarily its position in {@code ids}; use {@link #indexOf(String)} to find it.
+     *
+     * @param ids the ids of the terms to index
+     * @param ancestors the ancestor closure, including self, of each term, as positions in {@code ids}
+     * @param ics the information content of each term
+     */
+    PhenotypeTermIndex(List<String> ids, int[][] ancestors, double[] ics)
+    {
+        int size = ids.size();
+        int[] order = getOrderByDecreasingIC(ics);
+        int[] renumbered = new int[size];
+        for (int i = 0; i < size; i++) {
+            renumbered[order[i]] = i;
+        }
+
+        this.termIds = new String[size];
+        this.termICs = new double[size];
+        this.termAncestors = new int[size][];
+        for (int i = 0; i < size; i++) {
+            this.termIds[i] = ids.get(order[i]);
+            this.termICs[i] = ics[order[i]];
+            int[] closure = ancestors[order[i]];
+            this.termAncestors[i] = new int[closure.length];
+            for (int j = 0; j < closure.length; j++) {
+                this.termAncestors[i][j] = renumbered[closure[j]];
+            }
+            Arrays.sort(this.termAncestors[i]);
+        }
+        this.termIndices = new TermIdInterner(this.termIds);
+        this.words = (size + WORD_SIZE - 1) / WORD_SIZE;
+    }
+
+    /**
+     * @param ics the information content of each term
+     * @return the positions of the terms, sorted by decreasing IC; terms with the same IC keep their relative order
+     */
+    private static int[] getOrderByDecreasingIC(final double[] ics)
+    {
+        Integer[] order = new Integer[ics.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                int result = Double.compare(ics[b], ics[a]);
+                return (result != 0) ? result : Integer.compare(a, b);
+            }
+        });
+        int[] result = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of indexed terms
+     */
+    int size()
+    {
+        return this.termIds.length;
+    }
+
+    /**
+     * @param id a term id, e.g. {@code HP:0000118}
+     * @return the dense index of the term, or {@code -1} if the term is not indexed
+     */
+    int indexOf(String id)
+    {
+        return this.termIndices.indexOf(id);
+    }
+
+    /**
+     * @param index a dense term index
+     * @return the id of the term
+     */
+    String getTermId(int index)
+    {
+        return this.termIds[index];
+    }
+
+    /**
+     * @param index a dense term index
+     * @return the information content of the term
+     */
+    double getTermIC(int index)
+    {
+        return this.termICs[index];
+    }
+
+    /**
+     * @param index a dense term index
+     * @return the sorted ancestor closure of the term, including itself; must not be modified
+     */
+    int[] getAncestors(int index)
+    {
+        return this.termAncestors[index];
+    }
+
+    /**
+     * Find the most informative common ancestor of two indexed terms.
+     *
+     * @param a a dense term index
+     * @param b another dense term index
+     * @return the index of the common ancestor (possibly one of the terms themselves) with the highest positive IC, or
+     *         {@code -1} if the terms have no informative common ancestor
+     */
+    int getBestCommonAncestor(int a, int b)
+    {
+        return this.getBestCommonAncestor(this.termAncestors[a], this.termAncestors[b]);
+    }
+
+    /**
+     * Find the most informative common ancestor of two sets of terms. Since terms are numbered by decreasing IC, this
+     * is the first index present in both arrays.
+     *
+     * @param first a sorted ancestor closure, as term indices
+     * @param second another sorted ancestor closure, as term indices
+     * @return the index of the common term with the highest positive IC, or {@code -1} if the closures have no
+     *         informative term in common
+     */
+    int getBestCommonAncestor(int[] first, int[] second)
+    {
+        int i = 0;
+        int j = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                return (this.termICs[first[i]] > 0) ? first[i] : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compute the symmetric or asymmetric similarity between two sets of terms.
+     *
+     * @param match the match list of terms
+     * @param ref the reference list of terms
+     * @param symmetric if {@code true} the common IC is divided by the union IC, otherwise by the reference IC
+     * @return the similarity score, between 0 and 1
+     */
+    double getScore(Collection<VocabularyTerm> match, Collection<VocabularyTerm> ref, boolean symmetric)
+    {
+        long[][] bitsets = this.scratch.get();
+        long[] matchBits = bitsets[0];
+        long[] refBits = bitsets[1];
+        try {
+            if (!this.setAncestors(match, matchBits) || !this.setAncestors(ref, refBits)) {
+                return 0.0;
+            }
+            double denominator = symmetric ? this.getUnionIC(matchBits, refBits) : this.getTotalIC(refBits);
+            if (denominator <= 0) {
+                return 0.0;
+            }
+            return this.getCommonIC(matchBits, refBits) / denominator;
+        } finally {
+            Arrays.fill(matchBits, 0L);
+            Arrays.fill(refBits, 0L);
+        }
+    }
+
+    /**
+     * Compute the asymmetric similarity between one query and many pre-computed reference closures.
+     *
+     * @param query the query list of terms
+     * @param closures the sorted ancestor closure of each reference, as returned by {@link #getAncestorIndices}
+     * @param totals the total IC of each reference closure
+     * @return the similarity scores, between 0 and 1, in the same order as the references
+     */
+    double[] getScores(Collection<VocabularyTerm> query, int[][] closures, double[] totals)
+    {
+        double[] scores = new double[closures.length];
+        long[] queryBits = this.scratch.get()[0];
+        try {
+            if (query.isEmpty() || !this.setAncestors(query, queryBits)) {
+                return scores;
+            }
+            for (int i = 0; i < closures.length; i++) {
+                if (totals[i] > 0) {
+                    scores[i] = this.getCommonIC(queryBits, closures[i]) / totals[i];
+                }
+            }
+            return scores;
+        } finally {
+            Arrays.fill(queryBits, 0L);
+        }
+    }
+
+    /**
+     * @param terms a list of terms
+     * @return the sorted indexed ancestor closure of the terms, possibly empty
+     */
+    int[] getAncestorIndices(Collection<VocabularyTerm> terms)
+    {
+        long[] bits = this.scratch.get()[0];
+        try {
+            if (!this.setAncestors(terms, bits)) {
+                return new int[0];
+            }
+            int count = 0;
+            for (long word : bits) {
+                count += Long.bitCount(word);
+            }
+            int[] result = new int[count];
+            int j = 0;
+            for (int i = 0; i < this.words; i++) {
+                long word = bits[i];
+                while (word != 0) {
+                    result[j++] = (i << WORD_SHIFT) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return result;
+        } finally {
+            Arrays.fill(bits, 0L);
+        }
+    }
+
+    /**
+     * @param closure a set of terms, as term indices
+     * @return the total IC of the terms
+     */
+    double getTotalIC(int[] closure)
+    {
+        double ic = 0;
+        for (int term : closure) {
+            ic += this.termICs[term];
+        }
+        return ic;
+    }
+
+    /**
+     * @param bits a set of terms
+     * @param closure another set of terms, as term indices
+     * @return the total IC of the terms present in both sets
+     */
+    double getCommonIC(long[] bits, int[] closure)
+    {
+        double ic = 0;
+        for (int term : closure) {
+            if ((bits[term >>> WORD_SHIFT] & (1L << term)) != 0) {
+                ic += this.termICs[term];
+            }
+        }
+        return ic;
+    }
+
+    /**
+     * Set the bits of all the indexed ancestors (including self) of the given terms. Terms which are not indexed
+     * themselves contribute their indexed ancestors, if any.
+     *
+     * @param terms the terms to add, {@code null} entries are ignored
+     * @param bits the bitset to fill in
+     * @return {@code true} if at least one bit was set
+     */
+    boolean setAncestors(Collection<VocabularyTerm> terms, long[] bits)
+    {
+        boolean found = false;
+        for (VocabularyTerm term : terms) {
+            if (term == null) {
+                continue;
+            }
+            int index = this.indexOf(term.getId());
+            if (index >= 0) {
+                for (int ancestor : this.termAncestors[index]) {
+                    bits[ancestor >>> WORD_SHIFT] |= 1L << ancestor;
+                }
+                found = true;
+            } else {
+                for (VocabularyTerm ancestor : term.getAncestorsAndSelf()) {
+                    int ancestorIndex = this.indexOf(ancestor.getId());
+                    if (ancestorIndex >= 0) {
+                        bits[ancestorIndex >>> WORD_SHIFT] |= 1L << ancestorIndex;
+                        found = true;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param bits a set of terms
+     * @return the total IC of the terms in the set
+     */
+    double getTotalIC(long[] bits)
+    {
+        double ic = 0;
+        for (int i = 0; i < this.words; i++) {
+            ic += this.getWordIC(bits[i], i);
+        }
+        return ic;
+    }
+
+    /**
+     * @param a a set of terms
+     * @param b another set of terms
+     * @return the total IC of the terms present in both sets
+     */
+    double getCommonIC(long[] a, long[] b)
+    {
+        double ic = 0;
+        for (int i = 0; i < this.words; i++) {
+            ic += this.getWordIC(a[i] & b[i], i);
+        }
+        return ic;
+    }
+
+    /**
+     * @param a a set of terms
+     * @param b another set of terms
+     * @return the total IC of the terms present in either set
+     */
+    double getUnionIC(long[] a, long[] b)
+    {
+        double ic = 0;
+        for (int i = 0; i < this.words; i++) {
+            ic += this.getWordIC(a[i] | b[i], i);
+        }
+        return ic;
+    }
+
+    private double getWordIC(long word, int wordIndex)
+    {
+        double ic = 0;
+        long remaining = word;
+        int base = wordIndex << WORD_SHIFT;
+        while (remaining != 0) {
+            ic += this.termICs[base + Long.numberOfTrailingZeros(remaining)];
+            remaining &= remaining - 1;
+        }
+        return ic;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.phenotype;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes a {@link PhenotypeTermIndex} as a compact binary file, so that the index does not have to be
+ * recomputed from the vocabularies on every start. The file holds, in order: a magic number, the format version, the
+ * version of the vocabularies the index was computed from, the number of terms, the id and IC of each term, and the
+ * ancestor closure of each term.
+ *
+ * @version $Id$
+ */
+final class PhenotypeTermIndexSnapshot
+{
+    /** Marks a file as a term index snapshot. */
+    private static final int MAGIC = 0x4D535049;
+
+    /** Incremented whenever the layout of the file changes. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** The charset used for term ids and the vocabulary version. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private PhenotypeTermIndexSnapshot()
+    {
+        // Utility class
+    }
+
+    /**
+     * Load a term index from a snapshot file, if it was computed from the given vocabulary version.
+     *
+     * @param file the snapshot file
+     * @param version the current version of the vocabularies
+     * @return the stored index, or {@code null} if the file does not exist or was computed from other vocabularies
+     * @throws IOException if the file cannot be read or is corrupted
+     */
+    static PhenotypeTermIndex read(File file, String version) throws IOException
+    {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION || !version.equals(readString(buffer))) {
+                return null;
+            }
+            int size = buffer.getInt();
+            List<String> ids = new ArrayList<String>(size);
+            for (int i = 0; i < size; i++) {
+                ids.add(readString(buffer));
+            }
+            double[] ics = new double[size];
+            buffer.asDoubleBuffer().get(ics);
+            buffer.position(buffer.position() + size * 8);
+            int[][] ancestors = new int[size][];
+            for (int i = 0; i < size; i++) {
+                ancestors[i] = new int[buffer.getInt()];
+                buffer.asIntBuffer().get(ancestors[i]);
+                buffer.position(buffer.position() + ancestors[i].length * 4);
+                for (int ancestor : ancestors[i]) {
+                    if (ancestor < 0 || ancestor >= size) {
+                        throw new IOException("Corrupted term index snapshot: " + file);
+                    }
+                }
+            }
+            return new PhenotypeTermIndex(ids, ancestors, ics);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+            | NegativeArraySizeException ex) {
+            throw new IOException("Corrupted term index snapshot: " + file, ex);
+        }
+    }
+
+    /**
+     * Store a term index in a snapshot file. The file is written next to its final location and then moved in place,
+     * so that a concurrent or interrupted write never leaves a partial snapshot behind.
+     *
+     * @param file the snapshot file
+     * @param version the version of the vocabularies the index was computed from
+     * @param index the index to store
+     * @throws IOException if the file cannot be written
+     */
+    static void write(File file, String version, PhenotypeTermIndex index) throws IOException
+    {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                writeString(out, version);
+                int size = index.size();
+                out.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    writeString(out, index.getTermId(i));
+                }
+                for (int i = 0; i < size; i++) {
+                    out.writeDouble(index.getTermIC(i));
+                }
+                for (int i = 0; i < size; i++) {
+                    int[] ancestors = index.getAncestors(i);
+                    out.writeInt(ancestors.length);
+                    for (int ancestor : ancestors) {
+                        out.writeInt(ancestor);
+                    }
+                }
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    private static String readString(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
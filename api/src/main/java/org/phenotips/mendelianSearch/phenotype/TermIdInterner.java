@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.phenotype;
+
+/**
+ * An immutable map from term ids to their position in a fixed array of ids. Entries are stored in an open-addressed
+ * table with linear probing, so that lookups neither allocate nor box.
+ *
+ * @version $Id$
+ */
+final class TermIdInterner
+{
+    /** The table has at least twice as many slots as ids, to keep probe sequences short. */
+    private static final int LOAD_FACTOR_INVERSE = 2;
+
+    /** The id stored in each slot, {@code null} for empty slots. */
+    private final String[] keys;
+
+    /** The position of the id stored in each slot. */
+    private final int[] values;
+
+    /** The table size minus one; the table size is a power of two. */
+    private final int mask;
+
+    /**
+     * Create an interner for the given ids.
+     *
+     * @param ids the ids to intern, without duplicates or {@code null} values; the position of an id in this array is
+     *            the value it is mapped to
+     */
+    TermIdInterner(String[] ids)
+    {
+        int capacity = Integer.highestOneBit(Math.max(1, ids.length * LOAD_FACTOR_INVERSE - 1)) << 1;
+        this.keys = new String[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < ids.length; i++) {
+            int slot = this.getSlot(ids[i]);
+            this.keys[slot] = ids[i];
+            this.values[slot] = i;
+        }
+    }
+
+    /**
+     * @param id a term id, may be {@code null}
+     * @return the position of the id, or {@code -1} if the id is not interned
+     */
+    int indexOf(String id)
+    {
+        if (id == null) {
+            return -1;
+        }
+        int slot = this.getSlot(id);
+        return (this.keys[slot] == null) ? -1 : this.values[slot];
+    }
+
+    /**
+     * @param id a term id
+     * @return the slot holding the id, or the empty slot where it would be inserted
+     */
+    private int getSlot(String id)
+    {
+        int hash = id.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & this.mask;
+        while (this.keys[slot] != null && !this.keys[slot].equals(id)) {
+            slot = (slot + 1) & this.mask;
+        }
+        return slot;
+    }
+}
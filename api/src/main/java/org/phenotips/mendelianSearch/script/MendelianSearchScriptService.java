@@ -18,16 +18,22 @@
 package org.phenotips.mendelianSearch.script;
 
 import org.phenotips.mendelianSearch.MendelianSearch;
+import org.phenotips.mendelianSearch.MendelianSearchMetrics;
 import org.phenotips.mendelianSearch.MendelianSearchRequestFactory;
 import org.phenotips.mendelianSearch.PatientView;
+import org.phenotips.mendelianSearch.PatientViewFactory;
 import org.phenotips.mendelianSearch.internal.MendelianSearchRequest;
+import org.phenotips.mendelianSearch.internal.MendelianSearchResult;
 import org.phenotips.mendelianSearch.internal.MendelianVariantCategory;
 import org.phenotips.mendelianSearch.internal.PatientViewUtils;
+import org.phenotips.mendelianSearch.phenotype.PhenotypeScorer;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.script.service.ScriptService;
 import org.xwiki.stability.Unstable;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -35,10 +41,14 @@ import java.util.Map;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import javax.servlet.http.HttpServletResponse;
 
 import org.json.JSONObject;
+import org.json.JSONWriter;
+import org.slf4j.Logger;
 
 import com.xpn.xwiki.web.XWikiRequest;
+import com.xpn.xwiki.web.XWikiResponse;
 
 /**
  * API that provides methods for using the mendelian search application.
@@ -52,18 +62,47 @@ import com.xpn.xwiki.web.XWikiRequest;
 @Singleton
 public class MendelianSearchScriptService implements ScriptService
 {
+    private static final String META = "meta";
+
+    private static final String PATIENTS = "patients";
+
+    private static final String NUMBER_OF_RESULTS = "numberOfResults";
+
+    private static final String TOTAL_RESULTS = "totalResults";
+
+    private static final String REQUEST_ID = "requestId";
+
+    private static final String JSON_STAGE = "json";
+
+    private static final String REQUEST_STAGE = "request";
+
+    @Inject
+    private Logger logger;
+
     @Inject
     private MendelianSearch ms;
 
     @Inject
     private MendelianSearchRequestFactory requestFactory;
 
+    @Inject
+    private PatientViewFactory viewFactory;
+
+    @Inject
+    private PhenotypeScorer phenotypeScorer;
+
+    @Inject
+    private MendelianSearchMetrics metrics;
 
     /**
      * Get a list of patients matching the specified input parameters.
      *
      * @param rawRequest the request from the UI
-     * @return A JSONArray of patients.
+     * @return A JSONObject with the patients on the requested page under "patients", and under "meta" the number of
+     *         returned results, "numberOfResults", the number of patients matching the search before applying the
+     *         optional "max-results" limit, "totalResults", and the "requestId" to look up the search metrics with.
+     *         Only the patients the current user can open are returned and counted in "numberOfResults", while
+     *         "totalResults" also counts the matching patients that are only visible to them as restricted matches
      */
     public JSONObject search(XWikiRequest rawRequest)
     {
@@ -71,28 +110,83 @@ public class MendelianSearchScriptService implements ScriptService
         JSONObject metaData = new JSONObject();
 
         MendelianSearchRequest request = this.requestFactory.makeRequest(rawRequest);
+        long start = System.nanoTime();
+        this.metrics.startRequest(request.getId());
+        try {
+            MendelianSearchResult result = this.ms.getResult(request);
+            List<PatientView> views = this.getOpenViews(result.getViews());
+            metaData.put(REQUEST_ID, request.getId());
+            metaData.put(NUMBER_OF_RESULTS, views.size());
+            metaData.put(TOTAL_RESULTS, result.getTotal());
 
-        List<PatientView> views = this.ms.search(request);
-        List<JSONObject> patientJSONs = this.convertViewsToArrayOfJSON(views);
-        metaData.put("numberOfResults", patientJSONs.size());
+            List<PatientView> pageViews =
+                this.viewFactory.completePatientViews(this.selectPage(views, request), request);
+            long jsonStart = System.nanoTime();
+            List<JSONObject> patientJSONs = this.convertViewsToArrayOfJSON(pageViews);
+            this.metrics.recordTime(JSON_STAGE, System.nanoTime() - jsonStart);
 
-        //Sort data
-        String sortString = "sort";
-        String ascendingString = "asc";
-        String sortKey = (request.get(sortString) != null) ? (String) request.get(sortString) : "patientId";
-        boolean ascending = (request.get(ascendingString) != null) ? (boolean) request.get(ascendingString) : true;
-        PatientViewUtils.sortPatientViewJSONs(patientJSONs, sortKey, ascending);
+            response.put(META, metaData);
+            response.put(PATIENTS, patientJSONs);
+            return response;
+        } finally {
+            this.metrics.recordTime(REQUEST_STAGE, System.nanoTime() - start);
+            this.metrics.endRequest();
+        }
+    }
 
-        //Paginate data
-        String pageString = "page";
-        int page = (request.get(pageString) != null) ? (int) request.get(pageString) : 1;
-        String resultsPerPageString = "resultsPerPage";
-        int resultsPerPage = (request.get(resultsPerPageString) != null) ? (int) request.get(resultsPerPageString) : 20;
-        patientJSONs = PatientViewUtils.paginatePatientViewJSON(patientJSONs, page, resultsPerPage);
+    /**
+     * Search like {@link #search(XWikiRequest)}, but write the result directly to the response, wrapped in a
+     * {@code {"results": ...}} object, instead of returning it. Patients are converted to JSON and written one at a
+     * time, so only one of them is held in memory as JSON. The patients on the page are completed before anything is
+     * written, so that a failed search is answered with an error status instead of a truncated result; a failure
+     * while writing is also answered with an error status, unless part of the result was already sent. The caller
+     * should mark the request as finished afterwards, so that nothing else is written to the response.
+     *
+     * @param rawRequest the request from the UI
+     * @param rawResponse the response to write to; its content type is set to {@code application/json}
+     * @return {@code true} if the result or an error status was written, {@code false} if writing to the response
+     *         failed
+     */
+    public boolean search(XWikiRequest rawRequest, XWikiResponse rawResponse)
+    {
+        MendelianSearchRequest request = this.requestFactory.makeRequest(rawRequest);
+        long start = System.nanoTime();
+        this.metrics.startRequest(request.getId());
+        try {
+            MendelianSearchResult result = this.ms.getResult(request);
+            List<PatientView> views = this.getOpenViews(result.getViews());
+            List<PatientView> pageViews =
+                this.viewFactory.completePatientViews(this.selectPage(views, request), request);
+            Integer ids = this.ms.findValidIds().size();
 
-        response.put("meta", metaData);
-        response.put("patients", patientJSONs);
-        return response;
+            long jsonStart = System.nanoTime();
+            rawResponse.setContentType("application/json");
+            Writer out = rawResponse.getWriter();
+            JSONWriter json = new JSONWriter(out);
+            json.object().key("results").object();
+            json.key(META).object()
+                .key(REQUEST_ID).value(request.getId())
+                .key(NUMBER_OF_RESULTS).value(views.size())
+                .key(TOTAL_RESULTS).value(result.getTotal())
+                .endObject();
+            json.key(PATIENTS).array();
+            for (PatientView view : pageViews) {
+                json.value(view.toJSON(ids));
+            }
+            json.endArray().endObject().endObject();
+            out.flush();
+            this.metrics.recordTime(JSON_STAGE, System.nanoTime() - jsonStart);
+            return true;
+        } catch (IOException ex) {
+            this.logger.warn("Failed to write the search results: {}", ex.getMessage());
+            return false;
+        } catch (RuntimeException ex) {
+            this.logger.error("Failed to search: {}", ex.getMessage(), ex);
+            return this.sendError(rawResponse);
+        } finally {
+            this.metrics.recordTime(REQUEST_STAGE, System.nanoTime() - start);
+            this.metrics.endRequest();
+        }
     }
 
     /**
@@ -103,7 +197,9 @@ public class MendelianSearchScriptService implements ScriptService
      *         'strict' or 'fuzzy'. A value of 'strict' will result in a JSONObject with four keys: "withBoth",
      *         "withGeneOnly", "withPhenotypeOnly" and "withNeither". Each key will map to an integer value. A value of
      *         'fuzzy' will result in an JSONObject with two keys: "withGene" and "withoutGene". Each key will contain
-     *         an array of doubles representing the phenotype scores for patients in each category.
+     *         an array of doubles representing the phenotype scores for patients in each category, unless the
+     *         optional {@code overview-mode} parameter is {@code summary}, see
+     *         {@link #getOverviewSummary(XWikiRequest)}
      */
     public JSONObject getOverview(XWikiRequest rawRequest)
     {
@@ -116,6 +212,59 @@ public class MendelianSearchScriptService implements ScriptService
         return result;
     }
 
+    /**
+     * Summarize the phenotype scores of the patients with and without variants in the requested gene, in a response
+     * which doesn't grow with the number of patients.
+     *
+     * @param rawRequest the request from the UI, with 'fuzzy' phenotypeMatching
+     * @return a JSONObject with two keys, "withGene" and "withoutGene", each mapping to the {@code count} of patients
+     *         in the category and, if there are any, the {@code mean}, {@code min}, {@code max},
+     *         {@code lowerQuartile}, {@code median} and {@code upperQuartile} of their scores, and a {@code histogram}
+     *         of their scores in 20 equal bins between 0 and 1
+     * @see MendelianSearch#getOverview(MendelianSearchRequest)
+     */
+    public JSONObject getOverviewSummary(XWikiRequest rawRequest)
+    {
+        MendelianSearchRequest request = this.requestFactory.makeRequest(rawRequest);
+        request.set("overviewMode", "summary");
+
+        return new JSONObject(this.ms.getOverview(request));
+    }
+
+    /**
+     * Check if the phenotype scorer finished warming up. Searches started before it is ready wait for it, and fail if
+     * it takes too long.
+     *
+     * @return {@code true} if searches can be run without waiting, {@code false} while the scorer is still warming up
+     */
+    public boolean isReady()
+    {
+        return this.phenotypeScorer.isReady();
+    }
+
+    /**
+     * Get the time spent in each stage of the searches run so far, the sizes of their intermediate result sets, and
+     * the hit ratios of the caches they use.
+     *
+     * @return the aggregated metrics, as described in {@link MendelianSearchMetrics#getMetrics()}
+     */
+    public JSONObject getMetrics()
+    {
+        return new JSONObject(this.metrics.getMetrics());
+    }
+
+    /**
+     * Get the time spent in each stage of a recent search, and the sizes of its intermediate result sets.
+     *
+     * @param requestId the request id, as returned under "meta" by {@link #search(XWikiRequest)}
+     * @return the metrics of the search, by name, or {@code null} if the search is unknown or not recent enough
+     */
+    public JSONObject getMetrics(String requestId)
+    {
+        Map<String, Number> requestMetrics = this.metrics.getRequestMetrics(requestId);
+        return (requestMetrics == null) ? null : new JSONObject(requestMetrics);
+    }
+
     /**
      * Get a map of all searchable variant effects, grouped into broader variant categories.
      *
@@ -127,16 +276,70 @@ public class MendelianSearchScriptService implements ScriptService
     }
 
 
+    /**
+     * Sort and paginate the views, only the ones on the requested page are displayed.
+     *
+     * @param views the views to page through
+     * @param request the request, with optional sorting and paging parameters
+     * @return the views on the requested page
+     */
+    private List<PatientView> selectPage(List<PatientView> views, MendelianSearchRequest request)
+    {
+        long start = System.nanoTime();
+        String sortString = "sort";
+        String ascendingString = "asc";
+        String sortKey = (request.get(sortString) != null) ? (String) request.get(sortString) : "patientId";
+        boolean ascending = (request.get(ascendingString) != null) ? (boolean) request.get(ascendingString) : true;
+
+        String pageString = "page";
+        int page = (request.get(pageString) != null) ? (int) request.get(pageString) : 1;
+        String resultsPerPageString = "resultsPerPage";
+        int resultsPerPage = (request.get(resultsPerPageString) != null) ? (int) request.get(resultsPerPageString) : 20;
+        List<PatientView> result = PatientViewUtils.selectPatientViewPage(views,
+            PatientViewUtils.getPatientViewComparator(sortKey, ascending), page, resultsPerPage);
+        this.metrics.recordTime("sortAndPage", System.nanoTime() - start);
+        return result;
+    }
+
+    private List<PatientView> getOpenViews(List<PatientView> views)
+    {
+        List<PatientView> result = new ArrayList<PatientView>();
+        for (PatientView view : views) {
+            if ("open".equals(view.getType())) {
+                result.add(view);
+            }
+        }
+        return result;
+    }
+
     private List<JSONObject> convertViewsToArrayOfJSON(List<PatientView> views)
     {
         List<JSONObject> result = new ArrayList<JSONObject>();
         Integer ids = this.ms.findValidIds().size();
         for (PatientView view : views) {
-            if ("open".equals(view.getType())) {
-                result.add(view.toJSON(ids));
-            }
+            result.add(view.toJSON(ids));
         }
         return result;
     }
 
+    /**
+     * Replace the content of a response with an error status, if none of it was sent yet.
+     *
+     * @param response the response
+     * @return {@code true} if the error status was set, {@code false} if it was too late or writing it failed
+     */
+    private boolean sendError(XWikiResponse response)
+    {
+        if (response.isCommitted()) {
+            return false;
+        }
+        try {
+            response.reset();
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return true;
+        } catch (IOException ex) {
+            this.logger.warn("Failed to write the search error: {}", ex.getMessage());
+            return false;
+        }
+    }
 }
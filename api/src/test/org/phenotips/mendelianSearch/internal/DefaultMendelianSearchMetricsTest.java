@@ -0,0 +1,73 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.internal;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link DefaultMendelianSearchMetrics}.
+ *
+ * @version $Id$
+ */
+public class DefaultMendelianSearchMetricsTest
+{
+    private static final double EPS = 1e-9;
+
+    @Test
+    public void testStagesAreAggregatedAndTaggedWithTheRequest()
+    {
+        DefaultMendelianSearchMetrics metrics = new DefaultMendelianSearchMetrics();
+        metrics.startRequest("r1");
+        metrics.recordTime("scoring", 2000000);
+        metrics.recordTime("scoring", 4000000);
+        metrics.recordSize("matches", 12);
+        metrics.endRequest();
+        metrics.recordTime("scoring", 6000000);
+        metrics.recordTime("r2", "variantStore", 1000000);
+
+        assertEquals(Long.valueOf(3), metrics.getStageCounts().get("scoring"));
+        assertEquals(4.0, metrics.getStageMeanMillis().get("scoring"), EPS);
+        assertEquals(6.0, metrics.getStageMaxMillis().get("scoring"), EPS);
+        assertEquals(12.0, metrics.getMeanSizes().get("matches"), EPS);
+
+        Map<String, Number> request = metrics.getRequestMetrics("r1");
+        assertEquals(6.0, request.get("scoring").doubleValue(), EPS);
+        assertEquals(12, request.get("matches").longValue());
+        assertEquals(1.0, metrics.getRequestMetrics("r2").get("variantStore").doubleValue(), EPS);
+        assertNull(metrics.getRequestMetrics("r3"));
+    }
+
+    @Test
+    public void testCacheHitRatios()
+    {
+        DefaultMendelianSearchMetrics metrics = new DefaultMendelianSearchMetrics();
+        metrics.recordCacheAccess("results", true);
+        metrics.recordCacheAccess("results", true);
+        metrics.recordCacheAccess("results", true);
+        metrics.recordCacheAccess("results", false);
+        assertEquals(0.75, metrics.getCacheHitRatios().get("results"), EPS);
+
+        metrics.reset();
+        assertNull(metrics.getCacheHitRatios().get("results"));
+    }
+}
@@ -0,0 +1,784 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.mendelianSearch.MendelianSearchMetrics;
+import org.phenotips.mendelianSearch.PatientViewFactory;
+import org.phenotips.mendelianSearch.mocks.MockCache;
+import org.phenotips.mendelianSearch.phenotype.PatientPhenotypeScorer;
+import org.phenotips.variantStoreIntegration.VariantStoreService;
+
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Provider;
+
+import org.ga4gh.GAVariant;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DefaultMendelianSearchTest
+{
+    private static final String PIPELINED = "mendelianSearch.search.pipelined";
+
+    private static final String VALID_IDS_TTL = "mendelianSearch.validIds.ttl";
+
+    private static final DocumentReference ALICE = new DocumentReference("xwiki", "XWiki", "Alice");
+
+    private static final DocumentReference BOB = new DocumentReference("xwiki", "XWiki", "Bob");
+
+    @Rule
+    public final MockitoComponentMockingRule<DefaultMendelianSearch> mocker =
+        new MockitoComponentMockingRule<DefaultMendelianSearch>(DefaultMendelianSearch.class);
+
+    private VariantStoreService variantStore;
+
+    private PatientPhenotypeScorer scorer;
+
+    private PatientViewFactory pvf;
+
+    private ConfigurationSource configuration;
+
+    private Provider<XWikiContext> contextProvider;
+
+    private XWikiContext context;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setup() throws ComponentLookupException, CacheException
+    {
+        MockitoAnnotations.initMocks(this);
+
+        this.configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(this.configuration.getProperty(Matchers.anyString(), Matchers.any(Object.class)))
+            .then(AdditionalAnswers.returnsSecondArg());
+        configure("mendelianSearch.variantStore.threads", 2);
+
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        when(cacheManager.createNewLocalCache(Matchers.any(CacheConfiguration.class)))
+            .thenReturn(new MockCache<Object>());
+
+        // Like the XWiki context, the context of the request is only available on the thread of the request
+        this.contextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        this.context = mock(XWikiContext.class);
+        final Thread requestThread = Thread.currentThread();
+        when(this.contextProvider.get()).thenAnswer(new Answer<XWikiContext>()
+        {
+            @Override
+            public XWikiContext answer(InvocationOnMock invocation)
+            {
+                return Thread.currentThread() == requestThread ? DefaultMendelianSearchTest.this.context : null;
+            }
+        });
+        Mockito.doReturn(ALICE).when(this.context).getUserReference();
+
+        // P1 and P2 carry a matching variant, P3 and P4 don't
+        this.variantStore = this.mocker.getInstance(VariantStoreService.class);
+        Mockito.doReturn(Arrays.asList("P1", "P2", "P3", "P4")).when(this.variantStore).getAllIndividuals();
+        Map<String, List<GAVariant>> carriers = new HashMap<String, List<GAVariant>>();
+        carriers.put("P1", Collections.singletonList(mock(GAVariant.class)));
+        carriers.put("P2", Collections.singletonList(mock(GAVariant.class)));
+        Mockito.doReturn(carriers).when(this.variantStore).getIndividualsWithGene(Matchers.anyString(),
+            Matchers.anyList(), Matchers.anyMap());
+        Mockito.doReturn(Collections.emptyList()).when(this.variantStore).getTopHarmfullVariantsForGene(
+            Matchers.anyString(), Matchers.anyString(), Matchers.anyInt());
+
+        // Every scored patient matches
+        this.scorer = this.mocker.getInstance(PatientPhenotypeScorer.class);
+        when(this.scorer.getScoresById(Matchers.anyList(), Matchers.anySet(), Matchers.anyDouble())).thenAnswer(
+            new Answer<Map<String, Double>>()
+            {
+                @Override
+                public Map<String, Double> answer(InvocationOnMock invocation)
+                {
+                    Map<String, Double> scores = new HashMap<String, Double>();
+                    for (String id : (Set<String>) invocation.getArguments()[1]) {
+                        scores.put(id, 0.5);
+                    }
+                    return scores;
+                }
+            });
+
+        this.pvf = this.mocker.getInstance(PatientViewFactory.class);
+    }
+
+    @Test
+    public void testNonCarriersAreScoredAfterTheCarrierLookup() throws ComponentLookupException
+    {
+        this.mocker.getComponentUnderTest().search(getRequest(0));
+
+        assertEquals(new HashSet<String>(Arrays.asList("P3", "P4")), getScoredIds());
+        assertEquals(new HashSet<String>(Arrays.asList("P3", "P4")), getMatchedIds());
+    }
+
+    @Test
+    public void testCarriersAreScoredAfterTheCarrierLookup() throws ComponentLookupException
+    {
+        configure(PIPELINED, true);
+
+        // Only the carriers need to be scored, so the search isn't pipelined
+        this.mocker.getComponentUnderTest().search(getRequest(1));
+
+        assertEquals(new HashSet<String>(Arrays.asList("P1", "P2")), getScoredIds());
+        assertEquals(new HashSet<String>(Arrays.asList("P1", "P2")), getMatchedIds());
+    }
+
+    @Test
+    public void testPipelinedSearchDropsTheCarriers() throws ComponentLookupException
+    {
+        configure(PIPELINED, true);
+
+        this.mocker.getComponentUnderTest().search(getRequest(0));
+
+        // All the patients are scored while the carriers are looked up
+        assertEquals(new HashSet<String>(Arrays.asList("P1", "P2", "P3", "P4")), getScoredIds());
+        assertEquals(new HashSet<String>(Arrays.asList("P3", "P4")), getMatchedIds());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testPipelinedSearchScoresWithTheUserOfTheRequest() throws ComponentLookupException
+    {
+        configure(PIPELINED, true);
+        final List<DocumentReference> scoringUsers = new ArrayList<DocumentReference>();
+        when(this.scorer.getScoresById(Matchers.anyList(), Matchers.anySet(), Matchers.anyDouble())).thenAnswer(
+            new Answer<Map<String, Double>>()
+            {
+                @Override
+                public Map<String, Double> answer(InvocationOnMock invocation)
+                {
+                    // Patients are loaded and their rights checked with the user of the current context
+                    XWikiContext current = DefaultMendelianSearchTest.this.contextProvider.get();
+                    scoringUsers.add(current == null ? null : current.getUserReference());
+                    return Collections.singletonMap("P3", 0.5);
+                }
+            });
+
+        this.mocker.getComponentUnderTest().search(getRequest(0));
+
+        assertEquals(Collections.singletonList(ALICE), scoringUsers);
+        assertEquals(Collections.singleton("P3"), getMatchedIds());
+    }
+
+    @Test
+    public void testPipelinedSearchFailsWhenTheCarrierLookupFails() throws ComponentLookupException
+    {
+        configure(PIPELINED, true);
+        Mockito.doThrow(new IllegalStateException("The variant store is down")).when(this.variantStore)
+            .getIndividualsWithGene(Matchers.anyString(), Matchers.anyList(), Matchers.anyMap());
+
+        try {
+            this.mocker.getComponentUnderTest().search(getRequest(0));
+            fail("The variant store failure should fail the search");
+        } catch (IllegalStateException ex) {
+            assertEquals("The variant store is down", ex.getCause().getMessage());
+        }
+        Mockito.verify(this.pvf, Mockito.never()).createPartialPatientViews(Matchers.anySet(), Matchers.anyMap(),
+            Matchers.anyMap(), Matchers.any(MendelianSearchRequest.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testPipelinedSearchCancelsTheCarrierLookupWhenScoringFails()
+        throws ComponentLookupException, InterruptedException
+    {
+        configure(PIPELINED, true);
+        final CountDownLatch lookupStarted = new CountDownLatch(1);
+        final CountDownLatch lookupCancelled = new CountDownLatch(1);
+        Mockito.doAnswer(new Answer<Map<String, List<GAVariant>>>()
+        {
+            @Override
+            public Map<String, List<GAVariant>> answer(InvocationOnMock invocation)
+            {
+                lookupStarted.countDown();
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException ex) {
+                    lookupCancelled.countDown();
+                }
+                return Collections.emptyMap();
+            }
+        }).when(this.variantStore).getIndividualsWithGene(Matchers.anyString(), Matchers.anyList(),
+            Matchers.anyMap());
+        when(this.scorer.getScoresById(Matchers.anyList(), Matchers.anySet(), Matchers.anyDouble())).thenAnswer(
+            new Answer<Map<String, Double>>()
+            {
+                @Override
+                public Map<String, Double> answer(InvocationOnMock invocation) throws InterruptedException
+                {
+                    // Fail once the carrier lookup is running
+                    lookupStarted.await();
+                    throw new IllegalStateException("The vocabulary is down");
+                }
+            });
+
+        try {
+            this.mocker.getComponentUnderTest().search(getRequest(0));
+            fail("The scoring failure should fail the search");
+        } catch (IllegalStateException ex) {
+            assertEquals("The vocabulary is down", ex.getMessage());
+        }
+        assertTrue(lookupCancelled.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testResultsAreCachedPerUser() throws ComponentLookupException
+    {
+        DefaultMendelianSearch search = this.mocker.getComponentUnderTest();
+        search.search(getRequest(0));
+        search.search(getRequest(0));
+        assertScoringRuns(1);
+
+        // Another user may not see the same patients
+        Mockito.doReturn(BOB).when(this.context).getUserReference();
+        search.search(getRequest(0));
+        assertScoringRuns(2);
+    }
+
+    @Test
+    public void testDisplayParametersDoNotChangeTheCachedResult() throws ComponentLookupException
+    {
+        DefaultMendelianSearch search = this.mocker.getComponentUnderTest();
+        MendelianSearchResult result = search.getResult(getRequest(0));
+
+        MendelianSearchRequest other = getRequest(0);
+        other.set("sort", "phenotypeScore");
+        other.set("page", 3);
+        other.set("resultsPerPage", 50);
+        assertSame(result, search.getResult(other));
+        assertScoringRuns(1);
+
+        other.set("maxResults", 20);
+        search.getResult(other);
+        assertScoringRuns(2);
+    }
+
+    @Test
+    public void testPatientChangesClearTheResultCache() throws ComponentLookupException
+    {
+        DefaultMendelianSearch search = this.mocker.getComponentUnderTest();
+        search.search(getRequest(0));
+        EventListener listener = getListener();
+
+        // Other documents don't change the results
+        listener.onEvent(new DocumentUpdatedEvent(), mock(XWikiDocument.class), null);
+        search.search(getRequest(0));
+        assertScoringRuns(1);
+
+        XWikiDocument patient = mock(XWikiDocument.class);
+        when(patient.getXObject(Patient.CLASS_REFERENCE)).thenReturn(mock(BaseObject.class));
+        listener.onEvent(new DocumentUpdatedEvent(), patient, null);
+        search.search(getRequest(0));
+        assertScoringRuns(2);
+    }
+
+    @Test
+    public void testRefreshingTheValidIdsClearsTheResultCache() throws ComponentLookupException
+    {
+        // The valid ids are fetched again on every use
+        configure(VALID_IDS_TTL, 0);
+        DefaultMendelianSearch search = this.mocker.getComponentUnderTest();
+        search.search(getRequest(0));
+        search.findValidIds();
+
+        search.search(getRequest(0));
+        assertScoringRuns(2);
+    }
+
+    @Test
+    public void testResultsExpireWithTheValidIdsByDefault() throws ComponentLookupException, CacheException
+    {
+        assertEquals(300, getResultLifespan());
+    }
+
+    @Test
+    public void testResultsDoNotOutliveTheValidIds() throws ComponentLookupException, CacheException
+    {
+        configure("mendelianSearch.resultCache.ttl", 3600);
+        configure(VALID_IDS_TTL, 60);
+        assertEquals(60, getResultLifespan());
+    }
+
+    @Test
+    public void testMaxResultsKeepsTheBestScores() throws ComponentLookupException
+    {
+        Map<String, Double> fixture = new HashMap<String, Double>();
+        fixture.put("P3", 0.2);
+        fixture.put("P4", 0.7);
+        scoreAs(fixture);
+        MendelianSearchRequest request = getRequest(0);
+        request.set("maxResults", 1);
+
+        MendelianSearchResult result = this.mocker.getComponentUnderTest().getResult(request);
+
+        assertEquals(Collections.singleton("P4"), getSelectedIds());
+        // The total counts all the matches, including the ones left out
+        assertEquals(2, result.getTotal());
+    }
+
+    @Test
+    public void testTiesAreBrokenById() throws ComponentLookupException
+    {
+        Map<String, Double> fixture = new HashMap<String, Double>();
+        fixture.put("P4", 0.5);
+        fixture.put("P3", 0.5);
+        scoreAs(fixture);
+        MendelianSearchRequest request = getRequest(0);
+        request.set("maxResults", 1);
+
+        this.mocker.getComponentUnderTest().getResult(request);
+
+        assertEquals(Collections.singleton("P3"), getSelectedIds());
+    }
+
+    @Test
+    public void testSelectedScoresMatchASortedSelection() throws ComponentLookupException
+    {
+        List<String> ids = new ArrayList<String>();
+        final Map<String, Double> fixture = new HashMap<String, Double>();
+        for (int i = 0; i < 500; i++) {
+            String id = String.format("Q%03d", i);
+            ids.add(id);
+            // Few distinct scores, so that many ties cross the cut
+            fixture.put(id, ((i * 37) % 11) / 10.0);
+        }
+        Mockito.doReturn(ids).when(this.variantStore).getAllIndividuals();
+        scoreAs(fixture);
+        MendelianSearchRequest request = getRequest(0);
+        request.set("maxResults", 42);
+
+        MendelianSearchResult result = this.mocker.getComponentUnderTest().getResult(request);
+
+        Collections.sort(ids, new Comparator<String>()
+        {
+            @Override
+            public int compare(String a, String b)
+            {
+                int byScore = Double.compare(fixture.get(b), fixture.get(a));
+                return (byScore != 0) ? byScore : a.compareTo(b);
+            }
+        });
+        assertEquals(new HashSet<String>(ids.subList(0, 42)), getSelectedIds());
+        assertEquals(500, result.getTotal());
+    }
+
+    @Test
+    public void testMinPhenotypeScoreIsAppliedWhenScoring() throws ComponentLookupException
+    {
+        Map<String, Double> fixture = new HashMap<String, Double>();
+        fixture.put("P3", 0.2);
+        fixture.put("P4", 0.7);
+        scoreAs(fixture);
+        MendelianSearchRequest request = getRequest(0);
+        request.set("minPhenotypeScore", 0.5);
+
+        MendelianSearchResult result = this.mocker.getComponentUnderTest().getResult(request);
+
+        Mockito.verify(this.scorer).getScoresById(Matchers.anyList(), Matchers.anySet(), Matchers.eq(0.5));
+        assertEquals(Collections.singleton("P4"), getSelectedIds());
+        assertEquals(1, result.getTotal());
+    }
+
+    @Test
+    public void testValidIdsAreSharedBetweenSearches() throws ComponentLookupException
+    {
+        DefaultMendelianSearch search = this.mocker.getComponentUnderTest();
+        search.search(getRequest(0));
+        search.search(getRequest(1));
+
+        assertEquals(new HashSet<String>(Arrays.asList("P1", "P2", "P3", "P4")), search.findValidIds());
+        Mockito.verify(this.variantStore, Mockito.times(1)).getAllIndividuals();
+    }
+
+    @Test
+    public void testValidIdsAreFetchedAgainAfterAPatientChange() throws ComponentLookupException
+    {
+        DefaultMendelianSearch search = this.mocker.getComponentUnderTest();
+        assertEquals(4, search.findValidIds().size());
+
+        Mockito.doReturn(Arrays.asList("P1", "P2", "P3", "P4", "P5")).when(this.variantStore).getAllIndividuals();
+        XWikiDocument patient = mock(XWikiDocument.class);
+        when(patient.getXObject(Patient.CLASS_REFERENCE)).thenReturn(mock(BaseObject.class));
+        getListener().onEvent(new DocumentUpdatedEvent(), patient, null);
+
+        assertEquals(5, search.findValidIds().size());
+        assertEquals(5, search.findValidIds().size());
+        Mockito.verify(this.variantStore, Mockito.times(2)).getAllIndividuals();
+    }
+
+    @Test
+    public void testValidIdsExpire() throws ComponentLookupException, InterruptedException
+    {
+        configure(VALID_IDS_TTL, 1);
+        DefaultMendelianSearch search = this.mocker.getComponentUnderTest();
+        search.findValidIds();
+        search.findValidIds();
+        Mockito.verify(this.variantStore, Mockito.times(1)).getAllIndividuals();
+
+        Thread.sleep(1100);
+        search.findValidIds();
+        Mockito.verify(this.variantStore, Mockito.times(2)).getAllIndividuals();
+    }
+
+    @Test
+    public void testTopHarmfulVariantsAreLookedUpInParallelBatches() throws ComponentLookupException
+    {
+        Set<String> threadNames = assertTopHarmfulVariants(2, 200);
+
+        // 200 patients make 4 batches of 50, spread over the 2 lookup threads
+        assertTrue(threadNames.toString(), threadNames.size() > 1);
+        for (String name : threadNames) {
+            assertTrue(name, name.startsWith("mendelian-search-variants-"));
+        }
+    }
+
+    @Test
+    public void testTopHarmfulVariantsAreLookedUpSequentiallyWithOneThread() throws ComponentLookupException
+    {
+        assertEquals(Collections.singleton(Thread.currentThread().getName()), assertTopHarmfulVariants(1, 200));
+    }
+
+    @Test
+    public void testFewTopHarmfulVariantsAreLookedUpOnTheRequestThread() throws ComponentLookupException
+    {
+        // Less than two batches
+        assertEquals(Collections.singleton(Thread.currentThread().getName()), assertTopHarmfulVariants(2, 99));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFailedBatchCancelsTheOtherLookups() throws ComponentLookupException, InterruptedException
+    {
+        final List<String> ids = getNonCarriers(200);
+        Mockito.doReturn(ids).when(this.variantStore).getAllIndividuals();
+        // Score in a known order, so that the first batch holds the first 50 patients
+        when(this.scorer.getScoresById(Matchers.anyList(), Matchers.anySet(), Matchers.anyDouble())).thenAnswer(
+            new Answer<Map<String, Double>>()
+            {
+                @Override
+                public Map<String, Double> answer(InvocationOnMock invocation)
+                {
+                    Map<String, Double> scores = new LinkedHashMap<String, Double>();
+                    for (String id : ids) {
+                        if (((Set<String>) invocation.getArguments()[1]).contains(id)) {
+                            scores.put(id, 0.5);
+                        }
+                    }
+                    return scores;
+                }
+            });
+        final CountDownLatch blockedLookupStarted = new CountDownLatch(1);
+        final CountDownLatch blockedLookupCancelled = new CountDownLatch(1);
+        Mockito.doAnswer(new Answer<List<GAVariant>>()
+        {
+            @Override
+            public List<GAVariant> answer(InvocationOnMock invocation) throws InterruptedException
+            {
+                if ("Q000".equals(invocation.getArguments()[0])) {
+                    // The first batch fails once the second one is running
+                    blockedLookupStarted.await();
+                    throw new IllegalStateException("The variant store is down");
+                }
+                blockedLookupStarted.countDown();
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException ex) {
+                    blockedLookupCancelled.countDown();
+                    Thread.currentThread().interrupt();
+                }
+                return Collections.emptyList();
+            }
+        }).when(this.variantStore).getTopHarmfullVariantsForGene(Matchers.anyString(), Matchers.anyString(),
+            Matchers.anyInt());
+        MendelianSearchRequest request = getRequest(0);
+        request.set("maxResults", 1000);
+
+        try {
+            this.mocker.getComponentUnderTest().search(request);
+            fail("The variant store failure should fail the search");
+        } catch (IllegalStateException ex) {
+            assertEquals("The variant store is down", ex.getCause().getMessage());
+        }
+        assertTrue(blockedLookupCancelled.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testOverviewSplitsTheScoresByCarriers() throws ComponentLookupException
+    {
+        assertOverview(0);
+    }
+
+    @Test
+    public void testOverviewOfCarriersSplitsTheScoresTheSameWay() throws ComponentLookupException
+    {
+        assertOverview(1);
+    }
+
+    @Test
+    public void testOverviewSummarizesTheScoresOfTheCarriers() throws ComponentLookupException
+    {
+        for (int matchGene = 0; matchGene <= 1; matchGene++) {
+            MendelianSearchRequest request = getOverviewRequest(matchGene);
+            request.set("overviewMode", "summary");
+
+            Map<String, Object> overview = this.mocker.getComponentUnderTest().getOverview(request);
+
+            Map<?, ?> withGene = (Map<?, ?>) overview.get("withGene");
+            Map<?, ?> withoutGene = (Map<?, ?>) overview.get("withoutGene");
+            assertEquals(2, ((Number) withGene.get("count")).intValue());
+            assertEquals(0.15, ((Number) withGene.get("mean")).doubleValue(), 1e-9);
+            assertEquals(2, ((Number) withoutGene.get("count")).intValue());
+            assertEquals(0.35, ((Number) withoutGene.get("mean")).doubleValue(), 1e-9);
+        }
+    }
+
+    private void configure(String property, Object value)
+    {
+        Mockito.doReturn(value).when(this.configuration).getProperty(Matchers.eq(property), Matchers.any(Object.class));
+    }
+
+    private void assertScoringRuns(int times)
+    {
+        Mockito.verify(this.scorer, Mockito.times(times)).getScoresById(Matchers.anyList(), Matchers.anySet(),
+            Matchers.anyDouble());
+    }
+
+    private EventListener getListener() throws ComponentLookupException
+    {
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        ObservationManager observationManager = this.mocker.getInstance(ObservationManager.class);
+        Mockito.verify(observationManager).addListener(listener.capture());
+        return listener.getValue();
+    }
+
+    private int getResultLifespan() throws ComponentLookupException, CacheException
+    {
+        this.mocker.getComponentUnderTest();
+        ArgumentCaptor<CacheConfiguration> config = ArgumentCaptor.forClass(CacheConfiguration.class);
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        Mockito.verify(cacheManager).createNewLocalCache(config.capture());
+        return ((LRUEvictionConfiguration) config.getValue().get(EntryEvictionConfiguration.CONFIGURATIONID))
+            .getLifespan();
+    }
+
+    /**
+     * Score patients like the scorer would: only the requested patients reaching the minimum score are returned.
+     *
+     * @param fixture the score of each patient
+     */
+    @SuppressWarnings("unchecked")
+    private void scoreAs(final Map<String, Double> fixture)
+    {
+        when(this.scorer.getScoresById(Matchers.anyList(), Matchers.anySet(), Matchers.anyDouble())).thenAnswer(
+            new Answer<Map<String, Double>>()
+            {
+                @Override
+                public Map<String, Double> answer(InvocationOnMock invocation)
+                {
+                    double minScore = (Double) invocation.getArguments()[2];
+                    Map<String, Double> scores = new HashMap<String, Double>();
+                    for (String id : (Set<String>) invocation.getArguments()[1]) {
+                        if (fixture.containsKey(id) && fixture.get(id) >= minScore) {
+                            scores.put(id, fixture.get(id));
+                        }
+                    }
+                    return scores;
+                }
+            });
+    }
+
+    /**
+     * Search for patients without a matching variant, and check that each of them gets its own most harmful variants.
+     *
+     * @param threads the number of variant store lookup threads
+     * @param patients the number of patients without a matching variant
+     * @return the names of the threads which looked up the variants
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Set<String> assertTopHarmfulVariants(int threads, int patients) throws ComponentLookupException
+    {
+        configure("mendelianSearch.variantStore.threads", threads);
+        List<String> ids = getNonCarriers(patients);
+        Mockito.doReturn(ids).when(this.variantStore).getAllIndividuals();
+        final Map<String, List<GAVariant>> expected = new HashMap<String, List<GAVariant>>();
+        for (String id : ids.subList(2, ids.size())) {
+            expected.put(id, Collections.singletonList(mock(GAVariant.class)));
+        }
+        final Set<String> threadNames = Collections.synchronizedSet(new HashSet<String>());
+        Mockito.doAnswer(new Answer<List<GAVariant>>()
+        {
+            @Override
+            public List<GAVariant> answer(InvocationOnMock invocation)
+            {
+                threadNames.add(Thread.currentThread().getName());
+                return expected.get(invocation.getArguments()[0]);
+            }
+        }).when(this.variantStore).getTopHarmfullVariantsForGene(Matchers.anyString(), Matchers.eq("SRCAP"),
+            Matchers.eq(5));
+        MendelianSearchRequest request = getRequest(0);
+        request.set("maxResults", 1000);
+
+        this.mocker.getComponentUnderTest().search(request);
+
+        ArgumentCaptor<Map> variants = ArgumentCaptor.forClass(Map.class);
+        Mockito.verify(this.pvf).createPartialPatientViews(Matchers.anySet(), variants.capture(), Matchers.anyMap(),
+            Matchers.any(MendelianSearchRequest.class));
+        assertEquals(expected, variants.getValue());
+        Mockito.verify(this.variantStore, Mockito.times(patients)).getTopHarmfullVariantsForGene(
+            Matchers.anyString(), Matchers.anyString(), Matchers.anyInt());
+        return threadNames;
+    }
+
+    /**
+     * @param count the number of patients
+     * @return the two carriers of a matching variant, followed by {@code count} other patients
+     */
+    private static List<String> getNonCarriers(int count)
+    {
+        List<String> ids = new ArrayList<String>(Arrays.asList("P1", "P2"));
+        for (int i = 0; i < count; i++) {
+            ids.add(String.format("Q%03d", i));
+        }
+        return ids;
+    }
+
+    /**
+     * Check that the overview lists the scores of the carriers under "withGene" and of the other patients under
+     * "withoutGene", whatever the {@code matchGene} parameter, scoring all the patients at once, without looking up
+     * their variants.
+     *
+     * @param matchGene the {@code matchGene} parameter of the overview request
+     */
+    @SuppressWarnings("unchecked")
+    private void assertOverview(int matchGene) throws ComponentLookupException
+    {
+        Map<String, Object> overview = this.mocker.getComponentUnderTest().getOverview(getOverviewRequest(matchGene));
+
+        List<Double> withGene = new ArrayList<Double>((List<Double>) overview.get("withGene"));
+        Collections.sort(withGene);
+        assertEquals(Arrays.asList(0.1, 0.2), withGene);
+        List<Double> withoutGene = new ArrayList<Double>((List<Double>) overview.get("withoutGene"));
+        Collections.sort(withoutGene);
+        assertEquals(Arrays.asList(0.3, 0.4), withoutGene);
+
+        Mockito.verify(this.scorer).getScoresById(Matchers.anyList(),
+            Matchers.eq(new HashSet<String>(Arrays.asList("P1", "P2", "P3", "P4"))));
+        Mockito.verify(this.variantStore, Mockito.never()).getTopHarmfullVariantsForGene(Matchers.anyString(),
+            Matchers.anyString(), Matchers.anyInt());
+    }
+
+    /**
+     * @param matchGene the {@code matchGene} parameter
+     * @return a fuzzy overview request, where the carriers P1 and P2 score 0.1 and 0.2, and the other patients, P3
+     *         and P4, score 0.3 and 0.4
+     */
+    @SuppressWarnings("unchecked")
+    private MendelianSearchRequest getOverviewRequest(int matchGene)
+    {
+        Map<String, Double> scores = new HashMap<String, Double>();
+        scores.put("P1", 0.1);
+        scores.put("P2", 0.2);
+        scores.put("P3", 0.3);
+        scores.put("P4", 0.4);
+        when(this.scorer.getScoresById(Matchers.anyList(), Matchers.anySet())).thenReturn(scores);
+        MendelianSearchRequest request = getRequest(matchGene);
+        request.set("phenotypeMatching", "fuzzy");
+        return request;
+    }
+
+    private MendelianSearchRequest getRequest(int matchGene)
+    {
+        MendelianSearchRequest request = new MendelianSearchRequest();
+        request.set("matchGene", matchGene);
+        request.set("geneSymbol", "SRCAP");
+        request.set("variantCategoryNames", Arrays.asList("missense", "nonsense"));
+        request.set("alleleFrequencies", Collections.singletonMap("EXAC", 0.01));
+        request.set("phenotype", Arrays.asList("HP:0001249"));
+        request.set("maxResults", 10);
+        return request;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Set<String> getScoredIds()
+    {
+        ArgumentCaptor<Set> ids = ArgumentCaptor.forClass(Set.class);
+        Mockito.verify(this.scorer).getScoresById(Matchers.anyList(), ids.capture(), Matchers.anyDouble());
+        return new HashSet<String>(ids.getValue());
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Set<String> getSelectedIds()
+    {
+        ArgumentCaptor<Set> ids = ArgumentCaptor.forClass(Set.class);
+        Mockito.verify(this.pvf).createPartialPatientViews(ids.capture(), Matchers.anyMap(), Matchers.anyMap(),
+            Matchers.any(MendelianSearchRequest.class));
+        return new HashSet<String>(ids.getValue());
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Set<String> getMatchedIds()
+    {
+        ArgumentCaptor<Map> scores = ArgumentCaptor.forClass(Map.class);
+        Mockito.verify(this.pvf).createPartialPatientViews(Matchers.anySet(), Matchers.anyMap(), scores.capture(),
+            Matchers.any(MendelianSearchRequest.class));
+        return new HashSet<String>(((Map<String, Double>) scores.getValue()).keySet());
+    }
+}
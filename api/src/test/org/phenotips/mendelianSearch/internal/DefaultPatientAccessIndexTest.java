@@ -0,0 +1,255 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.Owner;
+import org.phenotips.data.permissions.PatientAccess;
+import org.phenotips.data.permissions.PermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+import org.phenotips.mendelianSearch.PatientAccessIndex;
+
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.inject.Provider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link DefaultPatientAccessIndex}.
+ *
+ * @version $Id$
+ */
+public class DefaultPatientAccessIndexTest
+{
+    private static final String ID = "P0000001";
+
+    private static final String HIDDEN_ID = "P0000002";
+
+    @Rule
+    public final MockitoComponentMockingRule<PatientAccessIndex> mocker =
+        new MockitoComponentMockingRule<PatientAccessIndex>(DefaultPatientAccessIndex.class);
+
+    private PermissionsManager pm;
+
+    private PatientRepository pr;
+
+    private XWikiContext context;
+
+    private Patient patient;
+
+    private PatientAccess access;
+
+    private Visibility visibility;
+
+    @Before
+    public void setup() throws ComponentLookupException
+    {
+        this.pm = this.mocker.getInstance(PermissionsManager.class);
+        this.pr = this.mocker.getInstance(PatientRepository.class);
+        AccessLevel viewAccess = this.mocker.getInstance(AccessLevel.class, "view");
+
+        Provider<XWikiContext> contextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        this.context = mock(XWikiContext.class);
+        Mockito.doReturn(this.context).when(contextProvider).get();
+        Mockito.doReturn(new DocumentReference("xwiki", "XWiki", "Alice")).when(this.context).getUserReference();
+
+        this.patient = mock(Patient.class);
+        Mockito.doReturn(ID).when(this.patient).getId();
+        this.access = mock(PatientAccess.class);
+        this.visibility = mock(Visibility.class);
+        Mockito.doReturn(1).when(this.visibility).compareTo(Matchers.any(Visibility.class));
+        Mockito.doReturn(this.visibility).when(this.access).getVisibility();
+        Mockito.doReturn(true).when(this.access).hasAccessLevel(viewAccess);
+        Owner owner = mock(Owner.class);
+        Mockito.doReturn("Bob").when(owner).getUsername();
+        Mockito.doReturn(owner).when(this.access).getOwner();
+        Mockito.doReturn(this.access).when(this.pm).getPatientAccess(this.patient);
+        Mockito.doReturn(this.patient).when(this.pr).get(ID);
+    }
+
+    @Test
+    public void testRightsAreEvaluatedOncePerUser() throws ComponentLookupException
+    {
+        PatientAccessIndex index = this.mocker.getComponentUnderTest();
+        assertTrue(index.hasAccess(this.patient));
+        assertTrue(index.hasAccess(this.patient));
+        assertTrue(index.isVisible(this.patient));
+        assertEquals("Bob", index.getOwner(this.patient));
+        Mockito.verify(this.pm, Mockito.times(1)).getPatientAccess(this.patient);
+
+        Mockito.doReturn(new DocumentReference("xwiki", "XWiki", "Carol")).when(this.context).getUserReference();
+        Mockito.doReturn(false).when(this.access).hasAccessLevel(Matchers.any(AccessLevel.class));
+        assertFalse(index.hasAccess(this.patient));
+        assertFalse(index.hasAccess(this.patient));
+        assertTrue(index.isVisible(this.patient));
+        Mockito.verify(this.pm, Mockito.times(2)).getPatientAccess(this.patient);
+    }
+
+    @Test
+    public void testHiddenPatientsAreNotAccessible() throws ComponentLookupException
+    {
+        Mockito.doReturn(0).when(this.visibility).compareTo(Matchers.any(Visibility.class));
+        Mockito.doReturn(null).when(this.access).getOwner();
+
+        PatientAccessIndex index = this.mocker.getComponentUnderTest();
+        assertFalse(index.isVisible(this.patient));
+        assertFalse(index.hasAccess(this.patient));
+        assertNull(index.getOwner(this.patient));
+    }
+
+    @Test
+    public void testPatientChangesAreForgotten() throws ComponentLookupException
+    {
+        PatientAccessIndex index = this.mocker.getComponentUnderTest();
+        assertTrue(index.hasAccess(this.patient));
+
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        ObservationManager observationManager = this.mocker.getInstance(ObservationManager.class);
+        Mockito.verify(observationManager).addListener(listener.capture());
+        XWikiDocument document = mock(XWikiDocument.class);
+        Mockito.doReturn(new DocumentReference("xwiki", "data", ID)).when(document).getDocumentReference();
+        Mockito.doReturn(mock(BaseObject.class)).when(document).getXObject(Patient.CLASS_REFERENCE);
+
+        Mockito.doReturn(-1).when(this.visibility).compareTo(Matchers.any(Visibility.class));
+        assertTrue(index.hasAccess(this.patient));
+        listener.getValue().onEvent(new DocumentUpdatedEvent(), document, null);
+        assertFalse(index.hasAccess(this.patient));
+        assertFalse(index.isVisible(this.patient));
+        Mockito.verify(this.pm, Mockito.times(2)).getPatientAccess(this.patient);
+    }
+
+    @Test
+    public void testSetsAreFilteredWithoutReloading() throws ComponentLookupException
+    {
+        Patient hiddenPatient = mockHiddenPatient();
+        Set<String> ids = new LinkedHashSet<String>(Arrays.asList(HIDDEN_ID, ID, "P0000003"));
+
+        PatientAccessIndex index = this.mocker.getComponentUnderTest();
+        assertEquals(Collections.singleton(ID), index.filterAccessible(ids));
+        assertEquals(Collections.singleton(ID), index.filterAccessible(ids));
+        assertEquals(Collections.singleton(ID), index.filterVisible(ids));
+        assertEquals("Bob", index.getOwner(ID));
+        Mockito.verify(this.pm, Mockito.times(1)).getPatientAccess(this.patient);
+        Mockito.verify(this.pm, Mockito.times(1)).getPatientAccess(hiddenPatient);
+
+        Mockito.doReturn(new DocumentReference("xwiki", "XWiki", "Carol")).when(this.context).getUserReference();
+        Mockito.doReturn(false).when(this.access).hasAccessLevel(Matchers.any(AccessLevel.class));
+        assertEquals(Collections.emptySet(), index.filterAccessible(ids));
+        assertEquals(Collections.singleton(ID), index.filterVisible(ids));
+        Mockito.verify(this.pm, Mockito.times(2)).getPatientAccess(this.patient);
+    }
+
+    @Test
+    public void testRightsChangedWhileLoadingAreNotRemembered() throws ComponentLookupException
+    {
+        final PatientAccessIndex index = this.mocker.getComponentUnderTest();
+        final EventListener listener = getListener();
+        Mockito.doAnswer(new Answer<PatientAccess>()
+        {
+            @Override
+            public PatientAccess answer(InvocationOnMock invocation)
+            {
+                // The patient is saved while its rights are evaluated
+                listener.onEvent(new DocumentUpdatedEvent(), mockPatientDocument(ID), null);
+                return DefaultPatientAccessIndexTest.this.access;
+            }
+        }).when(this.pm).getPatientAccess(this.patient);
+
+        assertTrue(index.hasAccess(this.patient));
+        assertTrue(index.hasAccess(this.patient));
+        Mockito.verify(this.pm, Mockito.times(2)).getPatientAccess(this.patient);
+    }
+
+    @Test
+    public void testDeletedPatientsAreForgotten() throws ComponentLookupException
+    {
+        PatientAccessIndex index = this.mocker.getComponentUnderTest();
+        assertTrue(index.isVisible(this.patient));
+        getListener().onEvent(new DocumentDeletedEvent(), mockPatientDocument(ID), null);
+
+        // A new patient may reuse the number of the deleted one, but not its rights
+        Patient hiddenPatient = mockHiddenPatient();
+        assertFalse(index.isVisible(hiddenPatient));
+        assertEquals(Collections.emptySet(), index.filterVisible(Collections.singleton(HIDDEN_ID)));
+        Mockito.verify(this.pm, Mockito.times(1)).getPatientAccess(hiddenPatient);
+
+        Mockito.doReturn(null).when(this.pr).get(ID);
+        assertEquals(Collections.emptySet(), index.filterVisible(Collections.singleton(ID)));
+        Mockito.verify(this.pm, Mockito.times(1)).getPatientAccess(this.patient);
+    }
+
+    private Patient mockHiddenPatient()
+    {
+        Patient hiddenPatient = mock(Patient.class);
+        Mockito.doReturn(HIDDEN_ID).when(hiddenPatient).getId();
+        PatientAccess hiddenAccess = mock(PatientAccess.class);
+        Visibility hiddenVisibility = mock(Visibility.class);
+        Mockito.doReturn(0).when(hiddenVisibility).compareTo(Matchers.any(Visibility.class));
+        Mockito.doReturn(hiddenVisibility).when(hiddenAccess).getVisibility();
+        Mockito.doReturn(hiddenAccess).when(this.pm).getPatientAccess(hiddenPatient);
+        Mockito.doReturn(hiddenPatient).when(this.pr).get(HIDDEN_ID);
+        return hiddenPatient;
+    }
+
+    private EventListener getListener() throws ComponentLookupException
+    {
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        ObservationManager observationManager = this.mocker.getInstance(ObservationManager.class);
+        Mockito.verify(observationManager).addListener(listener.capture());
+        return listener.getValue();
+    }
+
+    private static XWikiDocument mockPatientDocument(String id)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        Mockito.doReturn(new DocumentReference("xwiki", "data", id)).when(document).getDocumentReference();
+        Mockito.doReturn(mock(BaseObject.class)).when(document).getXObject(Patient.CLASS_REFERENCE);
+        return document;
+    }
+}
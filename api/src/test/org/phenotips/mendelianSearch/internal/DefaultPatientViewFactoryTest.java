@@ -20,22 +20,26 @@ package org.phenotips.mendelianSearch.internal;
 import org.phenotips.data.Feature;
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
-import org.phenotips.data.permissions.AccessLevel;
-import org.phenotips.data.permissions.Owner;
-import org.phenotips.data.permissions.PatientAccess;
-import org.phenotips.data.permissions.PermissionsManager;
+import org.phenotips.mendelianSearch.PatientAccessIndex;
 import org.phenotips.mendelianSearch.PatientView;
 import org.phenotips.vocabulary.VocabularyManager;
 
 import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.inject.Provider;
+
 import org.ga4gh.GAVariant;
 import org.junit.Before;
 import org.junit.Rule;
@@ -46,8 +50,15 @@ import org.mockito.MockitoAnnotations;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
 public class DefaultPatientViewFactoryTest
@@ -56,14 +67,12 @@ public class DefaultPatientViewFactoryTest
     public final MockitoComponentMockingRule<DefaultPatientViewFactory> mocker =
         new MockitoComponentMockingRule<DefaultPatientViewFactory>(DefaultPatientViewFactory.class);
 
-    private PermissionsManager pm;
+    private PatientAccessIndex accessIndex;
 
     private PatientRepository pr;
 
     private VocabularyManager om;
 
-    private AccessLevel viewAccess;
-
     private MendelianSearchRequest request;
 
     @Before
@@ -72,8 +81,7 @@ public class DefaultPatientViewFactoryTest
         MockitoAnnotations.initMocks(this);
         this.pr = this.mocker.getInstance(PatientRepository.class);
         this.om = this.mocker.getInstance(VocabularyManager.class);
-        this.pm = this.mocker.getInstance(PermissionsManager.class);
-        this.viewAccess = this.mocker.getInstance(AccessLevel.class, "view");
+        this.accessIndex = this.mocker.getInstance(PatientAccessIndex.class);
 
         request = mock(MendelianSearchRequest.class);
     }
@@ -94,16 +102,10 @@ public class DefaultPatientViewFactoryTest
         Patient p = mock(Patient.class);
         Mockito.doReturn(p).when(this.pr).getPatientByExternalId(id);
 
-        PatientAccess mockedAccess = mock(PatientAccess.class);
-        Mockito.doReturn(mockedAccess).when(this.pm).getPatientAccess(p);
-        Mockito.doReturn(true).when(mockedAccess).hasAccessLevel(this.viewAccess);
+        Mockito.doReturn(true).when(this.accessIndex).hasAccess(p);
 
         Mockito.doReturn("123").when(p).getId();
-        Mockito.doReturn(mockedAccess).when(this.pm).getPatientAccess(p);
-        Owner mockedOwner = mock(Owner.class);
-        Mockito.doReturn(mockedOwner).when(mockedAccess).getOwner();
-
-        Mockito.doReturn("Bob").when(mockedOwner).getUsername();
+        Mockito.doReturn("Bob").when(this.accessIndex).getOwner(p);
 
         // Build mockFeatures
         Set<Feature> mockFeatures = new HashSet<Feature>();
@@ -154,16 +156,10 @@ public class DefaultPatientViewFactoryTest
         Patient p = mock(Patient.class);
         Mockito.doReturn(p).when(this.pr).getPatientByExternalId(id);
 
-        PatientAccess mockedAccess = mock(PatientAccess.class);
-        Mockito.doReturn(mockedAccess).when(this.pm).getPatientAccess(p);
-        Mockito.doReturn(false).when(mockedAccess).hasAccessLevel(this.viewAccess);
+        Mockito.doReturn(false).when(this.accessIndex).hasAccess(p);
 
         Mockito.doReturn("123").when(p).getId();
-        Mockito.doReturn(mockedAccess).when(this.pm).getPatientAccess(p);
-        Owner mockedOwner = mock(Owner.class);
-        Mockito.doReturn(mockedOwner).when(mockedAccess).getOwner();
-
-        Mockito.doReturn("Bob").when(mockedOwner).getUsername();
+        Mockito.doReturn("Bob").when(this.accessIndex).getOwner(p);
 
         // Build mockFeatures
         Set<Feature> mockFeatures = new HashSet<Feature>();
@@ -205,16 +201,10 @@ public class DefaultPatientViewFactoryTest
         Patient p = mock(Patient.class);
         Mockito.doReturn(p).when(this.pr).getPatientByExternalId(id);
 
-        PatientAccess mockedAccess = mock(PatientAccess.class);
-        Mockito.doReturn(mockedAccess).when(this.pm).getPatientAccess(p);
-        Mockito.doReturn(true).when(mockedAccess).hasAccessLevel(this.viewAccess);
+        Mockito.doReturn(true).when(this.accessIndex).hasAccess(p);
 
         Mockito.doReturn("123").when(p).getId();
-        Mockito.doReturn(mockedAccess).when(this.pm).getPatientAccess(p);
-        Owner mockedOwner = mock(Owner.class);
-        Mockito.doReturn(mockedOwner).when(mockedAccess).getOwner();
-
-        Mockito.doReturn("Bob").when(mockedOwner).getUsername();
+        Mockito.doReturn("Bob").when(this.accessIndex).getOwner(p);
 
         // Build mockFeatures
         Set<Feature> mockFeatures = new HashSet<Feature>();
@@ -248,4 +238,65 @@ public class DefaultPatientViewFactoryTest
         assertArrayEquals(expectedPhenotype, resultPhenotype);
     }
 
+    @Test
+    public void testPartialPatientViewsAreCompletedOnDemand() throws ComponentLookupException
+    {
+        String id = "P0000123";
+        Patient p = mock(Patient.class);
+        Mockito.doReturn(p).when(this.pr).get(id);
+        Mockito.doReturn(id).when(p).getId();
+
+        String restrictedId = "P0000124";
+        Set<String> ids = new LinkedHashSet<String>(Arrays.asList(id, restrictedId));
+        Mockito.doReturn(Collections.singleton(id)).when(this.accessIndex).filterAccessible(ids);
+        Mockito.doReturn("Bob").when(this.accessIndex).getOwner(id);
+
+        Feature f1 = mock(Feature.class);
+        Mockito.doReturn(true).when(f1).isPresent();
+        Mockito.doReturn("bumps").when(f1).getName();
+        Mockito.doReturn(Collections.singleton(f1)).when(p).getFeatures();
+
+        DocumentReference document = new DocumentReference("xwiki", "data", id);
+        Mockito.doReturn(document).when(p).getDocument();
+        Provider<XWikiContext> contextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        XWikiContext context = mock(XWikiContext.class);
+        XWiki xwiki = mock(XWiki.class);
+        Mockito.doReturn(context).when(contextProvider).get();
+        Mockito.doReturn(xwiki).when(context).getWiki();
+        Mockito.doReturn("/data/" + id).when(xwiki).getURL(document, "view", context);
+
+        Map<String, List<GAVariant>> variants = new HashMap<String, List<GAVariant>>();
+        variants.put(id, new ArrayList<GAVariant>());
+        variants.put(restrictedId, new ArrayList<GAVariant>());
+        Map<String, Double> scores = new HashMap<String, Double>();
+        scores.put(id, 0.5);
+        scores.put(restrictedId, 0.4);
+        List<PatientView> views =
+            this.mocker.getComponentUnderTest().createPartialPatientViews(ids, variants, scores, this.request);
+        assertEquals(2, views.size());
+        PatientView view = views.get(0);
+        assertEquals("open", view.getType());
+        assertEquals(id, view.getPatientId());
+        assertEquals("Bob", view.getOwner());
+        assertEquals(0.5, view.getPhenotypeScore(), 1e-9);
+        assertFalse(view.isComplete());
+        assertEquals("restricted", views.get(1).getType());
+        assertTrue(views.get(1).isComplete());
+        // Partial views don't need the patients
+        Mockito.verifyZeroInteractions(this.pr);
+        Mockito.verify(xwiki, Mockito.never()).getURL(document, "view", context);
+
+        List<PatientView> completeViews = this.mocker.getComponentUnderTest().completePatientViews(views, this.request);
+        assertEquals(2, completeViews.size());
+        assertSame(views.get(1), completeViews.get(1));
+        PatientView completeView = completeViews.get(0);
+        assertNotSame(view, completeView);
+        // The partial views may be shared, they are left unchanged
+        assertFalse(view.isComplete());
+        assertTrue(completeView.isComplete());
+        assertEquals("Bob", completeView.getOwner());
+        JSONObject resultJSON = completeView.toJSON();
+        assertEquals("/data/" + id, resultJSON.get("patientURL"));
+        assertArrayEquals(new Object[] { "bumps" }, ((List<String>) resultJSON.get("phenotype")).toArray());
+    }
 }
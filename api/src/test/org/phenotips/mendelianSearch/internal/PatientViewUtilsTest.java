@@ -101,4 +101,32 @@ public class PatientViewUtilsTest
         Assert.assertEquals("1", testViews.get(0).get(POSITION_STRING));
         Assert.assertEquals("99", testViews.get(98).get(POSITION_STRING));
     }
+
+    @Test
+    public void testSelectPatientViewPage()
+    {
+        List<PatientView> views = new ArrayList<PatientView>();
+        for (int i = 1; i < 100; i++) {
+            PatientView view = new DefaultPatientView();
+            view.setPatientId(String.format("P%07d", i));
+            // Scores 0.01 .. 0.99, shuffled so that string and numeric order differ from insertion order
+            view.setPhenotypeScore(((i * 37) % 100) / 100.0);
+            views.add(view);
+        }
+
+        List<PatientView> page = PatientViewUtils.selectPatientViewPage(views,
+            PatientViewUtils.getPatientViewComparator("phenotypeScore", false), 2, 10);
+        Assert.assertEquals(10, page.size());
+        Assert.assertEquals(0.89, page.get(0).getPhenotypeScore(), 1e-9);
+        Assert.assertEquals(0.80, page.get(9).getPhenotypeScore(), 1e-9);
+
+        page = PatientViewUtils.selectPatientViewPage(views,
+            PatientViewUtils.getPatientViewComparator("patientId", true), 1000, 15);
+        Assert.assertEquals(9, page.size());
+        Assert.assertEquals("P0000091", page.get(0).getPatientId());
+        Assert.assertEquals("P0000099", page.get(8).getPatientId());
+
+        Assert.assertEquals(0, PatientViewUtils.selectPatientViewPage(views,
+            PatientViewUtils.getPatientViewComparator("patientId", true), 0, 15).size());
+    }
 }
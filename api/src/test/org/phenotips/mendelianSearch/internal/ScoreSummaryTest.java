@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.internal;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ScoreSummary}.
+ *
+ * @version $Id$
+ */
+public class ScoreSummaryTest
+{
+    private static final double EPS = 1e-9;
+
+    @Test
+    public void testQuantilesAreWithinTheBinResolution()
+    {
+        Random random = new Random(42);
+        double[] scores = new double[10000];
+        ScoreSummary summary = new ScoreSummary(20);
+        double sum = 0;
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = random.nextDouble() * random.nextDouble();
+            sum += scores[i];
+            summary.add(scores[i]);
+        }
+        Arrays.sort(scores);
+
+        assertEquals(scores.length, summary.getCount());
+        assertEquals(scores[0], summary.getQuantile(0), EPS);
+        assertEquals(scores[scores.length - 1], summary.getQuantile(1), EPS);
+        for (double quantile : new double[] { 0.25, 0.5, 0.75, 0.99 }) {
+            assertEquals(scores[(int) (quantile * scores.length)], summary.getQuantile(quantile), 1e-3);
+        }
+        Map<String, Object> result = summary.toMap();
+        assertEquals(sum / scores.length, (Double) result.get("mean"), EPS);
+        assertEquals(scores[0], (Double) result.get("min"), EPS);
+        assertEquals(scores[scores.length - 1], (Double) result.get("max"), EPS);
+    }
+
+    @Test
+    public void testMergedPartitionsMatchTheWhole()
+    {
+        Random random = new Random(7);
+        ScoreSummary whole = new ScoreSummary(10);
+        ScoreSummary first = new ScoreSummary(10);
+        ScoreSummary second = new ScoreSummary(10);
+        for (int i = 0; i < 1000; i++) {
+            double score = random.nextDouble();
+            whole.add(score);
+            (i % 3 == 0 ? first : second).add(score);
+        }
+        first.merge(second);
+
+        assertEquals(whole.getCount(), first.getCount());
+        assertTrue(Arrays.equals(whole.getHistogram(), first.getHistogram()));
+        assertEquals(whole.getQuantile(0.5), first.getQuantile(0.5), EPS);
+        assertEquals((Double) whole.toMap().get("mean"), (Double) first.toMap().get("mean"), EPS);
+    }
+
+    @Test
+    public void testHistogramCountsEveryScore()
+    {
+        ScoreSummary summary = new ScoreSummary(4);
+        for (double score : new double[] { 0, 0.1, 0.3, 0.5, 0.74, 0.75, 1, 1.2, -0.1, Double.NaN }) {
+            summary.add(score);
+        }
+
+        assertEquals(9, summary.getCount());
+        assertTrue(Arrays.equals(new long[] { 3, 1, 2, 3 }, summary.getHistogram()));
+        assertEquals(-0.1, summary.getQuantile(0), EPS);
+        assertEquals(1.2, summary.getQuantile(1), EPS);
+    }
+
+    @Test
+    public void testEmptySummaryOnlyHasACount()
+    {
+        Map<String, Object> result = new ScoreSummary(20).toMap();
+
+        assertEquals(0L, result.get("count"));
+        assertFalse(result.containsKey("median"));
+        assertEquals(1, result.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHistogramBinsMustDivideTheBins()
+    {
+        new ScoreSummary(30);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSummariesWithDifferentHistogramsAreNotMerged()
+    {
+        new ScoreSummary(20).merge(new ScoreSummary(10));
+    }
+}
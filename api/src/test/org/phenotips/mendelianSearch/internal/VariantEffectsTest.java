@@ -0,0 +1,76 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link VariantEffects}.
+ *
+ * @version $Id$
+ */
+public class VariantEffectsTest
+{
+    private VariantEffects createEffects()
+    {
+        Map<String, MendelianVariantCategory> categories = new LinkedHashMap<String, MendelianVariantCategory>();
+        categories.put("missense",
+            new MendelianVariantCategory(Arrays.asList("missense_variant", "rare_amino_acid_variant"), true));
+        categories.put("other", new MendelianVariantCategory(
+            Arrays.asList("stop_lost", "  transcript_variant", "missense_variant"), false));
+        return new VariantEffects(categories);
+    }
+
+    @Test
+    public void testMasksSelectCategoryEffects()
+    {
+        VariantEffects effects = createEffects();
+        long missense = effects.getMask(Collections.singletonList("missense"));
+        long both = effects.getMask(Arrays.asList("missense", "other"));
+
+        assertEquals(Arrays.asList("missense_variant", "rare_amino_acid_variant"), effects.getEffects(missense));
+        assertEquals(Arrays.asList("missense_variant", "rare_amino_acid_variant", "stop_lost", "transcript_variant"),
+            effects.getEffects(both));
+        assertSame(effects.getEffects(both), effects.getEffects(both));
+        assertTrue(effects.getEffects(0).isEmpty());
+    }
+
+    @Test
+    public void testEffectNamesAreTrimmed()
+    {
+        VariantEffects effects = createEffects();
+        long other = effects.getMask(Collections.singletonList("other"));
+
+        assertEquals(Arrays.asList("missense_variant", "stop_lost", "transcript_variant"), effects.getEffects(other));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCategoryIsRejected()
+    {
+        createEffects().getMask(Collections.singletonList("unknown"));
+    }
+}
@@ -19,12 +19,24 @@ package org.phenotips.mendelianSearch.phenotype;
 
 import org.phenotips.data.Feature;
 import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.mendelianSearch.PatientAccessIndex;
+import org.phenotips.mendelianSearch.mocks.MockCache;
 import org.phenotips.mendelianSearch.mocks.MockVocabularyTerm;
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
 
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.util.ArrayList;
@@ -34,16 +46,25 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.doc.XWikiDocument;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -69,19 +90,82 @@ public class DefaultPatientPhenotypeScorerTest
     //Reference to the PhenotypeScorer used by the component.
     private PhenotypeScorer scorer;
 
+    //Reference to the configuration used by the component.
+    private ConfigurationSource configuration;
+
+    //Reference to the PatientAccessIndex used by the component.
+    private PatientAccessIndex accessIndex;
+
+    //Reference to the profile index created by the scorer for the component.
+    private PhenotypeProfileIndex profileIndex;
+
     /**
      * Before each test, mock the scorer and vocabulary manager methods.
      * @throws ComponentLookupException If the test component cannot be found
      */
     @SuppressWarnings("unchecked")
     @Before
-    public void setup() throws ComponentLookupException
+    public void setup() throws ComponentLookupException, CacheException
     {
         MockitoAnnotations.initMocks(this);
         this.vocabularyManager = this.mocker.getInstance(VocabularyManager.class);
         this.scorer = this.mocker.getInstance(PhenotypeScorer.class);
 
         when(this.scorer.getScore(Matchers.anyList(), Matchers.anyList())).thenReturn(Math.random());
+        when(this.scorer.getScoresAgainstProfiles(Matchers.anyList(), Matchers.anyList())).thenAnswer(
+            new Answer<double[]>()
+            {
+                @Override
+                public double[] answer(InvocationOnMock invocation)
+                {
+                    double[] scores = new double[((List<?>) invocation.getArguments()[1]).size()];
+                    for (int i = 0; i < scores.length; i++) {
+                        scores[i] = Math.random();
+                    }
+                    return scores;
+                }
+            });
+
+        // Profiles are opaque to the patient scorer, but they must not be null to be cached
+        when(this.scorer.getProfile(Matchers.anyList())).thenAnswer(new Answer<PhenotypeProfile>()
+        {
+            @Override
+            public PhenotypeProfile answer(InvocationOnMock invocation)
+            {
+                return mock(PhenotypeProfile.class);
+            }
+        });
+
+        // The index scores every requested profile
+        this.profileIndex = mock(PhenotypeProfileIndex.class);
+        when(this.profileIndex.getScores(Matchers.anyList(), Matchers.anyMap(), Matchers.anyDouble(),
+            Matchers.any(ExecutorService.class), Matchers.anyInt())).thenAnswer(new Answer<Map<String, Double>>()
+            {
+                @Override
+                public Map<String, Double> answer(InvocationOnMock invocation)
+                {
+                    Map<String, Double> scores = new HashMap<String, Double>();
+                    for (Object id : ((Map<?, ?>) invocation.getArguments()[1]).keySet()) {
+                        scores.put((String) id, 0.5);
+                    }
+                    return scores;
+                }
+            });
+        when(this.scorer.createProfileIndex()).thenReturn(this.profileIndex);
+
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        when(cacheManager.createNewLocalCache(Matchers.any(CacheConfiguration.class)))
+            .thenReturn(new MockCache<Object>());
+
+        this.configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(this.configuration.getProperty(Matchers.anyString(), Matchers.any(Object.class)))
+            .then(AdditionalAnswers.returnsSecondArg());
+        Mockito.doReturn(2).when(this.configuration).getProperty(Matchers.eq("mendelianSearch.scoring.threads"),
+            Matchers.any(Object.class));
+
+        // All patients are visible
+        this.accessIndex = this.mocker.getInstance(PatientAccessIndex.class);
+        when(this.accessIndex.isVisible(Matchers.any(Patient.class))).thenReturn(true);
 
         for (String term : DefaultPatientPhenotypeScorerTest.testVocabularyTerms.keySet()) {
             when(this.vocabularyManager.resolveTerm(term)).thenReturn(testVocabularyTerms.get(term));
@@ -99,6 +183,7 @@ public class DefaultPatientPhenotypeScorerTest
         Set<Patient> patientList = new HashSet<Patient>();
         for (int i = 0; i < numPatients; i++) {
             Patient mockPatient = mock(Patient.class);
+            when(mockPatient.getId()).thenReturn("P000000" + i);
 
             Feature mockFeature = mock(Feature.class);
             when(mockFeature.isPresent()).thenReturn(true);
@@ -130,6 +215,245 @@ public class DefaultPatientPhenotypeScorerTest
         assertEquals(numPatients, result.size());
     }
 
+    /**
+     * The profile of a patient is computed once, and reused by later searches.
+     */
+    @Test
+    public void testProfilesAreCached() throws ComponentLookupException
+    {
+        Patient patient = mockPatient("P0000001", "HP:0001382");
+        Set<Patient> patients = Collections.singleton(patient);
+
+        PatientPhenotypeScorer component = this.mocker.getComponentUnderTest();
+        assertEquals(1, component.getScores(getQueryPhenotype(), patients).size());
+        assertEquals(1, component.getScores(getQueryPhenotype(), patients).size());
+
+        Mockito.verify(this.vocabularyManager, Mockito.times(1)).resolveTerm("HP:0001382");
+    }
+
+    /**
+     * Updating a patient document evicts the cached profile of that patient, and only that one.
+     */
+    @Test
+    public void testUpdatedPatientsAreEvicted() throws ComponentLookupException
+    {
+        Patient updated = mockPatient("P0000001", "HP:0001382");
+        Patient unchanged = mockPatient("P0000002", "HP:0011729");
+        Set<Patient> patients = new HashSet<Patient>();
+        patients.add(updated);
+        patients.add(unchanged);
+
+        PatientPhenotypeScorer component = this.mocker.getComponentUnderTest();
+        component.getScores(getQueryPhenotype(), patients);
+
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        ObservationManager observationManager = this.mocker.getInstance(ObservationManager.class);
+        Mockito.verify(observationManager).addListener(listener.capture());
+        XWikiDocument document = mock(XWikiDocument.class);
+        Mockito.doReturn(new DocumentReference("xwiki", "data", "P0000001")).when(document).getDocumentReference();
+        listener.getValue().onEvent(new DocumentUpdatedEvent(), document, null);
+
+        assertEquals(2, component.getScores(getQueryPhenotype(), patients).size());
+        Mockito.verify(this.vocabularyManager, Mockito.times(2)).resolveTerm("HP:0001382");
+        Mockito.verify(this.vocabularyManager, Mockito.times(1)).resolveTerm("HP:0011729");
+    }
+
+    /**
+     * Patients that are not visible to the search are not scored.
+     */
+    @Test
+    public void testInvisiblePatientsAreExcluded() throws ComponentLookupException
+    {
+        Patient visible = mockPatient("P0000001", "HP:0001382");
+        Patient hidden = mockPatient("P0000002", "HP:0001382");
+        when(this.accessIndex.isVisible(hidden)).thenReturn(false);
+        Set<Patient> patients = new HashSet<Patient>();
+        patients.add(visible);
+        patients.add(hidden);
+
+        Map<Patient, Double> result = this.mocker.getComponentUnderTest().getScores(getQueryPhenotype(), patients);
+        assertEquals(1, result.size());
+        assertTrue(result.containsKey(visible));
+        assertFalse(result.containsKey(hidden));
+    }
+
+    /**
+     * The visibility of patients is checked on every search, even if their profiles are cached.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testVisibilityIsCheckedWhenScoring() throws ComponentLookupException
+    {
+        PatientRepository repository = this.mocker.getInstance(PatientRepository.class);
+        Mockito.doReturn(mockPatient("P0000001", "HP:0001382")).when(repository).get("P0000001");
+        Mockito.doReturn(mockPatient("P0000002", "HP:0001382")).when(repository).get("P0000002");
+        when(this.accessIndex.filterVisible(Matchers.anySet())).then(AdditionalAnswers.returnsFirstArg());
+        Set<String> ids = new HashSet<String>();
+        ids.add("P0000001");
+        ids.add("P0000002");
+
+        PatientPhenotypeScorer component = this.mocker.getComponentUnderTest();
+        assertEquals(ids, component.getScoresById(getQueryPhenotype(), ids).keySet());
+
+        // The second patient is hidden, without changing its profile
+        when(this.accessIndex.filterVisible(Matchers.anySet())).thenReturn(Collections.singleton("P0000001"));
+        assertEquals(Collections.singleton("P0000001"), component.getScoresById(getQueryPhenotype(), ids).keySet());
+        Mockito.verify(this.vocabularyManager, Mockito.times(2)).resolveTerm("HP:0001382");
+    }
+
+    /**
+     * Patients looked up by id are scored through the profile index, which may use all the scoring threads.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testPatientsAreScoredByIdThroughTheParallelIndex() throws ComponentLookupException
+    {
+        PatientRepository repository = this.mocker.getInstance(PatientRepository.class);
+        Mockito.doReturn(mockPatient("P0000001", "HP:0001382")).when(repository).get("P0000001");
+        when(this.accessIndex.filterVisible(Matchers.anySet())).then(AdditionalAnswers.returnsFirstArg());
+
+        PatientPhenotypeScorer component = this.mocker.getComponentUnderTest();
+        assertEquals(Collections.singletonMap("P0000001", 0.5),
+            component.getScoresById(getQueryPhenotype(), Collections.singleton("P0000001"), 0.2));
+
+        ArgumentCaptor<ExecutorService> executor = ArgumentCaptor.forClass(ExecutorService.class);
+        Mockito.verify(this.profileIndex).getScores(Matchers.eq(getQueryPhenotype()), Matchers.anyMap(),
+            Matchers.eq(0.2), executor.capture(), Matchers.eq(2));
+        assertTrue(executor.getValue() != null);
+        Mockito.verify(this.scorer, Mockito.never()).getScoresAgainstProfiles(Matchers.anyList(), Matchers.anyList());
+    }
+
+    /**
+     * The size of the profile cache is read from the configuration.
+     */
+    @Test
+    public void testProfileCacheSizeIsConfigurable() throws ComponentLookupException, CacheException
+    {
+        Mockito.doReturn(10).when(this.configuration).getProperty(Matchers.eq("mendelianSearch.profileCache.size"),
+            Matchers.any(Object.class));
+        this.mocker.getComponentUnderTest();
+
+        ArgumentCaptor<CacheConfiguration> config = ArgumentCaptor.forClass(CacheConfiguration.class);
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        Mockito.verify(cacheManager).createNewLocalCache(config.capture());
+        LRUEvictionConfiguration lru =
+            (LRUEvictionConfiguration) config.getValue().get(EntryEvictionConfiguration.CONFIGURATIONID);
+        assertEquals(10, lru.getMaxEntries());
+    }
+
+    /**
+     * Cohorts larger than two scoring partitions are scored in parallel, with the same results as on one thread.
+     */
+    @Test
+    public void testParallelScoringMatchesSequentialScoring() throws ComponentLookupException
+    {
+        assertLargeCohortScores(2);
+    }
+
+    /**
+     * With a single scoring thread, large cohorts are scored on the calling thread in one batch.
+     */
+    @Test
+    public void testSequentialScoringOfLargeCohorts() throws ComponentLookupException
+    {
+        assertLargeCohortScores(1);
+    }
+
+    /**
+     * Score a cohort of 2500 patients, where every tenth patient is hidden, and check that each visible patient gets
+     * the score of its own profile, whatever the number of scoring threads.
+     *
+     * @param threads the configured number of scoring threads
+     */
+    @SuppressWarnings("unchecked")
+    private void assertLargeCohortScores(int threads) throws ComponentLookupException
+    {
+        Mockito.doReturn(threads).when(this.configuration)
+            .getProperty(Matchers.eq("mendelianSearch.scoring.threads"), Matchers.any(Object.class));
+        when(this.accessIndex.isVisible(Matchers.any(Patient.class))).thenAnswer(new Answer<Boolean>()
+        {
+            @Override
+            public Boolean answer(InvocationOnMock invocation)
+            {
+                return !((Patient) invocation.getArguments()[0]).getId().endsWith("0");
+            }
+        });
+        // The profile of a patient holds the ids of its terms, and its score only depends on them
+        when(this.scorer.getProfile(Matchers.anyList())).thenAnswer(new Answer<PhenotypeProfile>()
+        {
+            @Override
+            public PhenotypeProfile answer(InvocationOnMock invocation)
+            {
+                List<String> termIds = new ArrayList<String>();
+                for (VocabularyTerm term : (List<VocabularyTerm>) invocation.getArguments()[0]) {
+                    termIds.add(term.getId());
+                }
+                PhenotypeProfile profile = mock(PhenotypeProfile.class);
+                when(profile.getTermIds()).thenReturn(termIds);
+                return profile;
+            }
+        });
+        when(this.scorer.getScoresAgainstProfiles(Matchers.anyList(), Matchers.anyList())).thenAnswer(
+            new Answer<double[]>()
+            {
+                @Override
+                public double[] answer(InvocationOnMock invocation)
+                {
+                    List<PhenotypeProfile> references = (List<PhenotypeProfile>) invocation.getArguments()[1];
+                    double[] scores = new double[references.size()];
+                    for (int i = 0; i < scores.length; i++) {
+                        scores[i] = getExpectedScore(references.get(i).getTermIds().get(0));
+                    }
+                    return scores;
+                }
+            });
+
+        List<String> terms = new ArrayList<String>(testVocabularyTerms.keySet());
+        Map<Patient, Double> expected = new HashMap<Patient, Double>();
+        Set<Patient> patients = new HashSet<Patient>();
+        for (int i = 0; i < 2500; i++) {
+            String term = terms.get(i % terms.size());
+            Patient patient = mockPatient(String.format("P%07d", i), term);
+            patients.add(patient);
+            if (i % 10 != 0) {
+                expected.put(patient, getExpectedScore(term));
+            }
+        }
+
+        Map<Patient, Double> result = this.mocker.getComponentUnderTest().getScores(getQueryPhenotype(), patients);
+        assertEquals(expected, result);
+        Mockito.verify(this.scorer, Mockito.times(threads))
+            .getScoresAgainstProfiles(Matchers.anyList(), Matchers.anyList());
+    }
+
+    private static double getExpectedScore(String termId)
+    {
+        return Math.abs(termId.hashCode() % 1000) / 1000.0;
+    }
+
+    private static Patient mockPatient(String id, String... termIds)
+    {
+        Patient patient = mock(Patient.class);
+        when(patient.getId()).thenReturn(id);
+        Set<Feature> features = new HashSet<Feature>();
+        for (String termId : termIds) {
+            Feature feature = mock(Feature.class);
+            when(feature.isPresent()).thenReturn(true);
+            when(feature.getId()).thenReturn(termId);
+            features.add(feature);
+        }
+        Mockito.doReturn(features).when(patient).getFeatures();
+        return patient;
+    }
+
+    private static List<VocabularyTerm> getQueryPhenotype()
+    {
+        List<VocabularyTerm> phenotype = new ArrayList<>();
+        phenotype.add(testVocabularyTerms.get("HP:0001367"));
+        phenotype.add(testVocabularyTerms.get("HP:0001382"));
+        return phenotype;
+    }
+
     /**
      * Sets up a mocked HPO vocabulary for use in tests
      */
@@ -24,20 +24,29 @@ import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Matchers;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests for the "default" {@link PhenotypeScorer} implementation, {@link DefaultPhenotypeScorer}.
@@ -56,6 +65,8 @@ public class DefaultPhenotypeScorerTest
 
     private VocabularyManager vocabularyManager;
 
+    private ConfigurationSource configuration;
+
     private static Map<String, VocabularyTerm> h = new HashMap<String, VocabularyTerm>();
 
     private static final double EPS = 1e-9;
@@ -77,6 +88,11 @@ public class DefaultPhenotypeScorerTest
         Mockito.doReturn(this.mim).when(this.vocabularyManager).getVocabulary("MIM");
         Mockito.doReturn(this.hpo).when(this.vocabularyManager).getVocabulary("HPO");
 
+        // Use the default configuration, i.e. an initialization during the component lookup
+        this.configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        Mockito.when(this.configuration.getProperty(Matchers.anyString(), Matchers.any(Object.class)))
+            .thenAnswer(AdditionalAnswers.returnsSecondArg());
+
     }
 
     @Test
@@ -115,6 +131,127 @@ public class DefaultPhenotypeScorerTest
     {
     }
 
+    @Test
+    public void testScoreAgainstReference() throws ComponentLookupException
+    {
+        List<VocabularyTerm> query = new ArrayList<>();
+        List<VocabularyTerm> reference = new ArrayList<>();
+        query.add(this.hpo.getTerm("HP:0001382"));
+        reference.add(this.hpo.getTerm("HP:0001382"));
+        reference.add(this.hpo.getTerm("HP:0100543"));
+
+        PhenotypeScorer scorer = this.mocker.getComponentUnderTest();
+        double asymmetric = scorer.getScoreAgainstReference(query, reference);
+        assertEquals("A query should fully match itself", 1.0, scorer.getScoreAgainstReference(query, query), EPS);
+        assertEquals("A superset query should fully match the reference", 1.0,
+            scorer.getScoreAgainstReference(reference, query), EPS);
+        assertEquals("Symmetric and asymmetric scores should agree on a subset of the reference", asymmetric,
+            scorer.getScore(query, reference), EPS);
+    }
+
+    @Test
+    public void testScoringWaitsForBackgroundInitialization() throws ComponentLookupException
+    {
+        Mockito.doReturn(true).when(this.configuration).getProperty(
+            Matchers.eq("mendelianSearch.scoring.asyncInitialization"), Matchers.any(Object.class));
+        List<VocabularyTerm> phenotype = new ArrayList<>();
+        phenotype.add(this.hpo.getTerm("HP:0100543"));
+        phenotype.add(this.hpo.getTerm("HP:0011842"));
+        phenotype.add(this.hpo.getTerm("HP:0001382"));
+
+        PhenotypeScorer scorer = this.mocker.getComponentUnderTest();
+        assertEquals(1.0, scorer.getScore(phenotype, phenotype), EPS);
+        assertTrue(scorer.isReady());
+    }
+
+    @Test
+    public void testScorerIsReadyOnceLookedUp() throws ComponentLookupException
+    {
+        assertTrue(this.mocker.getComponentUnderTest().isReady());
+    }
+
+    @Test
+    public void testDetailedMatchesDoNotModifyInput() throws ComponentLookupException
+    {
+        List<VocabularyTerm> q = new ArrayList<>();
+        q.add(this.hpo.getTerm("HP:0100543"));
+        q.add(this.hpo.getTerm("HP:0001382"));
+        List<VocabularyTerm> m = new ArrayList<>(q);
+
+        List<Map<String, Object>> matches = this.mocker.getComponentUnderTest().getDetailedMatches(q, m);
+        assertEquals("Only terms with an informative common ancestor are matched", 1, matches.size());
+        assertEquals(2, m.size());
+        assertEquals("HP:0001382", ((Map<?, ?>) matches.get(0).get("b")).get("id"));
+    }
+
+    @Test
+    public void testProfileIndexMatchesProfileScores() throws ComponentLookupException
+    {
+        PhenotypeScorer scorer = this.mocker.getComponentUnderTest();
+        List<String> ids = new ArrayList<>(this.hpo.getAliases());
+        Collections.sort(ids);
+        Map<String, PhenotypeProfile> profiles = new LinkedHashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            List<VocabularyTerm> phenotype = new ArrayList<>();
+            phenotype.add(this.hpo.getTerm(ids.get(i)));
+            phenotype.add(this.hpo.getTerm(ids.get((i * 7) % ids.size())));
+            profiles.put("P" + i, scorer.getProfile(phenotype));
+        }
+        List<VocabularyTerm> query = new ArrayList<>();
+        query.add(this.hpo.getTerm("HP:0100543"));
+        query.add(this.hpo.getTerm("HP:0001382"));
+        double[] expected = scorer.getScoresAgainstProfiles(query, new ArrayList<>(profiles.values()));
+
+        PhenotypeProfileIndex index = scorer.createProfileIndex();
+        double minScore = 0.3;
+        Map<String, Double> all = index.getScores(query, profiles, 0);
+        Map<String, Double> filtered = index.getScores(query, profiles, minScore);
+        int i = 0;
+        for (String id : profiles.keySet()) {
+            assertEquals(expected[i], all.get(id), EPS);
+            if (expected[i] >= minScore) {
+                assertEquals(expected[i], filtered.get(id), EPS);
+            } else {
+                assertFalse(filtered.containsKey(id));
+            }
+            i++;
+        }
+
+        index.remove("P0");
+        profiles.remove("P0");
+        assertFalse(index.getScores(query, profiles, 0).containsKey("P0"));
+    }
+
+    @Test
+    public void testParallelProfileIndexMatchesSequentialScoring() throws ComponentLookupException
+    {
+        PhenotypeScorer scorer = this.mocker.getComponentUnderTest();
+        List<String> ids = new ArrayList<>(this.hpo.getAliases());
+        Collections.sort(ids);
+        // Enough profiles for the index to be split in three partitions
+        Map<String, PhenotypeProfile> profiles = new LinkedHashMap<>();
+        for (int i = 0; i < 30000; i++) {
+            List<VocabularyTerm> phenotype = new ArrayList<>();
+            phenotype.add(this.hpo.getTerm(ids.get(i % ids.size())));
+            phenotype.add(this.hpo.getTerm(ids.get((i * 7 + i / ids.size()) % ids.size())));
+            profiles.put("P" + i, scorer.getProfile(phenotype));
+        }
+        List<VocabularyTerm> query = new ArrayList<>();
+        query.add(this.hpo.getTerm("HP:0100543"));
+        query.add(this.hpo.getTerm("HP:0001382"));
+
+        PhenotypeProfileIndex index = scorer.createProfileIndex();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (double minScore : new double[] { 0, 0.3 }) {
+                Map<String, Double> expected = index.getScores(query, profiles, minScore);
+                assertEquals(expected, index.getScores(query, profiles, minScore, executor, 3));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     public void testNullVocabularyTerms() throws ComponentLookupException
     {
@@ -0,0 +1,50 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.phenotype;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Tests for {@link PhenotypeMatchAssignment}.
+ *
+ * @version $Id$
+ */
+public class PhenotypeMatchAssignmentTest
+{
+    @Test
+    public void testOptimalAssignmentBeatsGreedy()
+    {
+        double[][] weights = new double[][] { { 3, 2 }, { 3, 0 } };
+        assertArrayEquals(new int[] { 0, -1 }, PhenotypeMatchAssignment.assignGreedily(weights));
+        assertArrayEquals(new int[] { 1, 0 }, PhenotypeMatchAssignment.assignOptimally(weights));
+        assertArrayEquals(new int[] { 1, 0 }, PhenotypeMatchAssignment.assign(weights));
+    }
+
+    @Test
+    public void testRectangularAssignment()
+    {
+        double[][] weights = new double[][] { { 1, 0 }, { 4, 0 }, { 0, 0 } };
+        assertArrayEquals(new int[] { -1, 0, -1 }, PhenotypeMatchAssignment.assignOptimally(weights));
+
+        double[][] wide = new double[][] { { 1, 5, 2 } };
+        assertArrayEquals(new int[] { 1 }, PhenotypeMatchAssignment.assignOptimally(wide));
+        assertArrayEquals(new int[0], PhenotypeMatchAssignment.assignOptimally(new double[0][0]));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.phenotype;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link PhenotypeTermIndexSnapshot}.
+ *
+ * @version $Id$
+ */
+public class PhenotypeTermIndexSnapshotTest
+{
+    private static final double EPS = 1e-9;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSnapshotRoundTrip() throws IOException
+    {
+        PhenotypeTermIndex index = new PhenotypeTermIndex(Arrays.asList("HP:0000118", "HP:0000707", "HP:0001250"),
+            new int[][] { { 0 }, { 1, 0 }, { 2, 1, 0 } }, new double[] { 0.0, 1.5, 4.25 });
+        File file = new File(this.folder.getRoot(), "snapshot/index.bin");
+        PhenotypeTermIndexSnapshot.write(file, "v1", index);
+
+        PhenotypeTermIndex loaded = PhenotypeTermIndexSnapshot.read(file, "v1");
+        assertEquals(index.size(), loaded.size());
+        for (int i = 0; i < index.size(); i++) {
+            assertEquals(index.getTermId(i), loaded.getTermId(i));
+            assertEquals(index.getTermIC(i), loaded.getTermIC(i), EPS);
+            assertArrayEquals(index.getAncestors(i), loaded.getAncestors(i));
+        }
+        assertEquals(index.indexOf("HP:0001250"), loaded.indexOf("HP:0001250"));
+    }
+
+    @Test
+    public void testOutdatedOrMissingSnapshotIsIgnored() throws IOException
+    {
+        PhenotypeTermIndex index = new PhenotypeTermIndex(Arrays.asList("HP:0000118"), new int[][] { { 0 } },
+            new double[] { 1.0 });
+        File file = new File(this.folder.getRoot(), "index.bin");
+        assertNull(PhenotypeTermIndexSnapshot.read(file, "v1"));
+
+        PhenotypeTermIndexSnapshot.write(file, "v1", index);
+        assertNull(PhenotypeTermIndexSnapshot.read(file, "v2"));
+    }
+}
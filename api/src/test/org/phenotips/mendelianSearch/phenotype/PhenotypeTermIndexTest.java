@@ -0,0 +1,65 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.phenotype;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link PhenotypeTermIndex}.
+ *
+ * @version $Id$
+ */
+public class PhenotypeTermIndexTest
+{
+    /**
+     * A small DAG: root - a - {b, c}, with d under both b and c, and e under c only.
+     */
+    private final PhenotypeTermIndex index = new PhenotypeTermIndex(
+        Arrays.asList("root", "a", "b", "c", "d", "e"),
+        new int[][] { { 0 }, { 1, 0 }, { 2, 1, 0 }, { 3, 1, 0 }, { 4, 2, 3, 1, 0 }, { 5, 3, 1, 0 } },
+        new double[] { 0.0, 0.5, 1.0, 2.0, 3.0, 2.5 });
+
+    @Test
+    public void testTermsAreNumberedByDecreasingIC()
+    {
+        for (int i = 1; i < this.index.size(); i++) {
+            assertTrue(this.index.getTermIC(i - 1) >= this.index.getTermIC(i));
+        }
+        assertEquals(0, this.index.indexOf("d"));
+        assertEquals(-1, this.index.indexOf("unknown"));
+    }
+
+    @Test
+    public void testBestCommonAncestor()
+    {
+        int d = this.index.indexOf("d");
+        int e = this.index.indexOf("e");
+        int b = this.index.indexOf("b");
+        assertEquals("c", this.index.getTermId(this.index.getBestCommonAncestor(d, e)));
+        assertEquals("c", this.index.getTermId(this.index.getBestCommonAncestor(e, d)));
+        assertEquals("a", this.index.getTermId(this.index.getBestCommonAncestor(b, e)));
+        assertEquals("d", this.index.getTermId(this.index.getBestCommonAncestor(d, d)));
+        assertEquals("The root has no information content", -1,
+            this.index.getBestCommonAncestor(this.index.indexOf("root"), d));
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.phenotype;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link TermIdInterner}.
+ *
+ * @version $Id$
+ */
+public class TermIdInternerTest
+{
+    @Test
+    public void testLookup()
+    {
+        String[] ids = new String[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = String.format("HP:%07d", i * 7);
+        }
+        TermIdInterner interner = new TermIdInterner(ids);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(i, interner.indexOf(new String(ids[i])));
+        }
+        assertEquals(-1, interner.indexOf("HP:0000001"));
+        assertEquals(-1, interner.indexOf(null));
+    }
+
+    @Test
+    public void testCollidingIds()
+    {
+        // "Aa" and "BB" have the same hash code
+        TermIdInterner interner = new TermIdInterner(new String[] { "Aa", "BB" });
+        assertEquals(0, interner.indexOf("Aa"));
+        assertEquals(1, interner.indexOf("BB"));
+        assertEquals(-1, interner.indexOf("C#"));
+        assertEquals(-1, new TermIdInterner(new String[0]).indexOf("Aa"));
+    }
+}
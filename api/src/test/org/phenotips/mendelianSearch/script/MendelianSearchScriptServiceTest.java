@@ -0,0 +1,192 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.script;
+
+import org.phenotips.mendelianSearch.MendelianSearch;
+import org.phenotips.mendelianSearch.MendelianSearchRequestFactory;
+import org.phenotips.mendelianSearch.PatientView;
+import org.phenotips.mendelianSearch.PatientViewFactory;
+import org.phenotips.mendelianSearch.internal.MendelianSearchRequest;
+import org.phenotips.mendelianSearch.internal.MendelianSearchResult;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.web.XWikiRequest;
+import com.xpn.xwiki.web.XWikiResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MendelianSearchScriptServiceTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<MendelianSearchScriptService> mocker =
+        new MockitoComponentMockingRule<MendelianSearchScriptService>(MendelianSearchScriptService.class);
+
+    private MendelianSearch search;
+
+    private PatientViewFactory viewFactory;
+
+    private XWikiRequest rawRequest;
+
+    private XWikiResponse rawResponse;
+
+    private StringWriter body;
+
+    private List<PatientView> views;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setup() throws ComponentLookupException, IOException
+    {
+        this.rawRequest = mock(XWikiRequest.class);
+        MendelianSearchRequestFactory requestFactory = this.mocker.getInstance(MendelianSearchRequestFactory.class);
+        when(requestFactory.makeRequest(this.rawRequest)).thenAnswer(new Answer<MendelianSearchRequest>()
+        {
+            @Override
+            public MendelianSearchRequest answer(InvocationOnMock invocation)
+            {
+                // The second page of two open patients
+                MendelianSearchRequest request = new MendelianSearchRequest();
+                request.setId("R1");
+                request.set("sort", "phenotypeScore");
+                request.set("asc", false);
+                request.set("page", 2);
+                request.set("resultsPerPage", 2);
+                return request;
+            }
+        });
+
+        this.views = new ArrayList<PatientView>();
+        for (int i = 1; i <= 5; i++) {
+            this.views.add(mockView("P" + i, "open", i / 10.0));
+        }
+        this.views.add(mockView("P6", "restricted", 0.9));
+        this.search = this.mocker.getInstance(MendelianSearch.class);
+        when(this.search.getResult(Matchers.any(MendelianSearchRequest.class)))
+            .thenReturn(new MendelianSearchResult(this.views, 8));
+        when(this.search.findValidIds()).thenReturn(new HashSet<String>(Arrays.asList("P1", "P2", "P3", "P4")));
+
+        this.viewFactory = this.mocker.getInstance(PatientViewFactory.class);
+        when(this.viewFactory.completePatientViews(Matchers.anyList(), Matchers.any(MendelianSearchRequest.class)))
+            .then(AdditionalAnswers.returnsFirstArg());
+
+        // Like a servlet response, the body is buffered until committed, and resetting it discards the buffer
+        this.body = new StringWriter();
+        this.rawResponse = mock(XWikiResponse.class);
+        when(this.rawResponse.getWriter()).thenReturn(new PrintWriter(this.body));
+        Mockito.doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                MendelianSearchScriptServiceTest.this.body.getBuffer().setLength(0);
+                return null;
+            }
+        }).when(this.rawResponse).reset();
+    }
+
+    @Test
+    public void testStreamedResultMatchesTheSearchResult() throws ComponentLookupException
+    {
+        MendelianSearchScriptService service = this.mocker.getComponentUnderTest();
+        JSONObject expected = service.search(this.rawRequest);
+
+        assertTrue(service.search(this.rawRequest, this.rawResponse));
+        Mockito.verify(this.rawResponse).setContentType("application/json");
+        JSONObject streamed = new JSONObject(this.body.toString()).getJSONObject("results");
+        assertTrue(streamed.toString(), streamed.similar(expected));
+
+        assertEquals(5, streamed.getJSONObject("meta").getInt("numberOfResults"));
+        assertEquals(8, streamed.getJSONObject("meta").getInt("totalResults"));
+        assertEquals("R1", streamed.getJSONObject("meta").getString("requestId"));
+        assertEquals(2, streamed.getJSONArray("patients").length());
+        assertEquals("P3", streamed.getJSONArray("patients").getJSONObject(0).getString("id"));
+        assertEquals("P2", streamed.getJSONArray("patients").getJSONObject(1).getString("id"));
+    }
+
+    @Test
+    public void testFailedSearchSendsAnErrorWithoutABody() throws ComponentLookupException, IOException
+    {
+        when(this.search.getResult(Matchers.any(MendelianSearchRequest.class)))
+            .thenThrow(new IllegalStateException("The variant store is down"));
+
+        assertTrue(this.mocker.getComponentUnderTest().search(this.rawRequest, this.rawResponse));
+        Mockito.verify(this.rawResponse).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        Mockito.verify(this.rawResponse, Mockito.never()).getWriter();
+        assertEquals("", this.body.toString());
+    }
+
+    @Test
+    public void testFailureWhileWritingDiscardsThePartialBody() throws ComponentLookupException, IOException
+    {
+        when(this.views.get(1).toJSON(Matchers.anyInt())).thenThrow(new IllegalStateException("Unknown variant"));
+
+        assertTrue(this.mocker.getComponentUnderTest().search(this.rawRequest, this.rawResponse));
+        Mockito.verify(this.rawResponse).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        assertEquals("", this.body.toString());
+    }
+
+    @Test
+    public void testFailureAfterTheResponseIsCommittedIsNotAnswered() throws ComponentLookupException, IOException
+    {
+        when(this.views.get(1).toJSON(Matchers.anyInt())).thenThrow(new IllegalStateException("Unknown variant"));
+        when(this.rawResponse.isCommitted()).thenReturn(true);
+
+        assertFalse(this.mocker.getComponentUnderTest().search(this.rawRequest, this.rawResponse));
+        Mockito.verify(this.rawResponse, Mockito.never()).reset();
+        Mockito.verify(this.rawResponse, Mockito.never()).sendError(Matchers.anyInt());
+    }
+
+    private static PatientView mockView(String id, String type, double score)
+    {
+        PatientView view = mock(PatientView.class);
+        when(view.getPatientId()).thenReturn(id);
+        when(view.getType()).thenReturn(type);
+        when(view.getPhenotypeScore()).thenReturn(score);
+        JSONObject json = new JSONObject();
+        json.put("id", id);
+        json.put("phenotypeScore", score);
+        when(view.toJSON(Matchers.anyInt())).thenReturn(json);
+        return view;
+    }
+}
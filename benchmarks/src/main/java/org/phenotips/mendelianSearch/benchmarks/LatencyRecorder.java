@@ -0,0 +1,118 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.benchmarks;
+
+import java.util.Arrays;
+
+/**
+ * Records the latencies of one type of operation, on a single thread. Recorders of different threads are
+ * {@link #add(LatencyRecorder) merged} once the measurement is over, and then summarized with exact percentiles.
+ *
+ * @version $Id$
+ */
+public class LatencyRecorder
+{
+    private long[] latencies = new long[1024];
+
+    private int count;
+
+    private int errors;
+
+    /**
+     * Record the latency of a successful operation.
+     *
+     * @param nanos the latency, in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        if (this.count == this.latencies.length) {
+            this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+        }
+        this.latencies[this.count++] = nanos;
+    }
+
+    /**
+     * Record a failed operation, whose latency is not recorded.
+     */
+    public void recordError()
+    {
+        this.errors++;
+    }
+
+    /**
+     * Add the measurements of another recorder to this one.
+     *
+     * @param other the recorder to merge, not modified
+     */
+    public void add(LatencyRecorder other)
+    {
+        for (int i = 0; i < other.count; i++) {
+            this.record(other.latencies[i]);
+        }
+        this.errors += other.errors;
+    }
+
+    /**
+     * @return the number of successful operations
+     */
+    public int getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * @return the number of failed operations
+     */
+    public int getErrors()
+    {
+        return this.errors;
+    }
+
+    /**
+     * @param seconds the duration of the measurement
+     * @return a line with the number of operations, errors, the throughput, and the mean, median, 90th, 99th, 99.9th
+     *         percentile and maximum latencies in milliseconds
+     */
+    public String summarize(double seconds)
+    {
+        long[] sorted = Arrays.copyOf(this.latencies, this.count);
+        Arrays.sort(sorted);
+        double total = 0;
+        for (long latency : sorted) {
+            total += latency;
+        }
+        return String.format("%8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f", this.count, this.errors,
+            this.count / seconds, millis((this.count == 0) ? 0 : total / this.count), millis(percentile(sorted, 0.5)),
+            millis(percentile(sorted, 0.9)), millis(percentile(sorted, 0.99)), millis(percentile(sorted, 0.999)),
+            millis(percentile(sorted, 1)));
+    }
+
+    private static double percentile(long[] sorted, double quantile)
+    {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static double millis(double nanos)
+    {
+        return nanos / 1e6;
+    }
+}
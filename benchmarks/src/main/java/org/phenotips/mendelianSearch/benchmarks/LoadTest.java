@@ -0,0 +1,434 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.benchmarks;
+
+import org.phenotips.mendelianSearch.script.MendelianSearchScriptService;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.web.XWikiRequest;
+import com.xpn.xwiki.web.XWikiResponse;
+
+/**
+ * Fires concurrent searches, result pages and overviews at {@link MendelianSearchScriptService}, backed by a
+ * {@link SyntheticVariantStore} and a {@link SyntheticCohort}, and reports the latency distribution of each type of
+ * request and the heap usage. Each client thread starts a new search, with a random gene and phenotype, or pages
+ * through the results of its last search as the results table does, or asks for the overview of its last search.
+ * Options are given as {@code name=value} arguments, run without arguments to see them and their defaults, e.g.
+ * {@code java -cp benchmarks.jar org.phenotips.mendelianSearch.benchmarks.LoadTest patients=300000 threads=16}.
+ *
+ * @version $Id$
+ */
+public final class LoadTest
+{
+    private static final String SEARCH = "search";
+
+    private static final String PAGE = "page";
+
+    private static final String OVERVIEW = "overview";
+
+    private static final String[] REQUEST_TYPES = { SEARCH, PAGE, OVERVIEW };
+
+    private static final String[] ALLELE_FREQUENCIES = { "0.1", "1", "5" };
+
+    private static final int RESULTS_PER_PAGE = 20;
+
+    private static final double MEGABYTE = 1024 * 1024;
+
+    private final Map<String, String> options;
+
+    private MendelianSearchScriptService service;
+
+    private SyntheticVocabulary hpo;
+
+    private List<String> genes;
+
+    private double[] geneWeights;
+
+    private List<String> variantCategories;
+
+    private final AtomicLong peakHeap = new AtomicLong();
+
+    private LoadTest(Map<String, String> options)
+    {
+        this.options = options;
+    }
+
+    /**
+     * Run the load test.
+     *
+     * @param args the options, as {@code name=value}
+     * @throws Exception if the search service fails to initialize
+     */
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        options.put("patients", "100000");
+        options.put("termsPerPatient", "20");
+        options.put("vocabularySize", "13000");
+        options.put("diseases", "7000");
+        options.put("genes", "20000");
+        options.put("sitesPerGene", "50");
+        options.put("variantsPerPatient", "40");
+        options.put("threads", "8");
+        options.put("warmup", "30");
+        options.put("duration", "60");
+        options.put("searchRatio", "0.5");
+        options.put("overviewRatio", "0.15");
+        options.put("maxResults", "1000");
+        options.put("seed", "1");
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2 || !options.containsKey(option[0])) {
+                System.err.println("Unknown option: " + arg + ", the options and their defaults are " + options);
+                System.exit(1);
+            }
+            options.put(option[0], option[1]);
+        }
+        System.out.println("Options: " + options);
+        new LoadTest(options).run();
+    }
+
+    private void run() throws Exception
+    {
+        long start = System.nanoTime();
+        this.setUp();
+        System.out.println(String.format("Setup: %.1f s, live heap %.0f MB", (System.nanoTime() - start) / 1e9,
+            getLiveHeap() / MEGABYTE));
+
+        this.runPhase(this.getInt("warmup"));
+        System.out.println(String.format("Warmup done, live heap %.0f MB", getLiveHeap() / MEGABYTE));
+
+        this.peakHeap.set(0);
+        int duration = this.getInt("duration");
+        Map<String, LatencyRecorder> results = this.runPhase(duration);
+        System.out.println(String.format("%-9s %8s %7s %9s %9s %9s %9s %9s %9s %9s", "request", "count", "errors",
+            "ops/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (String type : REQUEST_TYPES) {
+            System.out.println(String.format("%-9s %s", type, results.get(type).summarize(duration)));
+        }
+        System.out.println(String.format("Heap: peak %.0f MB, live after the run %.0f MB, max %.0f MB",
+            this.peakHeap.get() / MEGABYTE, getLiveHeap() / MEGABYTE,
+            ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax() / MEGABYTE));
+        System.out.println("Search metrics: " + this.service.getMetrics().toString(2));
+    }
+
+    private void setUp() throws Exception
+    {
+        long seed = Long.parseLong(this.options.get("seed"));
+        this.hpo = SyntheticVocabularies.createHPO(this.getInt("vocabularySize"), seed);
+        SyntheticVocabulary mim = SyntheticVocabularies.createMIM(this.hpo, this.getInt("diseases"), seed + 1);
+        SyntheticCohort cohort =
+            new SyntheticCohort(this.hpo, this.getInt("patients"), this.getInt("termsPerPatient"), seed + 2);
+        SyntheticVariantStore store = new SyntheticVariantStore(cohort.getPatientIds(), this.getInt("genes"),
+            this.getInt("sitesPerGene"), this.getInt("variantsPerPatient"), seed + 3);
+        System.out.println(String.format("Generated %d patients carrying %d variants", cohort.getPatientIds().size(),
+            store.getVariantCount()));
+
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("mendelianSearch.scoring.asyncInitialization", Boolean.FALSE);
+        this.service = SearchFactory.createScriptService(this.hpo, mim, cohort, store, properties);
+        this.variantCategories = new ArrayList<String>(this.service.getVariantCategories().keySet());
+
+        // Genes with more carriers are picked more often, large genes are both slower to query and often queried
+        this.genes = store.getGenes();
+        this.geneWeights = new double[this.genes.size()];
+        double total = 0;
+        for (int g = 0; g < this.genes.size(); g++) {
+            total += store.getCarriedVariantCount(this.genes.get(g));
+            this.geneWeights[g] = total;
+        }
+    }
+
+    private Map<String, LatencyRecorder> runPhase(int seconds) throws InterruptedException
+    {
+        final AtomicBoolean stopped = new AtomicBoolean();
+        int threads = this.getInt("threads");
+        List<Client> clients = new ArrayList<Client>(threads);
+        List<Thread> clientThreads = new ArrayList<Thread>(threads);
+        long seed = Long.parseLong(this.options.get("seed"));
+        for (int i = 0; i < threads; i++) {
+            Client client = new Client(new Random(seed * 31 + i + System.nanoTime()), stopped);
+            clients.add(client);
+            clientThreads.add(new Thread(client, "load-test-client-" + i));
+        }
+        Thread sampler = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while (!stopped.get()) {
+                    long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+                    if (used > LoadTest.this.peakHeap.get()) {
+                        LoadTest.this.peakHeap.set(used);
+                    }
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            }
+        }, "load-test-heap-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+        for (Thread thread : clientThreads) {
+            thread.start();
+        }
+        TimeUnit.SECONDS.sleep(seconds);
+        stopped.set(true);
+        for (Thread thread : clientThreads) {
+            thread.join();
+        }
+
+        Map<String, LatencyRecorder> results = new HashMap<String, LatencyRecorder>();
+        for (String type : REQUEST_TYPES) {
+            LatencyRecorder merged = new LatencyRecorder();
+            for (Client client : clients) {
+                merged.add(client.latencies.get(type));
+            }
+            results.put(type, merged);
+        }
+        return results;
+    }
+
+    /**
+     * @return the heap used by live objects, i.e. the heap used after the last collection of each heap memory pool
+     */
+    private static long getLiveHeap()
+    {
+        System.gc();
+        long live = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (pool.getType() == MemoryType.HEAP && usage != null) {
+                live += usage.getUsed();
+            }
+        }
+        return live;
+    }
+
+    private int getInt(String option)
+    {
+        return Integer.parseInt(this.options.get(option));
+    }
+
+    private Map<String, String[]> createSearchParameters(Random random)
+    {
+        Map<String, String[]> parameters = new HashMap<String, String[]>();
+        int g = -Arrays.binarySearch(this.geneWeights, random.nextDouble()
+            * this.geneWeights[this.geneWeights.length - 1]) - 1;
+        parameters.put("gene", new String[] { this.genes.get(Math.max(0, Math.min(g, this.genes.size() - 1))) });
+
+        List<VocabularyTerm> phenotype = SyntheticVocabularies.getRandomPhenotype(
+            SyntheticVocabularies.getPhenotypes(this.hpo), 3 + random.nextInt(8), random);
+        String[] phenotypeIds = new String[phenotype.size()];
+        for (int i = 0; i < phenotypeIds.length; i++) {
+            phenotypeIds[i] = phenotype.get(i).getId();
+        }
+        parameters.put("phenotype", phenotypeIds);
+
+        List<String> categories = new ArrayList<String>();
+        for (String category : this.variantCategories) {
+            if (random.nextDouble() < 0.6) {
+                categories.add(category);
+            }
+        }
+        if (categories.isEmpty()) {
+            categories.add(this.variantCategories.get(random.nextInt(this.variantCategories.size())));
+        }
+        parameters.put("variant-category", categories.toArray(new String[categories.size()]));
+        parameters.put("allele-freq-pc",
+            new String[] { ALLELE_FREQUENCIES[random.nextInt(ALLELE_FREQUENCIES.length)] });
+        parameters.put("allele-freq-exac",
+            new String[] { ALLELE_FREQUENCIES[random.nextInt(ALLELE_FREQUENCIES.length)] });
+        parameters.put("phenotype-matching", new String[] { "fuzzy" });
+        parameters.put("max-results", new String[] { this.options.get("maxResults") });
+        // Most searches look for carriers of a matching variant
+        parameters.put("matchGene", new String[] { (random.nextDouble() < 0.9) ? "1" : "0" });
+        parameters.put("matchPhenotype", new String[] { "1" });
+        return parameters;
+    }
+
+    private static XWikiRequest createRequest(final Map<String, String[]> parameters)
+    {
+        XWikiRequest request = ScorerFactory.mock(XWikiRequest.class);
+        Mockito.doAnswer(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation)
+            {
+                String[] values = parameters.get(invocation.getArguments()[0]);
+                return (values == null) ? null : values[0];
+            }
+        }).when(request).getParameter(Matchers.anyString());
+        Mockito.doAnswer(new Answer<String[]>()
+        {
+            @Override
+            public String[] answer(InvocationOnMock invocation)
+            {
+                return parameters.get(invocation.getArguments()[0]);
+            }
+        }).when(request).getParameterValues(Matchers.anyString());
+        return request;
+    }
+
+    private static XWikiResponse createResponse() throws Exception
+    {
+        XWikiResponse response = ScorerFactory.mock(XWikiResponse.class);
+        // Discards the output, like a fast client would consume it
+        Mockito.doReturn(new PrintWriter(new Writer()
+        {
+            @Override
+            public void write(char[] buffer, int offset, int length)
+            {
+                // Discarded
+            }
+
+            @Override
+            public void flush()
+            {
+                // Nothing to flush
+            }
+
+            @Override
+            public void close()
+            {
+                // Nothing to close
+            }
+        })).when(response).getWriter();
+        return response;
+    }
+
+    /**
+     * A client sending requests one after the other, as fast as they are answered.
+     */
+    private final class Client implements Runnable
+    {
+        private final Random random;
+
+        private final AtomicBoolean stopped;
+
+        private final Map<String, LatencyRecorder> latencies = new HashMap<String, LatencyRecorder>();
+
+        private Map<String, String[]> lastSearch;
+
+        private int lastPage;
+
+        Client(Random random, AtomicBoolean stopped)
+        {
+            this.random = random;
+            this.stopped = stopped;
+            for (String type : REQUEST_TYPES) {
+                this.latencies.put(type, new LatencyRecorder());
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            double searchRatio = Double.parseDouble(LoadTest.this.options.get("searchRatio"));
+            double overviewRatio = Double.parseDouble(LoadTest.this.options.get("overviewRatio"));
+            while (!this.stopped.get()) {
+                double next = this.random.nextDouble();
+                try {
+                    if (this.lastSearch == null || next < searchRatio) {
+                        this.search();
+                    } else if (next < searchRatio + overviewRatio) {
+                        this.overview();
+                    } else {
+                        this.page();
+                    }
+                } catch (Exception ex) {
+                    // Keep the load going, failures are counted and reported
+                    System.err.println("Request failed: " + ex);
+                }
+            }
+        }
+
+        private void search()
+        {
+            this.lastSearch = createSearchParameters(this.random);
+            this.lastPage = 1;
+            XWikiRequest request = createRequest(this.lastSearch);
+            long start = System.nanoTime();
+            try {
+                LoadTest.this.service.search(request);
+                this.latencies.get(SEARCH).record(System.nanoTime() - start);
+            } catch (RuntimeException ex) {
+                this.latencies.get(SEARCH).recordError();
+                throw ex;
+            }
+        }
+
+        private void page() throws Exception
+        {
+            Map<String, String[]> parameters = new HashMap<String, String[]>(this.lastSearch);
+            parameters.put(PAGE, new String[] { String.valueOf(++this.lastPage) });
+            parameters.put("resultsPerPage", new String[] { String.valueOf(RESULTS_PER_PAGE) });
+            parameters.put("sort", new String[] { "phenotypeScore" });
+            parameters.put("asc", new String[] { "false" });
+            XWikiRequest request = createRequest(parameters);
+            XWikiResponse response = createResponse();
+            long start = System.nanoTime();
+            try {
+                if (!LoadTest.this.service.search(request, response)) {
+                    throw new IllegalStateException("Failed to write the results");
+                }
+                this.latencies.get(PAGE).record(System.nanoTime() - start);
+            } catch (RuntimeException ex) {
+                this.latencies.get(PAGE).recordError();
+                throw ex;
+            }
+        }
+
+        private void overview()
+        {
+            XWikiRequest request = createRequest(this.lastSearch);
+            long start = System.nanoTime();
+            try {
+                LoadTest.this.service.getOverview(request);
+                this.latencies.get(OVERVIEW).record(System.nanoTime() - start);
+            } catch (RuntimeException ex) {
+                this.latencies.get(OVERVIEW).recordError();
+                throw ex;
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.benchmarks;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.event.CacheEntryListener;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread safe, map based cache, standing in for the caches created by the XWiki cache manager. It is either unbounded
+ * or evicts the least recently used entries, but entries never expire.
+ *
+ * @param <T> the type of the cached values
+ * @version $Id$
+ */
+public class MapCache<T> implements Cache<T>
+{
+    private final Map<String, T> entries;
+
+    /**
+     * Create an unbounded cache.
+     */
+    public MapCache()
+    {
+        this(0);
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param maxEntries the maximum number of entries, or {@code 0} for an unbounded cache
+     */
+    public MapCache(final int maxEntries)
+    {
+        if (maxEntries <= 0) {
+            this.entries = new ConcurrentHashMap<String, T>();
+        } else {
+            this.entries = Collections.synchronizedMap(new LinkedHashMap<String, T>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, T> eldest)
+                {
+                    return size() > maxEntries;
+                }
+            });
+        }
+    }
+
+    @Override
+    public void set(String key, T value)
+    {
+        this.entries.put(key, value);
+    }
+
+    @Override
+    public T get(String key)
+    {
+        return this.entries.get(key);
+    }
+
+    @Override
+    public void remove(String key)
+    {
+        this.entries.remove(key);
+    }
+
+    @Override
+    public void removeAll()
+    {
+        this.entries.clear();
+    }
+
+    @Override
+    public void addCacheEntryListener(CacheEntryListener<T> listener)
+    {
+        // Not used
+    }
+
+    @Override
+    public void removeCacheEntryListener(CacheEntryListener<T> listener)
+    {
+        // Not used
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.entries.clear();
+    }
+}
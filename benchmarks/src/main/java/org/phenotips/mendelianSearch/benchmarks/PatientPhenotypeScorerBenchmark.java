@@ -0,0 +1,137 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.benchmarks;
+
+import org.phenotips.mendelianSearch.phenotype.DefaultPatientPhenotypeScorer;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the scoring of a whole cohort against a query phenotype with
+ * {@link DefaultPatientPhenotypeScorer#getScoresById(List, Set, double)}, as done by every search. The patient
+ * profiles are cached during the setup, so this measures the steady state of a running instance, not the first search
+ * after a restart.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class PatientPhenotypeScorerBenchmark
+{
+    /** The number of distinct queries to cycle through, a power of two. */
+    private static final int QUERIES = 64;
+
+    /** The number of phenotypes in the synthetic vocabulary. */
+    @Param({ "13000" })
+    public int vocabularySize;
+
+    /** The number of diseases in the synthetic vocabulary. */
+    @Param({ "7000" })
+    public int diseases;
+
+    /** The number of patients in the cohort. */
+    @Param({ "1000", "10000", "100000" })
+    public int patients;
+
+    /** The number of phenotypes of each patient. */
+    @Param({ "5", "20", "50" })
+    public int termsPerPatient;
+
+    /** The number of phenotypes in each query. */
+    @Param({ "10" })
+    public int termsPerQuery;
+
+    /** The minimum score of the returned patients, {@code 0} to return all of them. */
+    @Param({ "0", "0.3" })
+    public double minScore;
+
+    private DefaultPatientPhenotypeScorer scorer;
+
+    private Set<String> ids;
+
+    private List<List<VocabularyTerm>> queries;
+
+    private int next;
+
+    /**
+     * Generate the vocabularies and the cohort, build the scorers, and fill the profile cache.
+     *
+     * @throws Exception if a scorer fails to initialize
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        SyntheticVocabulary hpo = SyntheticVocabularies.createHPO(this.vocabularySize, 1);
+        SyntheticVocabulary mim = SyntheticVocabularies.createMIM(hpo, this.diseases, 2);
+        SyntheticCohort cohort = new SyntheticCohort(hpo, this.patients, this.termsPerPatient, 3);
+        this.scorer = ScorerFactory.createPatientPhenotypeScorer(ScorerFactory.createPhenotypeScorer(hpo, mim), hpo,
+            cohort);
+        this.ids = new LinkedHashSet<String>(cohort.getPatientIds());
+
+        Random random = new Random(4);
+        List<VocabularyTerm> phenotypes = SyntheticVocabularies.getPhenotypes(hpo);
+        this.queries = new ArrayList<List<VocabularyTerm>>(QUERIES);
+        for (int i = 0; i < QUERIES; i++) {
+            this.queries.add(SyntheticVocabularies.getRandomPhenotype(phenotypes, this.termsPerQuery, random));
+        }
+        this.scorer.getScoresById(this.queries.get(0), this.ids, this.minScore);
+    }
+
+    /**
+     * Release the scorer.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.scorer.dispose();
+    }
+
+    /**
+     * @return the scores of the matching patients for the next query
+     */
+    @Benchmark
+    public Map<String, Double> getScoresById()
+    {
+        this.next = (this.next + 1) & (QUERIES - 1);
+        return this.scorer.getScoresById(this.queries.get(this.next), this.ids, this.minScore);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.benchmarks;
+
+import org.phenotips.mendelianSearch.phenotype.DefaultPhenotypeScorer;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the pairwise phenotype comparisons of {@link DefaultPhenotypeScorer}, cycling through a fixed set of random
+ * phenotype pairs so that the results don't depend on a single lucky pair.
+ *
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class PhenotypeScorerBenchmark
+{
+    /** The number of distinct phenotype pairs to cycle through, a power of two. */
+    private static final int PAIRS = 1024;
+
+    /** The number of phenotypes in the synthetic vocabulary, the HPO has about 13000. */
+    @Param({ "13000" })
+    public int vocabularySize;
+
+    /** The number of diseases in the synthetic vocabulary, OMIM has about 7000 with phenotypes. */
+    @Param({ "7000" })
+    public int diseases;
+
+    /** The number of terms in each compared phenotype. */
+    @Param({ "5", "20", "50" })
+    public int termsPerPhenotype;
+
+    private DefaultPhenotypeScorer scorer;
+
+    private List<List<VocabularyTerm>> queries;
+
+    private List<List<VocabularyTerm>> matches;
+
+    private int next;
+
+    /**
+     * Generate the vocabularies and the phenotypes, and build the scorer.
+     *
+     * @throws Exception if the scorer fails to initialize
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        SyntheticVocabulary hpo = SyntheticVocabularies.createHPO(this.vocabularySize, 1);
+        SyntheticVocabulary mim = SyntheticVocabularies.createMIM(hpo, this.diseases, 2);
+        this.scorer = ScorerFactory.createPhenotypeScorer(hpo, mim);
+
+        Random random = new Random(3);
+        List<VocabularyTerm> phenotypes = SyntheticVocabularies.getPhenotypes(hpo);
+        this.queries = new ArrayList<List<VocabularyTerm>>(PAIRS);
+        this.matches = new ArrayList<List<VocabularyTerm>>(PAIRS);
+        for (int i = 0; i < PAIRS; i++) {
+            this.queries.add(SyntheticVocabularies.getRandomPhenotype(phenotypes, this.termsPerPhenotype, random));
+            this.matches.add(SyntheticVocabularies.getRandomPhenotype(phenotypes, this.termsPerPhenotype, random));
+        }
+    }
+
+    /**
+     * @return the symmetric similarity of the next pair of phenotypes
+     */
+    @Benchmark
+    public double getScore()
+    {
+        int i = this.nextPair();
+        return this.scorer.getScore(this.queries.get(i), this.matches.get(i));
+    }
+
+    /**
+     * @return the best term to term matches of the next pair of phenotypes
+     */
+    @Benchmark
+    public List<Map<String, Object>> getDetailedMatches()
+    {
+        int i = this.nextPair();
+        return this.scorer.getDetailedMatches(this.queries.get(i), this.matches.get(i));
+    }
+
+    private int nextPair()
+    {
+        this.next = (this.next + 1) & (PAIRS - 1);
+        return this.next;
+    }
+}
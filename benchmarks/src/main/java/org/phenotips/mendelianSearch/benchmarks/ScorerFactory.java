@@ -0,0 +1,312 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.benchmarks;
+
+import org.phenotips.data.Feature;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.Owner;
+import org.phenotips.data.permissions.PatientAccess;
+import org.phenotips.data.permissions.PermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+import org.phenotips.mendelianSearch.MendelianSearchMetrics;
+import org.phenotips.mendelianSearch.PatientAccessIndex;
+import org.phenotips.mendelianSearch.internal.DefaultMendelianSearchMetrics;
+import org.phenotips.mendelianSearch.internal.DefaultPatientAccessIndex;
+import org.phenotips.mendelianSearch.phenotype.DefaultPatientPhenotypeScorer;
+import org.phenotips.mendelianSearch.phenotype.DefaultPhenotypeScorer;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyManager;
+
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.ObservationManager;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Provider;
+
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.helpers.NOPLogger;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Creates phenotype scorers outside of a component manager, wired to synthetic vocabularies and cohorts instead of the
+ * Solr vocabularies and the wiki. The other dependencies are stub-only mocks, which don't record invocations and so
+ * don't accumulate memory during long benchmark runs.
+ *
+ * @version $Id$
+ */
+public final class ScorerFactory
+{
+    private static final String LOGGER = "logger";
+
+    private static final String VOCABULARY_MANAGER = "vocabularyManager";
+
+    private static final String CONFIGURATION = "configuration";
+
+    private static final String OBSERVATION_MANAGER = "observationManager";
+
+    private static final String METRICS = "metrics";
+
+    private ScorerFactory()
+    {
+        // Utility class
+    }
+
+    /**
+     * Create and synchronously initialize a phenotype scorer.
+     *
+     * @param hpo the phenotype vocabulary
+     * @param mim the disease vocabulary, from which the information content of the phenotypes is computed
+     * @return the initialized scorer
+     * @throws Exception if the scorer fails to initialize
+     */
+    public static DefaultPhenotypeScorer createPhenotypeScorer(final Vocabulary hpo, Vocabulary mim) throws Exception
+    {
+        VocabularyManager vocabularyManager = createVocabularyManager(hpo, mim);
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("mendelianSearch.scoring.asyncInitialization", Boolean.FALSE);
+
+        DefaultPhenotypeScorer scorer = new DefaultPhenotypeScorer();
+        ReflectionUtils.setFieldValue(scorer, LOGGER, NOPLogger.NOP_LOGGER);
+        ReflectionUtils.setFieldValue(scorer, VOCABULARY_MANAGER, vocabularyManager);
+        // No permanent directory, so the term index is always computed and never saved
+        ReflectionUtils.setFieldValue(scorer, "environment", mock(Environment.class));
+        ReflectionUtils.setFieldValue(scorer, CONFIGURATION, createConfiguration(properties));
+        scorer.initialize();
+        return scorer;
+    }
+
+    /**
+     * Create and initialize a patient phenotype scorer.
+     *
+     * @param scorer the phenotype scorer, as created by {@link #createPhenotypeScorer(Vocabulary, Vocabulary)}
+     * @param hpo the phenotype vocabulary
+     * @param cohort the patients, all visible
+     * @return the initialized scorer
+     * @throws Exception if the scorer fails to initialize
+     */
+    public static DefaultPatientPhenotypeScorer createPatientPhenotypeScorer(DefaultPhenotypeScorer scorer,
+        Vocabulary hpo, SyntheticCohort cohort) throws Exception
+    {
+        MendelianSearchMetrics metrics = new DefaultMendelianSearchMetrics();
+        PatientRepository repository = createPatientRepository(cohort);
+        return createPatientPhenotypeScorer(scorer, hpo, repository,
+            createAccessIndex(repository, createContextProvider(), metrics), metrics);
+    }
+
+    static DefaultPatientPhenotypeScorer createPatientPhenotypeScorer(DefaultPhenotypeScorer scorer, Vocabulary hpo,
+        PatientRepository repository, PatientAccessIndex accessIndex, MendelianSearchMetrics metrics) throws Exception
+    {
+        DefaultPatientPhenotypeScorer patientScorer = new DefaultPatientPhenotypeScorer();
+        ReflectionUtils.setFieldValue(patientScorer, "scorer", scorer);
+        ReflectionUtils.setFieldValue(patientScorer, VOCABULARY_MANAGER, createVocabularyManager(hpo, null));
+        ReflectionUtils.setFieldValue(patientScorer, "accessIndex", accessIndex);
+        ReflectionUtils.setFieldValue(patientScorer, "pr", repository);
+        ReflectionUtils.setFieldValue(patientScorer, "cacheManager", createCacheManager());
+        ReflectionUtils.setFieldValue(patientScorer, OBSERVATION_MANAGER, mock(ObservationManager.class));
+        ReflectionUtils.setFieldValue(patientScorer, CONFIGURATION,
+            createConfiguration(Collections.<String, Object>emptyMap()));
+        ReflectionUtils.setFieldValue(patientScorer, METRICS, metrics);
+        patientScorer.initialize();
+        return patientScorer;
+    }
+
+    /**
+     * @return a cache manager creating {@link MapCache}s, bounded like the requested LRU caches; entries never expire
+     * @throws Exception never, declared by the mocked cache manager
+     */
+    static CacheManager createCacheManager() throws Exception
+    {
+        CacheManager cacheManager = mock(CacheManager.class);
+        Mockito.doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                CacheConfiguration configuration = (CacheConfiguration) invocation.getArguments()[0];
+                Object eviction = configuration.get(EntryEvictionConfiguration.CONFIGURATIONID);
+                int maxEntries = (eviction instanceof LRUEvictionConfiguration)
+                    ? ((LRUEvictionConfiguration) eviction).getMaxEntries() : 0;
+                return new MapCache<Object>(maxEntries);
+            }
+        }).when(cacheManager).createNewLocalCache(Matchers.any(CacheConfiguration.class));
+        return cacheManager;
+    }
+
+    /**
+     * @param repository the patients, looked up by id when filtering sets of patients
+     * @param xcontext provides the context of the current user
+     * @param metrics the metrics recording the access index lookups
+     * @return an initialized access index, over a permissions manager granting view access to all the patients
+     * @throws Exception if the index fails to initialize
+     */
+    static PatientAccessIndex createAccessIndex(PatientRepository repository, Provider<XWikiContext> xcontext,
+        MendelianSearchMetrics metrics) throws Exception
+    {
+        DefaultPatientAccessIndex accessIndex = new DefaultPatientAccessIndex();
+        ReflectionUtils.setFieldValue(accessIndex, "pm", createPermissionsManager());
+        ReflectionUtils.setFieldValue(accessIndex, "pr", repository);
+        ReflectionUtils.setFieldValue(accessIndex, "viewAccess", mock(AccessLevel.class));
+        ReflectionUtils.setFieldValue(accessIndex, "xcontext", xcontext);
+        ReflectionUtils.setFieldValue(accessIndex, OBSERVATION_MANAGER, mock(ObservationManager.class));
+        ReflectionUtils.setFieldValue(accessIndex, METRICS, metrics);
+        accessIndex.initialize();
+        return accessIndex;
+    }
+
+    /**
+     * @return a provider of the context of an anonymous user, in a wiki where all patients have the same URL
+     */
+    static Provider<XWikiContext> createContextProvider()
+    {
+        XWiki wiki = mock(XWiki.class);
+        final XWikiContext context = mock(XWikiContext.class);
+        Mockito.doReturn("/bin/view/data/Patient").when(wiki)
+            .getURL(Matchers.any(DocumentReference.class), Matchers.anyString(), Matchers.any(XWikiContext.class));
+        Mockito.doReturn(wiki).when(context).getWiki();
+        return new Provider<XWikiContext>()
+        {
+            @Override
+            public XWikiContext get()
+            {
+                return context;
+            }
+        };
+    }
+
+    /**
+     * @return a permissions manager granting view access to all the patients, which are all visible
+     */
+    private static PermissionsManager createPermissionsManager()
+    {
+        Visibility visible = mock(Visibility.class);
+        Mockito.doReturn(1).when(visible).compareTo(Matchers.any(Visibility.class));
+        Owner owner = mock(Owner.class);
+        Mockito.doReturn("xwiki:XWiki.Owner").when(owner).getUsername();
+        PatientAccess access = mock(PatientAccess.class);
+        Mockito.doReturn(visible).when(access).getVisibility();
+        Mockito.doReturn(owner).when(access).getOwner();
+        Mockito.doReturn(true).when(access).hasAccessLevel(Matchers.any(AccessLevel.class));
+        PermissionsManager permissions = mock(PermissionsManager.class);
+        Mockito.doReturn(access).when(permissions).getPatientAccess(Matchers.any(Patient.class));
+        return permissions;
+    }
+
+    /**
+     * @param cohort the patients
+     * @return a repository materializing the patients of the cohort when they are loaded; patients share one feature
+     *         per phenotype
+     */
+    static PatientRepository createPatientRepository(final SyntheticCohort cohort)
+    {
+        final ConcurrentMap<String, Feature> features = new ConcurrentHashMap<String, Feature>();
+        PatientRepository repository = mock(PatientRepository.class);
+        Mockito.doAnswer(new Answer<Patient>()
+        {
+            @Override
+            public Patient answer(InvocationOnMock invocation)
+            {
+                String id = (String) invocation.getArguments()[0];
+                List<String> phenotype = cohort.getPhenotype(id);
+                return (phenotype == null) ? null : createPatient(id, phenotype, features);
+            }
+        }).when(repository).get(Matchers.anyString());
+        return repository;
+    }
+
+    private static Patient createPatient(String id, List<String> phenotype, ConcurrentMap<String, Feature> features)
+    {
+        Set<Feature> patientFeatures = new LinkedHashSet<Feature>();
+        for (String termId : phenotype) {
+            Feature feature = features.get(termId);
+            if (feature == null) {
+                feature = mock(Feature.class);
+                Mockito.doReturn(termId).when(feature).getId();
+                Mockito.doReturn(termId).when(feature).getName();
+                Mockito.doReturn(true).when(feature).isPresent();
+                features.putIfAbsent(termId, feature);
+            }
+            patientFeatures.add(feature);
+        }
+        Patient patient = mock(Patient.class);
+        Mockito.doReturn(id).when(patient).getId();
+        Mockito.doReturn(patientFeatures).when(patient).getFeatures();
+        return patient;
+    }
+
+    static VocabularyManager createVocabularyManager(final Vocabulary hpo, Vocabulary mim)
+    {
+        VocabularyManager vocabularyManager = mock(VocabularyManager.class);
+        Mockito.doReturn(hpo).when(vocabularyManager).getVocabulary("HPO");
+        Mockito.doReturn(mim).when(vocabularyManager).getVocabulary("MIM");
+        Mockito.doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return hpo.getTerm((String) invocation.getArguments()[0]);
+            }
+        }).when(vocabularyManager).resolveTerm(Matchers.anyString());
+        return vocabularyManager;
+    }
+
+    /**
+     * @param properties the configured properties
+     * @return a configuration returning the given properties, and the default value of any other property
+     */
+    static ConfigurationSource createConfiguration(final Map<String, Object> properties)
+    {
+        ConfigurationSource configuration = mock(ConfigurationSource.class);
+        Mockito.doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                String key = (String) invocation.getArguments()[0];
+                return properties.containsKey(key) ? properties.get(key) : invocation.getArguments()[1];
+            }
+        }).when(configuration).getProperty(Matchers.anyString(), Matchers.any(Object.class));
+        return configuration;
+    }
+
+    static <T> T mock(Class<T> type)
+    {
+        return Mockito.mock(type, Mockito.withSettings().stubOnly());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.benchmarks;
+
+import org.phenotips.data.PatientRepository;
+import org.phenotips.mendelianSearch.MendelianSearchMetrics;
+import org.phenotips.mendelianSearch.PatientAccessIndex;
+import org.phenotips.mendelianSearch.internal.DefaultMendelianSearch;
+import org.phenotips.mendelianSearch.internal.DefaultMendelianSearchMetrics;
+import org.phenotips.mendelianSearch.internal.DefaultMendelianSearchRequestFactory;
+import org.phenotips.mendelianSearch.internal.DefaultPatientViewFactory;
+import org.phenotips.mendelianSearch.phenotype.DefaultPatientPhenotypeScorer;
+import org.phenotips.mendelianSearch.phenotype.DefaultPhenotypeScorer;
+import org.phenotips.mendelianSearch.script.MendelianSearchScriptService;
+import org.phenotips.variantStoreIntegration.VariantStoreService;
+import org.phenotips.vocabulary.Vocabulary;
+
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.observation.ObservationManager;
+
+import java.util.Map;
+
+import javax.inject.Provider;
+
+import org.slf4j.helpers.NOPLogger;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Wires the whole search stack, from the script service down to the variant store, outside of a component manager.
+ * Like {@link ScorerFactory}, the vocabularies, patients and variants are synthetic and the rest of the platform is
+ * made of stub-only mocks; all the searches are run by the same, anonymous, user.
+ *
+ * @version $Id$
+ */
+public final class SearchFactory
+{
+    private static final String METRICS = "metrics";
+
+    private static final String XCONTEXT = "xcontext";
+
+    private static final String CONFIGURATION = "configuration";
+
+    private SearchFactory()
+    {
+        // Utility class
+    }
+
+    /**
+     * Create and initialize the search script service and all the components it depends on.
+     *
+     * @param hpo the phenotype vocabulary
+     * @param mim the disease vocabulary
+     * @param cohort the patients, all visible
+     * @param variantStore the variants of the patients
+     * @param properties the configured {@code xwiki.properties}, any other property has its default value
+     * @return the script service
+     * @throws Exception if a component fails to initialize
+     */
+    public static MendelianSearchScriptService createScriptService(Vocabulary hpo, Vocabulary mim,
+        SyntheticCohort cohort, VariantStoreService variantStore, Map<String, Object> properties) throws Exception
+    {
+        MendelianSearchMetrics metrics = new DefaultMendelianSearchMetrics();
+        PatientRepository repository = ScorerFactory.createPatientRepository(cohort);
+        Provider<XWikiContext> xcontext = ScorerFactory.createContextProvider();
+        PatientAccessIndex accessIndex = ScorerFactory.createAccessIndex(repository, xcontext, metrics);
+
+        DefaultPhenotypeScorer phenotypeScorer = ScorerFactory.createPhenotypeScorer(hpo, mim);
+        DefaultPatientPhenotypeScorer patientScorer =
+            ScorerFactory.createPatientPhenotypeScorer(phenotypeScorer, hpo, repository, accessIndex, metrics);
+
+        DefaultPatientViewFactory viewFactory = new DefaultPatientViewFactory();
+        ReflectionUtils.setFieldValue(viewFactory, "accessIndex", accessIndex);
+        ReflectionUtils.setFieldValue(viewFactory, "pr", repository);
+        ReflectionUtils.setFieldValue(viewFactory, XCONTEXT, xcontext);
+        ReflectionUtils.setFieldValue(viewFactory, METRICS, metrics);
+
+        DefaultMendelianSearch search = new DefaultMendelianSearch();
+        ReflectionUtils.setFieldValue(search, "variantStore", variantStore);
+        ReflectionUtils.setFieldValue(search, "patientPhenotypeScorer", patientScorer);
+        ReflectionUtils.setFieldValue(search, "om", ScorerFactory.createVocabularyManager(hpo, mim));
+        ReflectionUtils.setFieldValue(search, "pvf", viewFactory);
+        ReflectionUtils.setFieldValue(search, CONFIGURATION, ScorerFactory.createConfiguration(properties));
+        ReflectionUtils.setFieldValue(search, "cacheManager", ScorerFactory.createCacheManager());
+        ReflectionUtils.setFieldValue(search, "observationManager", ScorerFactory.mock(ObservationManager.class));
+        ReflectionUtils.setFieldValue(search, XCONTEXT, xcontext);
+        ReflectionUtils.setFieldValue(search, METRICS, metrics);
+        search.initialize();
+
+        MendelianSearchScriptService service = new MendelianSearchScriptService();
+        ReflectionUtils.setFieldValue(service, "logger", NOPLogger.NOP_LOGGER);
+        ReflectionUtils.setFieldValue(service, "ms", search);
+        ReflectionUtils.setFieldValue(service, "requestFactory", new DefaultMendelianSearchRequestFactory());
+        ReflectionUtils.setFieldValue(service, "viewFactory", viewFactory);
+        ReflectionUtils.setFieldValue(service, "phenotypeScorer", phenotypeScorer);
+        ReflectionUtils.setFieldValue(service, METRICS, metrics);
+        return service;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.benchmarks;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A reproducible set of patients, each with a fixed number of random phenotypes. Only the ids of the phenotypes are
+ * kept, patients are only materialized when the scorer loads them.
+ *
+ * @version $Id$
+ */
+public class SyntheticCohort
+{
+    private final Map<String, List<String>> phenotypes;
+
+    /**
+     * Generate a cohort.
+     *
+     * @param hpo the phenotype vocabulary
+     * @param size the number of patients
+     * @param termsPerPatient the number of phenotypes of each patient
+     * @param seed the seed of the random generator, the same seed always generates the same cohort
+     */
+    public SyntheticCohort(SyntheticVocabulary hpo, int size, int termsPerPatient, long seed)
+    {
+        Random random = new Random(seed);
+        List<VocabularyTerm> allPhenotypes = SyntheticVocabularies.getPhenotypes(hpo);
+        this.phenotypes = new LinkedHashMap<String, List<String>>(size * 2);
+        for (int i = 0; i < size; i++) {
+            List<String> ids = new ArrayList<String>(termsPerPatient);
+            for (VocabularyTerm term : SyntheticVocabularies.getRandomPhenotype(allPhenotypes, termsPerPatient,
+                random)) {
+                ids.add(term.getId());
+            }
+            this.phenotypes.put(String.format("P%07d", i + 1), ids);
+        }
+    }
+
+    /**
+     * @return the ids of all the patients, in a stable order
+     */
+    public Set<String> getPatientIds()
+    {
+        return Collections.unmodifiableSet(this.phenotypes.keySet());
+    }
+
+    /**
+     * @param patientId the id of a patient
+     * @return the ids of the phenotypes present in the patient, or {@code null} if there is no such patient
+     */
+    public List<String> getPhenotype(String patientId)
+    {
+        return this.phenotypes.get(patientId);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.benchmarks;
+
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSON;
+import org.json.JSONObject;
+
+/**
+ * A vocabulary term of a {@link SyntheticVocabulary}, with fixed parents and the ancestors derived from them.
+ *
+ * @version $Id$
+ */
+public class SyntheticTerm implements VocabularyTerm
+{
+    private final String id;
+
+    private final Set<VocabularyTerm> parents;
+
+    private final Set<VocabularyTerm> ancestors;
+
+    private final Map<String, Object> data;
+
+    private Vocabulary vocabulary;
+
+    /**
+     * Create a term.
+     *
+     * @param id the id of the term, e.g. "HP:0123456"
+     * @param parents the parents of the term, which must already be created
+     * @param data the other properties of the term, e.g. the {@code actual_symptom} of a disease
+     */
+    public SyntheticTerm(String id, Collection<VocabularyTerm> parents, Map<String, Object> data)
+    {
+        this.id = id;
+        this.parents = Collections.unmodifiableSet(new LinkedHashSet<VocabularyTerm>(parents));
+        Set<VocabularyTerm> allAncestors = new HashSet<VocabularyTerm>();
+        for (VocabularyTerm parent : parents) {
+            allAncestors.add(parent);
+            allAncestors.addAll(parent.getAncestors());
+        }
+        this.ancestors = Collections.unmodifiableSet(allAncestors);
+        this.data = data;
+    }
+
+    void setOntology(Vocabulary vocabulary)
+    {
+        this.vocabulary = vocabulary;
+    }
+
+    @Override
+    public String getId()
+    {
+        return this.id;
+    }
+
+    @Override
+    public String getName()
+    {
+        return this.id;
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return null;
+    }
+
+    @Override
+    public Set<VocabularyTerm> getParents()
+    {
+        return this.parents;
+    }
+
+    @Override
+    public Set<VocabularyTerm> getAncestors()
+    {
+        return this.ancestors;
+    }
+
+    @Override
+    public Set<VocabularyTerm> getAncestorsAndSelf()
+    {
+        Set<VocabularyTerm> result = new LinkedHashSet<VocabularyTerm>();
+        result.add(this);
+        result.addAll(this.ancestors);
+        return result;
+    }
+
+    @Override
+    public Object get(String name)
+    {
+        return this.data.get(name);
+    }
+
+    @Override
+    public Vocabulary getOntology()
+    {
+        return this.vocabulary;
+    }
+
+    @Override
+    public long getDistanceTo(VocabularyTerm other)
+    {
+        // Not used
+        return 0;
+    }
+
+    @Override
+    public JSON toJson()
+    {
+        JSONObject result = new JSONObject();
+        result.put("id", this.id);
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.id;
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.benchmarks;
+
+import org.phenotips.variantStoreIntegration.VariantStoreService;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Future;
+
+import org.ga4gh.GAVariant;
+
+/**
+ * A read-only, in-memory variant store holding a reproducible synthetic cohort. Genes have a log-normal number of
+ * variant sites, each with an effect drawn from the usual distribution of exome variants, a harmfulness score
+ * depending on the effect, and a mostly rare ExAC allele frequency. Individuals carry a random number of variants,
+ * picked in proportion to their allele frequency, and the allele count of each site among them gives its frequency
+ * in the store, the PhenomeCentral frequency. The variant annotations are stored in the {@link GAVariant#getInfo()
+ * info} of the variants, under the keys of the Exomiser annotations the variant store imports. Variants are stored in
+ * primitive arrays and only turned into {@link GAVariant}s when returned, like the real store deserializes them, so
+ * that hundreds of thousands of individuals fit in memory.
+ *
+ * @version $Id$
+ */
+public class SyntheticVariantStore implements VariantStoreService
+{
+    /** The info key holding the gene symbol of a variant. */
+    public static final String GENE = "EXOMISER_GENE";
+
+    /** The info key holding the effect of a variant on the gene. */
+    public static final String GENE_EFFECT = "EXOMISER_EFFECT";
+
+    /** The info key holding the harmfulness score of a variant, between 0 and 1. */
+    public static final String SCORE = "EXOMISER_VARIANT_SCORE";
+
+    /** The info key holding the ExAC allele frequency of a variant. */
+    public static final String EXAC_AF = "EXAC_AF";
+
+    /** The info key holding the number of alleles of a variant among the individuals of the store. */
+    public static final String ALLELE_COUNT = "AC_TOT";
+
+    /** The allele frequency filter for the ExAC frequency. */
+    private static final String EXAC_FILTER = "EXAC";
+
+    /** The allele frequency filter for the frequency in the store. */
+    private static final String PC_FILTER = "PhenomeCentral";
+
+    /** The effects of the generated variants, by decreasing frequency. */
+    private static final String[] EFFECTS = { "missense_variant", "synonymous_variant", "intron_variant",
+        "3_prime_utr_variant", "splice_region_variant", "frameshift_variant", "5_prime_utr_variant", "stop_gained",
+        "inframe_deletion", "inframe_insertion", "splice_donor_variant", "splice_acceptor_variant", "start_lost",
+        "stop_lost" };
+
+    /** The relative frequency of each effect. */
+    private static final double[] EFFECT_WEIGHTS = { 0.41, 0.2, 0.12, 0.05, 0.05, 0.04, 0.03, 0.03, 0.02, 0.01, 0.01,
+        0.01, 0.01, 0.01 };
+
+    /** The lowest and highest harmfulness score of each effect. */
+    private static final double[][] EFFECT_SCORES = { { 0, 1 }, { 0, 0.1 }, { 0, 0.1 }, { 0, 0.2 }, { 0.2, 0.6 },
+        { 0.9, 1 }, { 0, 0.2 }, { 0.9, 1 }, { 0.4, 0.8 }, { 0.4, 0.8 }, { 0.9, 1 }, { 0.9, 1 }, { 0.7, 1 },
+        { 0.5, 0.9 } };
+
+    /** The share of sites absent from ExAC. */
+    private static final double NOVEL_RATIO = 0.3;
+
+    private static final String[] BASES = { "A", "C", "G", "T" };
+
+    private static final int CHROMOSOMES = 22;
+
+    private static final int GENE_SPACING = 100000;
+
+    private final String[] ids;
+
+    private final Map<String, Integer> idIndices;
+
+    private final String[] genes;
+
+    private final Map<String, Integer> geneIndices;
+
+    private final Map<String, Integer> effectIndices = new HashMap<String, Integer>();
+
+    private final int[] siteGenes;
+
+    private final int[] sitePositions;
+
+    private final byte[] siteEffects;
+
+    private final byte[] siteReferences;
+
+    private final byte[] siteAlternatives;
+
+    private final float[] siteScores;
+
+    private final float[] siteExacFrequencies;
+
+    /** The number of individuals carrying each site, all heterozygous. */
+    private final int[] siteCarriers;
+
+    /** The variant sites of each individual, by decreasing score, from {@code individualOffsets[i]}. */
+    private final int[] individualSites;
+
+    private final int[] individualOffsets;
+
+    /** The individual and site of each carried variant of each gene, by individual, from {@code geneOffsets[g]}. */
+    private final int[] geneCarriers;
+
+    private final int[] geneSites;
+
+    private final int[] geneOffsets;
+
+    /**
+     * Generate the variants of a cohort.
+     *
+     * @param individualIds the ids of the individuals in the store
+     * @param geneCount the number of genes
+     * @param sitesPerGene the mean number of variant sites of a gene
+     * @param variantsPerIndividual the mean number of variants of an individual
+     * @param seed the seed of the random generator, the same parameters and seed always generate the same store
+     */
+    public SyntheticVariantStore(Collection<String> individualIds, int geneCount, int sitesPerGene,
+        int variantsPerIndividual, long seed)
+    {
+        Random random = new Random(seed);
+        this.ids = individualIds.toArray(new String[individualIds.size()]);
+        this.idIndices = new HashMap<String, Integer>(this.ids.length * 2);
+        for (int i = 0; i < this.ids.length; i++) {
+            this.idIndices.put(this.ids[i], i);
+        }
+        this.genes = new String[geneCount];
+        this.geneIndices = new HashMap<String, Integer>(geneCount * 2);
+        for (int g = 0; g < geneCount; g++) {
+            this.genes[g] = String.format("G%05d", g + 1);
+            this.geneIndices.put(this.genes[g], g);
+        }
+        for (int e = 0; e < EFFECTS.length; e++) {
+            this.effectIndices.put(EFFECTS[e], e);
+        }
+
+        // Gene lengths, and so their number of sites, are roughly log-normal
+        int[] geneSiteCounts = new int[geneCount];
+        int siteCount = 0;
+        for (int g = 0; g < geneCount; g++) {
+            geneSiteCounts[g] = Math.max(1, (int) Math.round(sitesPerGene * Math.exp(random.nextGaussian() - 0.5)));
+            siteCount += geneSiteCounts[g];
+        }
+        this.siteGenes = new int[siteCount];
+        this.sitePositions = new int[siteCount];
+        this.siteEffects = new byte[siteCount];
+        this.siteReferences = new byte[siteCount];
+        this.siteAlternatives = new byte[siteCount];
+        this.siteScores = new float[siteCount];
+        this.siteExacFrequencies = new float[siteCount];
+        double[] cumulativeFrequencies = new double[siteCount];
+        double totalFrequency = 0;
+        int site = 0;
+        for (int g = 0; g < geneCount; g++) {
+            for (int j = 0; j < geneSiteCounts[g]; j++, site++) {
+                this.siteGenes[site] = g;
+                this.sitePositions[site] = (g / CHROMOSOMES + 1) * GENE_SPACING + random.nextInt(GENE_SPACING / 2);
+                int effect = pick(EFFECT_WEIGHTS, random);
+                this.siteEffects[site] = (byte) effect;
+                this.siteScores[site] = (float) (EFFECT_SCORES[effect][0]
+                    + random.nextDouble() * (EFFECT_SCORES[effect][1] - EFFECT_SCORES[effect][0]));
+                this.siteReferences[site] = (byte) random.nextInt(BASES.length);
+                this.siteAlternatives[site] = (byte) ((this.siteReferences[site] + 1 + random.nextInt(3)) % 4);
+                // Most variants are rare: the median frequency is about 3e-5, and about one in ten exceeds 1%
+                double u = random.nextDouble();
+                double frequency = Math.pow(10, -5 + 4 * u * u * u);
+                this.siteExacFrequencies[site] = (random.nextDouble() < NOVEL_RATIO) ? 0 : (float) frequency;
+                totalFrequency += frequency;
+                cumulativeFrequencies[site] = totalFrequency;
+            }
+        }
+
+        this.siteCarriers = new int[siteCount];
+        int[] geneCounts = new int[geneCount];
+        this.individualOffsets = new int[this.ids.length + 1];
+        List<int[]> variants = new ArrayList<int[]>(this.ids.length);
+        int variantCount = 0;
+        for (int i = 0; i < this.ids.length; i++) {
+            int count = variantsPerIndividual / 2 + random.nextInt(variantsPerIndividual + 1);
+            int[] sites = new int[count];
+            for (int j = 0; j < count; j++) {
+                sites[j] = pick(cumulativeFrequencies, random.nextDouble() * totalFrequency);
+            }
+            sites = this.sortByScore(sites);
+            for (int s : sites) {
+                this.siteCarriers[s]++;
+                geneCounts[this.siteGenes[s]]++;
+            }
+            variants.add(sites);
+            variantCount += sites.length;
+            this.individualOffsets[i + 1] = variantCount;
+        }
+        this.individualSites = new int[variantCount];
+        for (int i = 0; i < this.ids.length; i++) {
+            System.arraycopy(variants.get(i), 0, this.individualSites, this.individualOffsets[i],
+                variants.get(i).length);
+        }
+
+        // Index the carriers of each gene, in individual order
+        this.geneOffsets = new int[geneCount + 1];
+        for (int g = 0; g < geneCount; g++) {
+            this.geneOffsets[g + 1] = this.geneOffsets[g] + geneCounts[g];
+        }
+        this.geneCarriers = new int[variantCount];
+        this.geneSites = new int[variantCount];
+        int[] next = Arrays.copyOf(this.geneOffsets, geneCount);
+        for (int i = 0; i < this.ids.length; i++) {
+            for (int v = this.individualOffsets[i]; v < this.individualOffsets[i + 1]; v++) {
+                int g = this.siteGenes[this.individualSites[v]];
+                this.geneCarriers[next[g]] = i;
+                this.geneSites[next[g]++] = this.individualSites[v];
+            }
+        }
+    }
+
+    /**
+     * @return the symbols of all the genes
+     */
+    public List<String> getGenes()
+    {
+        return Collections.unmodifiableList(Arrays.asList(this.genes));
+    }
+
+    /**
+     * @param gene a gene symbol
+     * @return the number of variants carried in this gene, by all the individuals
+     */
+    public int getCarriedVariantCount(String gene)
+    {
+        Integer g = this.geneIndices.get(gene);
+        return (g == null) ? 0 : this.geneOffsets[g + 1] - this.geneOffsets[g];
+    }
+
+    /**
+     * @return the total number of variants carried by all the individuals
+     */
+    public int getVariantCount()
+    {
+        return this.individualSites.length;
+    }
+
+    @Override
+    public Map<String, List<GAVariant>> getIndividualsWithGene(String geneSymbol, List<String> variantEffects,
+        Map<String, Double> alleleFrequencies)
+    {
+        Map<String, List<GAVariant>> result = new LinkedHashMap<String, List<GAVariant>>();
+        Integer g = this.geneIndices.get(geneSymbol);
+        if (g == null) {
+            return result;
+        }
+        boolean[] effects = new boolean[EFFECTS.length];
+        for (String effect : variantEffects) {
+            Integer e = this.effectIndices.get(effect);
+            if (e != null) {
+                effects[e] = true;
+            }
+        }
+        double maxExac = getThreshold(alleleFrequencies, EXAC_FILTER);
+        // The frequency in the store is compared as an allele count, to avoid a division per variant
+        double maxPcAlleles = getThreshold(alleleFrequencies, PC_FILTER) * 2 * this.ids.length;
+        for (int v = this.geneOffsets[g]; v < this.geneOffsets[g + 1]; v++) {
+            int site = this.geneSites[v];
+            if (effects[this.siteEffects[site]] && this.siteExacFrequencies[site] <= maxExac
+                && this.siteCarriers[site] <= maxPcAlleles) {
+                String id = this.ids[this.geneCarriers[v]];
+                List<GAVariant> carried = result.get(id);
+                if (carried == null) {
+                    carried = new ArrayList<GAVariant>(2);
+                    result.put(id, carried);
+                }
+                carried.add(this.toVariant(site));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<GAVariant> getTopHarmfullVariantsForGene(String id, String geneSymbol, Integer k)
+    {
+        List<GAVariant> result = new ArrayList<GAVariant>();
+        Integer i = this.idIndices.get(id);
+        Integer g = this.geneIndices.get(geneSymbol);
+        if (i == null || g == null) {
+            return result;
+        }
+        for (int v = this.individualOffsets[i]; v < this.individualOffsets[i + 1] && result.size() < k; v++) {
+            if (this.siteGenes[this.individualSites[v]] == g) {
+                result.add(this.toVariant(this.individualSites[v]));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<GAVariant> getTopHarmfullVariants(String id, int k)
+    {
+        List<GAVariant> result = new ArrayList<GAVariant>();
+        Integer i = this.idIndices.get(id);
+        if (i == null) {
+            return result;
+        }
+        for (int v = this.individualOffsets[i]; v < this.individualOffsets[i + 1] && result.size() < k; v++) {
+            result.add(this.toVariant(this.individualSites[v]));
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> getAllIndividuals()
+    {
+        return new ArrayList<String>(Arrays.asList(this.ids));
+    }
+
+    /**
+     * {@inheritDoc} Sites are not indexed by position, so this scans all of them.
+     */
+    @Override
+    public Map<String, List<GAVariant>> getIndividualsWithVariant(String chr, Integer pos, String ref, String alt)
+    {
+        Map<String, List<GAVariant>> result = new LinkedHashMap<String, List<GAVariant>>();
+        for (int site = 0; site < this.siteGenes.length; site++) {
+            if (this.sitePositions[site] != pos || !getChromosome(this.siteGenes[site]).equals(chr)
+                || !BASES[this.siteReferences[site]].equals(ref) || !BASES[this.siteAlternatives[site]].equals(alt)) {
+                continue;
+            }
+            int g = this.siteGenes[site];
+            for (int v = this.geneOffsets[g]; v < this.geneOffsets[g + 1]; v++) {
+                if (this.geneSites[v] == site) {
+                    result.put(this.ids[this.geneCarriers[v]], Collections.singletonList(this.toVariant(site)));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void stop()
+    {
+        // Nothing to release
+    }
+
+    @Override
+    public Future addIndividual(String id, boolean isPublic, Path file)
+    {
+        throw new UnsupportedOperationException("The synthetic variant store is read-only");
+    }
+
+    @Override
+    public Future removeIndividual(String id)
+    {
+        throw new UnsupportedOperationException("The synthetic variant store is read-only");
+    }
+
+    private GAVariant toVariant(int site)
+    {
+        Map<String, List<String>> info = new HashMap<String, List<String>>();
+        info.put(GENE, Collections.singletonList(this.genes[this.siteGenes[site]]));
+        info.put(GENE_EFFECT, Collections.singletonList(EFFECTS[this.siteEffects[site]]));
+        info.put(SCORE, Collections.singletonList(String.valueOf(this.siteScores[site])));
+        info.put(EXAC_AF, Collections.singletonList(String.valueOf(this.siteExacFrequencies[site])));
+        info.put(ALLELE_COUNT, Collections.singletonList(String.valueOf(this.siteCarriers[site])));
+
+        GAVariant variant = new GAVariant();
+        variant.setId(String.valueOf(site));
+        variant.setVariantSetId("synthetic");
+        variant.setNames(Collections.<String>emptyList());
+        variant.setReferenceName(getChromosome(this.siteGenes[site]));
+        variant.setStart((long) this.sitePositions[site]);
+        variant.setEnd((long) this.sitePositions[site] + 1);
+        variant.setReferenceBases(BASES[this.siteReferences[site]]);
+        variant.setAlternateBases(Collections.singletonList(BASES[this.siteAlternatives[site]]));
+        variant.setInfo(info);
+        return variant;
+    }
+
+    /**
+     * @param sites variant sites, possibly with duplicates
+     * @return the distinct sites, by decreasing score
+     */
+    private int[] sortByScore(int[] sites)
+    {
+        long[] keyed = new long[sites.length];
+        for (int j = 0; j < sites.length; j++) {
+            // Sorting the negated score bits in the high half sorts by decreasing score, non-negative floats being
+            // ordered like their bits
+            keyed[j] = ((long) -Float.floatToIntBits(this.siteScores[sites[j]]) << 32) | sites[j];
+        }
+        Arrays.sort(keyed);
+        int[] result = new int[sites.length];
+        int count = 0;
+        for (int j = 0; j < keyed.length; j++) {
+            int site = (int) keyed[j];
+            if (count == 0 || result[count - 1] != site) {
+                result[count++] = site;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static String getChromosome(int gene)
+    {
+        return String.valueOf(gene % CHROMOSOMES + 1);
+    }
+
+    private static double getThreshold(Map<String, Double> alleleFrequencies, String name)
+    {
+        Double threshold = (alleleFrequencies == null) ? null : alleleFrequencies.get(name);
+        return (threshold == null) ? Double.MAX_VALUE : threshold;
+    }
+
+    private static int pick(double[] weights, Random random)
+    {
+        double target = random.nextDouble();
+        for (int i = 0; i < weights.length - 1; i++) {
+            target -= weights[i];
+            if (target < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    /**
+     * @param cumulative increasing cumulative weights
+     * @param target a value between 0 and the last cumulative weight
+     * @return the index of the first cumulative weight above the target
+     */
+    private static int pick(double[] cumulative, double target)
+    {
+        int index = Arrays.binarySearch(cumulative, target);
+        return Math.min((index < 0) ? -index - 1 : index + 1, cumulative.length - 1);
+    }
+}
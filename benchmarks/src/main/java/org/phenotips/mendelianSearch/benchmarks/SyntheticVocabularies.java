@@ -0,0 +1,144 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.benchmarks;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates reproducible HPO-like and MIM-like vocabularies. The phenotype vocabulary is a random DAG under the same
+ * two roots as the HPO, {@code HP:0000001} and {@code HP:0000118}, in which each term has one or, less often, two
+ * parents among the terms generated before it, so that depth and branching grow with the size like in the real
+ * vocabulary. Diseases list random phenotypes as their {@code actual_symptom}, which gives the terms their
+ * information content.
+ *
+ * @version $Id$
+ */
+public final class SyntheticVocabularies
+{
+    /** The root of the whole phenotype vocabulary. */
+    public static final String ALL = "HP:0000001";
+
+    /** The root of the phenotypic abnormalities, the only part of the vocabulary that is scored. */
+    public static final String HP_ROOT = "HP:0000118";
+
+    /** The probability that a generated phenotype has two parents instead of one. */
+    private static final double SECOND_PARENT_RATIO = 0.2;
+
+    private static final int MIN_SYMPTOMS = 5;
+
+    private static final int MAX_SYMPTOMS = 30;
+
+    private SyntheticVocabularies()
+    {
+        // Utility class
+    }
+
+    /**
+     * Generate a phenotype vocabulary.
+     *
+     * @param size the number of phenotypes, besides the two roots
+     * @param seed the seed of the random generator, the same seed always generates the same vocabulary
+     * @return the generated vocabulary
+     */
+    public static SyntheticVocabulary createHPO(int size, long seed)
+    {
+        Random random = new Random(seed);
+        SyntheticVocabulary hpo = new SyntheticVocabulary(String.format("synthetic-%d-%d", size, seed));
+        Map<String, Object> noData = Collections.emptyMap();
+        SyntheticTerm all = new SyntheticTerm(ALL, Collections.<VocabularyTerm>emptySet(), noData);
+        hpo.add(all);
+        SyntheticTerm root = new SyntheticTerm(HP_ROOT, Collections.<VocabularyTerm>singleton(all), noData);
+        hpo.add(root);
+
+        List<VocabularyTerm> phenotypes = new ArrayList<VocabularyTerm>(size + 1);
+        phenotypes.add(root);
+        for (int i = 0; i < size; i++) {
+            Set<VocabularyTerm> parents = new LinkedHashSet<VocabularyTerm>();
+            parents.add(phenotypes.get(random.nextInt(phenotypes.size())));
+            if (phenotypes.size() > 1 && random.nextDouble() < SECOND_PARENT_RATIO) {
+                parents.add(phenotypes.get(random.nextInt(phenotypes.size())));
+            }
+            SyntheticTerm term = new SyntheticTerm(String.format("HP:%07d", 1000000 + i), parents, noData);
+            hpo.add(term);
+            phenotypes.add(term);
+        }
+        return hpo;
+    }
+
+    /**
+     * Generate a disease vocabulary annotated with phenotypes.
+     *
+     * @param hpo the phenotype vocabulary the symptoms are taken from
+     * @param size the number of diseases
+     * @param seed the seed of the random generator, the same seed always generates the same vocabulary
+     * @return the generated vocabulary
+     */
+    public static SyntheticVocabulary createMIM(SyntheticVocabulary hpo, int size, long seed)
+    {
+        Random random = new Random(seed);
+        SyntheticVocabulary mim = new SyntheticVocabulary(String.format("synthetic-%d-%d", size, seed));
+        List<VocabularyTerm> phenotypes = getPhenotypes(hpo);
+        for (int i = 0; i < size; i++) {
+            int symptomCount = MIN_SYMPTOMS + random.nextInt(MAX_SYMPTOMS - MIN_SYMPTOMS + 1);
+            List<String> symptoms = new ArrayList<String>(symptomCount);
+            for (VocabularyTerm symptom : getRandomPhenotype(phenotypes, symptomCount, random)) {
+                symptoms.add(symptom.getId());
+            }
+            Map<String, Object> data = new HashMap<String, Object>();
+            data.put("actual_symptom", symptoms);
+            mim.add(new SyntheticTerm("MIM:" + (100000 + i), Collections.<VocabularyTerm>emptySet(), data));
+        }
+        return mim;
+    }
+
+    /**
+     * @param hpo a vocabulary generated by {@link #createHPO(int, long)}
+     * @return the phenotypes that patients and diseases may have, i.e. all the terms except the two roots
+     */
+    public static List<VocabularyTerm> getPhenotypes(SyntheticVocabulary hpo)
+    {
+        List<VocabularyTerm> terms = hpo.getAllTerms();
+        return terms.subList(2, terms.size());
+    }
+
+    /**
+     * Pick distinct random phenotypes.
+     *
+     * @param phenotypes the phenotypes to pick from, as returned by {@link #getPhenotypes(SyntheticVocabulary)}
+     * @param size the number of phenotypes to pick, at most the number of available phenotypes
+     * @param random the random generator to use
+     * @return the picked phenotypes
+     */
+    public static List<VocabularyTerm> getRandomPhenotype(List<VocabularyTerm> phenotypes, int size, Random random)
+    {
+        Set<VocabularyTerm> result = new LinkedHashSet<VocabularyTerm>();
+        while (result.size() < size) {
+            result.add(phenotypes.get(random.nextInt(phenotypes.size())));
+        }
+        return new ArrayList<VocabularyTerm>(result);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.mendelianSearch.benchmarks;
+
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An in-memory vocabulary holding generated terms. Like the {@code MockHPO} and {@code MockMIM} test mocks, any search
+ * returns all the terms, which is all the phenotype scorer asks for.
+ *
+ * @version $Id$
+ */
+public class SyntheticVocabulary implements Vocabulary
+{
+    private final Map<String, SyntheticTerm> terms = new LinkedHashMap<String, SyntheticTerm>();
+
+    private final String version;
+
+    /**
+     * Create an empty vocabulary.
+     *
+     * @param version the version reported by the vocabulary, identifying the generation parameters
+     */
+    public SyntheticVocabulary(String version)
+    {
+        this.version = version;
+    }
+
+    /**
+     * Add a term to the vocabulary.
+     *
+     * @param term the term to add
+     */
+    public void add(SyntheticTerm term)
+    {
+        term.setOntology(this);
+        this.terms.put(term.getId(), term);
+    }
+
+    /**
+     * @return all the terms, in the order they were added
+     */
+    public List<VocabularyTerm> getAllTerms()
+    {
+        return new ArrayList<VocabularyTerm>(this.terms.values());
+    }
+
+    @Override
+    public VocabularyTerm getTerm(String id)
+    {
+        return this.terms.get(id);
+    }
+
+    @Override
+    public Set<VocabularyTerm> getTerms(Collection<String> ids)
+    {
+        Set<VocabularyTerm> result = new HashSet<VocabularyTerm>();
+        for (String id : ids) {
+            VocabularyTerm term = this.terms.get(id);
+            if (term != null) {
+                result.add(term);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Set<VocabularyTerm> search(Map<String, ?> fieldValues)
+    {
+        return new HashSet<VocabularyTerm>(this.terms.values());
+    }
+
+    @Override
+    public Set<VocabularyTerm> search(Map<String, ?> fieldValues, Map<String, String> queryOptions)
+    {
+        return this.search(fieldValues);
+    }
+
+    @Override
+    public long count(Map<String, ?> fieldValues)
+    {
+        return this.terms.size();
+    }
+
+    @Override
+    public long getDistance(String fromTermId, String toTermId)
+    {
+        // Not used
+        return 0;
+    }
+
+    @Override
+    public long getDistance(VocabularyTerm fromTerm, VocabularyTerm toTerm)
+    {
+        // Not used
+        return 0;
+    }
+
+    @Override
+    public Set<String> getAliases()
+    {
+        return Collections.unmodifiableSet(this.terms.keySet());
+    }
+
+    @Override
+    public long size()
+    {
+        return this.terms.size();
+    }
+
+    @Override
+    public int reindex(String sourceUrl)
+    {
+        // Not supported
+        return 1;
+    }
+
+    @Override
+    public String getDefaultOntologyLocation()
+    {
+        return null;
+    }
+
+    @Override
+    public String getVersion()
+    {
+        return this.version;
+    }
+
+    @Override
+    public Set<VocabularyTerm> termSuggest(String query, Integer rows, String sort, String customFq)
+    {
+        return Collections.emptySet();
+    }
+}